@@ -0,0 +1,174 @@
+package me.crespel.runtastic.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.topografix.gpx._1._1.BoundsType;
+import com.topografix.gpx._1._1.GpxType;
+import com.topografix.gpx._1._1.MetadataType;
+
+import me.crespel.runtastic.mapper.GpxSportSessionMapper;
+import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.parser.SportSessionParser;
+
+/**
+ * Benchmark fixtures.
+ * This class generates sport sessions with the same JSON and GPX layout as a Runtastic export,
+ * sized like common activities, and synthetic exports of many sessions with realistic bounds.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public final class Fixtures {
+
+	/**
+	 * Activity sizes: number of GPS and heart rate samples and interval between samples.
+	 */
+	public enum Activity {
+		SHORT_RUN(600, 3),
+		MARATHON(7200, 2),
+		RIDE_10K(10000, 1);
+
+		private final int points;
+		private final int intervalSeconds;
+
+		Activity(int points, int intervalSeconds) {
+			this.points = points;
+			this.intervalSeconds = intervalSeconds;
+		}
+
+		public int getPoints() {
+			return points;
+		}
+	}
+
+	private static final long START_TIME = 1535794114000L;
+
+	private Fixtures() {
+	}
+
+	public static byte[] gpsDataJson(Activity activity) {
+		SimpleDateFormat sdf = timestampFormat();
+		Random random = new Random(activity.ordinal());
+		StringBuilder sb = new StringBuilder("[");
+		double latitude = 50.6485, longitude = 3.0782, altitude = 36.5;
+		int distance = 0;
+		for (int i = 0; i < activity.points; i++) {
+			latitude += (random.nextDouble() - 0.3) * 0.0001;
+			longitude += (random.nextDouble() - 0.3) * 0.0001;
+			altitude += (random.nextDouble() - 0.5) * 0.5;
+			distance += 2 + random.nextInt(8);
+			sb.append(i > 0 ? ",\n" : "")
+				.append("{\"version\":1,\"timestamp\":\"").append(sdf.format(new Date(START_TIME + i * activity.intervalSeconds * 1000L)))
+				.append("\",\"longitude\":").append(longitude).append(",\"latitude\":").append(latitude)
+				.append(",\"altitude\":").append(altitude).append(",\"accuracy_v\":0,\"accuracy_h\":0,\"speed\":").append(random.nextDouble() * 5)
+				.append(",\"duration\":").append(i * activity.intervalSeconds * 1000L).append(",\"distance\":").append(distance)
+				.append(",\"elevation_gain\":0,\"elevation_loss\":0}");
+		}
+		return sb.append("]").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	public static byte[] heartRateDataJson(Activity activity) {
+		SimpleDateFormat sdf = timestampFormat();
+		Random random = new Random(activity.ordinal());
+		StringBuilder sb = new StringBuilder("[");
+		int distance = 0;
+		for (int i = 0; i < activity.points; i++) {
+			distance += 2 + random.nextInt(8);
+			sb.append(i > 0 ? ",\n" : "")
+				.append("{\"version\":1,\"timestamp\":\"").append(sdf.format(new Date(START_TIME + i * activity.intervalSeconds * 1000L)))
+				.append("\",\"heart_rate\":").append(120 + random.nextInt(60)).append(",\"signal_strength\":0,\"duration\":")
+				.append(i * activity.intervalSeconds * 1000L).append(",\"distance\":").append(distance).append("}");
+		}
+		return sb.append("]").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	public static byte[] sportSessionJson(Activity activity) {
+		long duration = activity.points * activity.intervalSeconds * 1000L;
+		return ("{\"start_time\":" + START_TIME + ",\"end_time\":" + (START_TIME + duration) + ",\"start_time_timezone_offset\":7200000"
+			+ ",\"end_time_timezone_offset\":7200000,\"distance\":" + activity.points * 6 + ",\"duration\":" + duration
+			+ ",\"calories\":578,\"max_speed\":34.7,\"pulse_avg\":150,\"pulse_max\":180,\"id\":\"" + activity.name().toLowerCase(Locale.ROOT)
+			+ "\",\"sport_type_id\":\"1\"}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse a sport session with its GPS and heart rate tracks.
+	 */
+	public static SportSession sportSession(SportSessionParser parser, Activity activity) throws IOException {
+		SportSession session = parser.parseSportSession(new ByteArrayInputStream(sportSessionJson(activity)));
+		session.setGpsTrack(parser.parseGpsTrack(new ByteArrayInputStream(gpsDataJson(activity))));
+		session.setHeartRateTrack(parser.parseHeartRateTrack(new ByteArrayInputStream(heartRateDataJson(activity))));
+		return session;
+	}
+
+	/**
+	 * Write a sport session as GPX, as found in exports since April 2020.
+	 */
+	public static byte[] gpx(SportSessionParser parser, Activity activity) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new GpxSportSessionMapper().mapSportSession(sportSession(parser, activity), "gpx", os);
+		return os.toByteArray();
+	}
+
+	/**
+	 * Create sessions having only bounds: repeated routes (overlapping sessions) and routes adjacent to them (compound sessions).
+	 * @param count number of sessions
+	 * @return sessions
+	 */
+	public static List<SportSession> sessionsWithBounds(int count) {
+		Random random = new Random(42);
+		List<double[]> routes = new ArrayList<>();
+		List<SportSession> sessions = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			double[] route;
+			int kind = random.nextInt(20);
+			if (routes.isEmpty() || kind < 5) {
+				// new route: minLat, minLon, height, width
+				route = new double[] { 47.0 + random.nextDouble() * 0.5, 8.0 + random.nextDouble() * 0.5, 0.005 + random.nextDouble() * 0.03, 0.005 + random.nextDouble() * 0.03 };
+				routes.add(route);
+			} else if (kind < 6) {
+				// one-off route starting at the top of an existing one
+				double[] base = routes.get(random.nextInt(routes.size()));
+				route = new double[] { base[0] + base[2] + random.nextDouble() * 0.0004, base[1] + random.nextDouble() * base[3], 0.005 + random.nextDouble() * 0.03, 0.005 + random.nextDouble() * 0.03 };
+			} else {
+				route = routes.get(random.nextInt(routes.size()));
+			}
+			double jitter = (random.nextDouble() - 0.5) * 0.0004;
+			BoundsType bounds = new BoundsType();
+			bounds.setMinlat(coordinate(route[0] + jitter));
+			bounds.setMinlon(coordinate(route[1] + jitter));
+			bounds.setMaxlat(coordinate(route[0] + route[2] + jitter));
+			bounds.setMaxlon(coordinate(route[1] + route[3] + jitter));
+			MetadataType metadata = new MetadataType();
+			metadata.setBounds(bounds);
+			GpxType gpx = new GpxType();
+			gpx.setMetadata(metadata);
+			SportSession session = new SportSession();
+			session.setId(Integer.toString(i));
+			session.setStartTime(new Date(START_TIME + i * 86400000L));
+			session.setGpx(gpx);
+			sessions.add(session);
+		}
+		return sessions;
+	}
+
+	private static BigDecimal coordinate(double value) {
+		return new BigDecimal(value).setScale(6, RoundingMode.HALF_UP);
+	}
+
+	private static SimpleDateFormat timestampFormat() {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.ROOT);
+		sdf.setTimeZone(TimeZone.getTimeZone("Europe/Paris"));
+		return sdf;
+	}
+
+}
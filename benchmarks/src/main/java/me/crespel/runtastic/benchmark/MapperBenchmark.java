@@ -0,0 +1,129 @@
+package me.crespel.runtastic.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.garmin.xmlschemas.trainingcenterdatabase.v2.TrackpointT;
+import com.topografix.gpx._1._1.BoundsType;
+import com.topografix.gpx._1._1.GpxType;
+
+import me.crespel.runtastic.benchmark.Fixtures.Activity;
+import me.crespel.runtastic.mapper.GpxSportSessionMapper;
+import me.crespel.runtastic.mapper.MappingOptions;
+import me.crespel.runtastic.mapper.TcxSportSessionMapper;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.parser.SportSessionParser;
+
+/**
+ * Mapper benchmark.
+ * This class measures writing a session as GPX and TCX, with JAXB marshalling or the streaming writers,
+ * along with the TCX trackpoint merge and the GPX bounds calculation.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapperBenchmark {
+
+	@Param({"SHORT_RUN", "MARATHON", "RIDE_10K"})
+	public Activity activity;
+
+	private final ExposedGpxMapper gpxMapper = new ExposedGpxMapper(new MappingOptions());
+	private final ExposedTcxMapper tcxMapper = new ExposedTcxMapper(new MappingOptions());
+	private SportSession session;
+	private GpxType gpx;
+
+	@Setup
+	public void setup() throws IOException {
+		session = Fixtures.sportSession(new SportSessionParser(), activity);
+		gpx = gpxMapper.mapSportSession(session, "gpx");
+	}
+
+	@State(Scope.Benchmark)
+	public static class Writers {
+		@Param({"false", "true"})
+		public boolean streaming;
+
+		private GpxSportSessionMapper gpxMapper;
+		private TcxSportSessionMapper tcxMapper;
+
+		@Setup
+		public void setup() {
+			MappingOptions options = new MappingOptions();
+			options.setStreaming(streaming);
+			gpxMapper = new GpxSportSessionMapper(options);
+			tcxMapper = new TcxSportSessionMapper(options);
+		}
+	}
+
+	@Benchmark
+	public Object writeGpx(Writers writers) {
+		return writers.gpxMapper.mapSportSession(session, "gpx", NullOutputStream.NULL_OUTPUT_STREAM);
+	}
+
+	@Benchmark
+	public Object writeTcx(Writers writers) {
+		return writers.tcxMapper.mapSportSession(session, "tcx", NullOutputStream.NULL_OUTPUT_STREAM);
+	}
+
+	@Benchmark
+	public List<TrackpointT> mapTrackpoints() {
+		return tcxMapper.mapTrackpoints(session);
+	}
+
+	@Benchmark
+	public BoundsType calculateBoundsFromGpx() {
+		return gpxMapper.calculateBounds(gpx, false);
+	}
+
+	@Benchmark
+	public BoundsType calculateBoundsFromTrack() {
+		return gpxMapper.calculateBounds(session.getGpsTrack());
+	}
+
+	private static class ExposedGpxMapper extends GpxSportSessionMapper {
+		ExposedGpxMapper(MappingOptions options) {
+			super(options);
+		}
+
+		@Override
+		public BoundsType calculateBounds(GpxType gpx, boolean considerPhotos) {
+			return super.calculateBounds(gpx, considerPhotos);
+		}
+
+		@Override
+		public BoundsType calculateBounds(GpsTrack track) {
+			return super.calculateBounds(track);
+		}
+	}
+
+	private static class ExposedTcxMapper extends TcxSportSessionMapper {
+		ExposedTcxMapper(MappingOptions options) {
+			super(options);
+		}
+
+		@Override
+		public List<TrackpointT> mapTrackpoints(SportSession session) {
+			return super.mapTrackpoints(session);
+		}
+	}
+
+}
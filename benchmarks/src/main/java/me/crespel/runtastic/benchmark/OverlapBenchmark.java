@@ -0,0 +1,56 @@
+package me.crespel.runtastic.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.crespel.runtastic.converter.ExportConverter;
+import me.crespel.runtastic.model.SessionCluster;
+import me.crespel.runtastic.model.SportSession;
+
+/**
+ * Overlap benchmark.
+ * This class measures the search for overlapping and compound sessions in exports of 1k and 10k sessions.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OverlapBenchmark {
+
+	@Param({"1000", "10000"})
+	public int sessions;
+
+	private final ExportConverter converter = new ExportConverter();
+	private List<SportSession> export;
+
+	@Setup
+	public void setup() {
+		export = Fixtures.sessionsWithBounds(sessions);
+	}
+
+	@Benchmark
+	public List<SessionCluster> doOverlap() {
+		return converter.doOverlap(export);
+	}
+
+	@Benchmark
+	public List<SessionCluster> doCompound() {
+		return converter.doCompound(export);
+	}
+
+}
@@ -0,0 +1,94 @@
+package me.crespel.runtastic.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.topografix.gpx._1._1.GpxType;
+
+import me.crespel.runtastic.benchmark.Fixtures.Activity;
+import me.crespel.runtastic.model.GpsData;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateData;
+import me.crespel.runtastic.model.HeartRateTrack;
+import me.crespel.runtastic.parser.SportSessionParser;
+import me.crespel.runtastic.xml.JaxbSupport;
+
+/**
+ * Parser benchmark.
+ * This class measures parsing the GPS and heart rate JSON files of a session, as object lists and as columnar tracks,
+ * and unmarshalling its GPX file or streaming its track.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({"SHORT_RUN", "MARATHON", "RIDE_10K"})
+	public Activity activity;
+
+	private final SportSessionParser parser = new SportSessionParser();
+	private byte[] gpsDataJson;
+	private byte[] heartRateDataJson;
+	private byte[] gpx;
+
+	@Setup
+	public void setup() throws IOException {
+		gpsDataJson = Fixtures.gpsDataJson(activity);
+		heartRateDataJson = Fixtures.heartRateDataJson(activity);
+		gpx = Fixtures.gpx(parser, activity);
+	}
+
+	@Benchmark
+	public List<GpsData> parseGpsData() throws IOException {
+		return parser.parseGpsData(new ByteArrayInputStream(gpsDataJson));
+	}
+
+	@Benchmark
+	public GpsTrack parseGpsTrack() throws IOException {
+		return parser.parseGpsTrack(new ByteArrayInputStream(gpsDataJson));
+	}
+
+	@Benchmark
+	public List<HeartRateData> parseHeartRateData() throws IOException {
+		return parser.parseHeartRateData(new ByteArrayInputStream(heartRateDataJson));
+	}
+
+	@Benchmark
+	public HeartRateTrack parseHeartRateTrack() throws IOException {
+		return parser.parseHeartRateTrack(new ByteArrayInputStream(heartRateDataJson));
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public GpxType unmarshalGpx() throws JAXBException {
+		return ((JAXBElement<GpxType>) JaxbSupport.getUnmarshaller(GpxType.class).unmarshal(new ByteArrayInputStream(gpx))).getValue();
+	}
+
+	@Benchmark
+	public GpsTrack parseGpxTrack() throws XMLStreamException {
+		return parser.parseGpxTrack(new ByteArrayInputStream(gpx));
+	}
+
+}
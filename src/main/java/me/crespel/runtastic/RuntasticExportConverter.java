@@ -2,18 +2,40 @@ package me.crespel.runtastic;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import javax.management.JMException;
 
 import com.topografix.gpx._1._1.BoundsType;
 
+import me.crespel.runtastic.converter.BatchResult;
 import me.crespel.runtastic.converter.ExportConverter;
+import me.crespel.runtastic.converter.ExportResult;
+import me.crespel.runtastic.converter.ExportWatcher;
 import me.crespel.runtastic.mapper.SportSessionMapper;
+import me.crespel.runtastic.mapper.TrackSimplifier;
+import me.crespel.runtastic.metrics.ConversionMetrics;
 import me.crespel.runtastic.model.ImagesMetaData;
+import me.crespel.runtastic.model.SessionCluster;
 import me.crespel.runtastic.model.SportSession;
 import me.crespel.runtastic.model.User;
+import me.crespel.runtastic.server.ExportServer;
 
 /**
  * Runtastic export converter main class.
@@ -24,6 +46,15 @@ import me.crespel.runtastic.model.User;
 public class RuntasticExportConverter {
 
 	protected final ExportConverter converter = new ExportConverter();
+	protected boolean incremental = false;
+	protected boolean zip = false;
+	protected boolean cache = true;
+	protected boolean cacheTracks = false;
+	protected int port = 8080;
+	protected File outputRoot;
+	protected long debounce = 200;
+	protected boolean metrics = false;
+	protected File metricsFile;
 
 	public static void main(String[] args) {
 		RuntasticExportConverter converter = new RuntasticExportConverter();
@@ -37,63 +68,187 @@ public class RuntasticExportConverter {
 	}
 
 	public void run(String[] args) throws Exception {
+		args = parseOptions(args);
 		String action = args.length > 0 ? args[0] : "";
-		switch (action) {
-			case "check":
-				if (args.length < 2) {
-					throw new IllegalArgumentException("Missing argument for action 'check'");
-				}
-				doCheck(new File(args[1]));
-				break;
-			case "list":
-				if (args.length < 2) {
-					throw new IllegalArgumentException("Missing argument for action 'list'");
-				}
-				doListWithFilter(new File(args[1]), args.length > 2 ? args[2] : null);
-				break;
-			case "user":
-				if (args.length < 2) {
-					throw new IllegalArgumentException("Missing argument for action 'user'");
-				}
-				doUser(new File(args[1]));
-				break;
-			case "info":
-				if (args.length < 3) {
-					throw new IllegalArgumentException("Missing argument for action 'info'");
-				}
-				doInfo(new File(args[1]), args[2]);
-				break;
-			case "photo":
-				if (args.length < 3) {
-					throw new IllegalArgumentException("Missing argument for action 'photo'");
-				}
-				doPhoto(new File(args[1]), args[2]);
-				break;
-			case "convert":
-				if (args.length < 4) {
-					throw new IllegalArgumentException("Missing arguments for action 'convert'");
-				}
-				doConvert(new File(args[1]), args[2], new File(args[3]), args.length > 4 ? args[4] : null);
-				break;
-			case "overlap":
-				if (args.length < 3) {
-					throw new IllegalArgumentException("Missing argument for action 'overlap'");
-				}
-				doOverlap(new File(args[2]), args[1], args.length > 3 ? new File(args[3]) : null, args.length > 4 ? args[4] : "gpx");
-				break;
-			case "compound":
-				if (args.length < 3) {
-					throw new IllegalArgumentException("Missing argument for action 'compound'");
-				}
-				doCompound(new File(args[2]), args[1], args.length > 3 ? new File(args[3]) : null, args.length > 4 ? args[4] : "gpx");
-				break;
-			case "help":
-			default:
-				printUsage();
-				break;
+		if (metrics) {
+			ConversionMetrics.get().reset();
+			ConversionMetrics.get().register();
+		}
+		try {
+			switch (action) {
+				case "check":
+					if (args.length < 2) {
+						throw new IllegalArgumentException("Missing argument for action 'check'");
+					}
+					doCheck(new File(args[1]));
+					break;
+				case "list":
+					if (args.length < 2) {
+						throw new IllegalArgumentException("Missing argument for action 'list'");
+					}
+					doListWithFilter(new File(args[1]), args.length > 2 ? args[2] : null);
+					break;
+				case "user":
+					if (args.length < 2) {
+						throw new IllegalArgumentException("Missing argument for action 'user'");
+					}
+					doUser(new File(args[1]));
+					break;
+				case "info":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing argument for action 'info'");
+					}
+					doInfo(new File(args[1]), args[2]);
+					break;
+				case "photo":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing argument for action 'photo'");
+					}
+					doPhoto(new File(args[1]), args[2]);
+					break;
+				case "convert":
+					if (args.length < 4) {
+						throw new IllegalArgumentException("Missing arguments for action 'convert'");
+					}
+					doConvert(new File(args[1]), args[2], new File(args[3]), args.length > 4 ? args[4] : null);
+					break;
+				case "batch":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing arguments for action 'batch'");
+					}
+					boolean hasFormat = args.length > 3 && ("gpx".equalsIgnoreCase(args[args.length - 1]) || "tcx".equalsIgnoreCase(args[args.length - 1]));
+					doBatch(new File(args[1]), Arrays.asList(args).subList(2, hasFormat ? args.length - 1 : args.length), hasFormat ? args[args.length - 1] : null);
+					break;
+				case "overlap":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing argument for action 'overlap'");
+					}
+					doOverlap(new File(args[2]), args[1], args.length > 3 ? new File(args[3]) : null, args.length > 4 ? args[4] : "gpx");
+					break;
+				case "compound":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing argument for action 'compound'");
+					}
+					doCompound(new File(args[2]), args[1], args.length > 3 ? new File(args[3]) : null, args.length > 4 ? args[4] : "gpx");
+					break;
+				case "route":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing argument for action 'route'");
+					}
+					doRoute(new File(args[1]), args[2]);
+					break;
+				case "watch":
+					if (args.length < 3) {
+						throw new IllegalArgumentException("Missing arguments for action 'watch'");
+					}
+					doWatch(new File(args[1]), new File(args[2]), args.length > 3 ? args[3] : null);
+					break;
+				case "serve":
+					if (args.length < 2) {
+						throw new IllegalArgumentException("Missing arguments for action 'serve'");
+					}
+					doServe(Arrays.asList(args).subList(1, args.length));
+					break;
+				case "help":
+				default:
+					printUsage();
+					break;
+			}
+			if (metrics) {
+				printMetrics();
+			}
+		} finally {
+			// Release export archives read in place
+			converter.close();
 		}
 	}
 
+	protected String[] parseOptions(String[] args) {
+		List<String> remaining = new ArrayList<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				remaining.add(arg);
+				continue;
+			}
+			int separator = arg.indexOf('=');
+			String option = separator > 0 ? arg.substring(0, separator) : arg;
+			String value = separator > 0 ? arg.substring(separator + 1) : null;
+			switch (option) {
+				case "--stream":
+					converter.getMappingOptions().setStreaming(true);
+					break;
+				case "--compact":
+					converter.getMappingOptions().setFormattedOutput(false);
+					break;
+				case "--simplify":
+					converter.getMappingOptions().setSimplifyTolerance(Double.parseDouble(requireValue(option, value)));
+					break;
+				case "--simplify-method":
+					converter.getMappingOptions().setSimplifyMethod(parseSimplifyMethod(requireValue(option, value)));
+					break;
+				case "--sample-interval":
+					converter.getMappingOptions().setSampleInterval(Integer.parseInt(requireValue(option, value)));
+					break;
+				case "--incremental":
+					incremental = true;
+					break;
+				case "--zip":
+					zip = true;
+					break;
+				case "--no-cache":
+					cache = false;
+					break;
+				case "--cache-tracks":
+					cacheTracks = true;
+					break;
+				case "--threads":
+					converter.getPipelineOptions().setThreads(requireValue(option, value));
+					break;
+				case "--queue":
+					converter.getPipelineOptions().setQueueCapacity(Integer.parseInt(requireValue(option, value)));
+					break;
+				case "--port":
+					port = Integer.parseInt(requireValue(option, value));
+					break;
+				case "--output-root":
+					outputRoot = new File(requireValue(option, value));
+					break;
+				case "--metrics":
+					metrics = true;
+					metricsFile = value != null ? new File(value) : null;
+					break;
+				case "--debounce":
+					debounce = Long.parseLong(requireValue(option, value));
+					break;
+				case "--route-similarity":
+					converter.routeSimilarity = Double.parseDouble(requireValue(option, value));
+					if (converter.routeSimilarity <= 0 || converter.routeSimilarity > 1) {
+						throw new IllegalArgumentException("Invalid value for option '" + option + "', expected a number between 0 and 1");
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option '" + arg + "'");
+			}
+		}
+		return remaining.toArray(new String[0]);
+	}
+
+	private String requireValue(String option, String value) {
+		if (value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing value for option '" + option + "'");
+		}
+		return value;
+	}
+
+	private TrackSimplifier.Method parseSimplifyMethod(String value) {
+		for (TrackSimplifier.Method method : TrackSimplifier.Method.values()) {
+			if (method.name().replace('_', '-').equalsIgnoreCase(value)) {
+				return method;
+			}
+		}
+		throw new IllegalArgumentException("Unknown simplification algorithm '" + value + "'");
+	}
+
 	protected void printUsage() {
 		System.out.println("Expected arguments:");
 		System.out.println("  check    <export path>");
@@ -104,16 +259,37 @@ public class RuntasticExportConverter {
 		System.out.println("  convert  <export path> <activity id | 'all'> <destination path> ['gpx' | 'tcx']");
 		System.out.println("  overlap  <export path> <activity id | 'all'> <destination path> ['gpx' | 'tcx']");
 		System.out.println("  compound <export path> <activity id | 'all'> <destination path> ['gpx' | 'tcx']");
+		System.out.println("  route    <export path> <activity id | 'all'>");
+		System.out.println("  batch    <destination path> <export path | glob | @list file>... ['gpx' | 'tcx']");
+		System.out.println("  watch    <export path> <destination path> ['gpx' | 'tcx']");
+		System.out.println("  serve    <export path | glob | @list file>...");
 		System.out.println("  help");
+		System.out.println("Options:");
+		System.out.println("  --stream                   write GPX/TCX files with a streaming writer (constant memory per session)");
+		System.out.println("  --compact                  write GPX/TCX files without indentation");
+		System.out.println("  --simplify=<m>             simplify GPS tracks of converted sessions, removing positions closer than <m> meters to the simplified track");
+		System.out.println("  --simplify-method=<a>      simplification algorithm: 'douglas-peucker' (default) or 'visvalingam'");
+		System.out.println("  --sample-interval=<s>      keep GPS and heart rate samples of converted sessions at least <s> seconds apart");
+		System.out.println("  --incremental              only convert sessions changed since the previous 'convert all' or 'batch' to the same destination");
+		System.out.println("  --zip                      write all converted sessions into a single ZIP archive, the destination path being the archive file");
+		System.out.println("  --no-cache                 do not use the session cache of the export when checking, listing and comparing sessions");
+		System.out.println("  --cache-tracks             also store the positions of each session in the session cache, as the 'route' action does");
+		System.out.println("  --threads=<r>,<p>,<m>,<w>  threads reading, parsing, mapping and writing sessions when converting all sessions");
+		System.out.println("  --queue=<n>                sessions queued between each of these steps");
+		System.out.println("  --route-similarity=<s>     min. share of cells crossed by both tracks of sessions following the same route (default 0.6)");
+		System.out.println("  --metrics[=<file>]         print, or write to a file, the time spent in each conversion stage at the end of the run");
+		System.out.println("  --debounce=<ms>            quiet time after file changes before the 'watch' action converts them (default 200)");
+		System.out.println("  --port=<n>                 local port of the 'serve' action (default 8080)");
+		System.out.println("  --output-root=<dir>        directory within which the 'serve' action converts sessions (none by default: no conversion)");
 	}
 
 	private void doCheck(File path) throws FileNotFoundException, IOException {
 		System.out.println("Check curent export and provide some statistics ...");
-		List<SportSession> sessions = converter.listSportSessions(path, false);
-		System.out.println("      " + sessions.size() + " Sport Sessions found.");
-
-		System.out.println("Load full list of sport session (inclusive all sub-data), this requires some time ...");
-		List<SportSession> fullsessions = converter.convertSportSessions(path, "gpx");
+		if (!cache) {
+			List<SportSession> sessions = converter.listSportSessions(path, false);
+			System.out.println("      " + sessions.size() + " Sport Sessions found.");
+		}
+		List<SportSession> fullsessions = loadSportSessions(path, "gpx", false);
 
 		// Calculate statistics ..
 		Integer gpxSessionCount = 0;
@@ -124,7 +300,7 @@ public class RuntasticExportConverter {
 		for (SportSession session : fullsessions) {
 			if (session.getGpx() != null)
 				gpxSessionCount += 1;
-			if (session.getHeartRateData() != null)
+			if (session.hasHeartRateData())
 				heartRateDataCount += 1;
 			if (session.getImages() != null) {
 				imageSessionCount += 1;
@@ -145,7 +321,12 @@ public class RuntasticExportConverter {
 		System.out.println("      " + heartRateDataCount + " Sport Sessions found with heart rate data assigned.");
 		System.out.println("      " + imageSessionCount + " Sport Sessions found with totally " + imageCount + " photo(s) assigned.");
 		System.out.println("      Total Distance: " + totDistance / 1000.0 + " [km],  Minimum distance: " + minDistance / 1000.0 + " [km],  Maximum distance: " + maxDistance / 1000.0 + " [km]");
+		printReferenceDataStatistics();
+
+	}
 
+	protected void printReferenceDataStatistics() {
+		System.out.println("Reference data: " + converter.getReferenceDataCache());
 	}
 
 	protected void doList(File path) throws FileNotFoundException, IOException {
@@ -154,7 +335,8 @@ public class RuntasticExportConverter {
 
 	protected void doListWithFilter(File path, String filter) throws FileNotFoundException, IOException {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		List<SportSession> sessions = converter.listSportSessions(path, false);
+		// Without a session cache, only sport session files are parsed
+		List<SportSession> sessions = cache && converter.hasSessionCache(path) ? converter.listSportSessionSummaries(path, cacheTracks) : converter.listSportSessions(path, false);
 		for (SportSession session : sessions) {
 			if (filter == null || session.contains(filter)) {
 				System.out.println(sdf.format(session.getStartTime()) + " - ID: " + session.getId() + ", Sport Type: " + session.getSportTypeId() + ", duration: " + Duration.ofMillis(session.getDuration()).toString() + " (" + session.getDuration() / 60000 + " min), Notes: '" + session.getNotes() + "'");
@@ -173,8 +355,11 @@ public class RuntasticExportConverter {
 	}
 
 	protected void doInfo(File path, String id) throws FileNotFoundException, IOException {
+		printInfo(converter.getSportSession(path, id));
+	}
+
+	protected void printInfo(SportSession session) {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		SportSession session = converter.getSportSession(path, id);
 		if (session != null) {
 			System.out.println(sdf.format(session.getStartTime()) + " - ID: " + session.getId());
 			System.out.println("      Sport Type: " + session.getSportTypeId() + ", Surface Type: "	+ session.getSurfaceId() + ", Feeling Id: " + session.getSubjectiveFeelingId());
@@ -185,7 +370,7 @@ public class RuntasticExportConverter {
 			System.out.println("      Start: " + sdf.format(session.getStartTime()) + ", End: " + sdf.format(session.getEndTime()) + ", Created: " + sdf.format(session.getCreatedAt()) + ", Updated: " + sdf.format(session.getUpdatedAt()));
 			System.out.println("      Elevation: (+) " + session.getElevationGain() + " m , (-) " + session.getElevationLoss() + " m  /  " + ( session.getLatitude() != null ? "Latitude: " + session.getLatitude() + ", Longitude: " + session.getLongitude() + "  ( http://maps.google.com/maps?q=" + session.getLatitude() + "," + session.getLongitude() + " )" : "No GPS information available.") );
 			System.out.println("      Notes: " + session.getNotes());
-			System.out.println("      Waypoints: " + ((session.getGpsData() == null) ? "0" : session.getGpsData().size()) + " JSON points, " + ((session.getGpx() == null) ? "0" : session.getGpx().getTrk().get(0).getTrkseg().get(0).getTrkpt().size()) + " GPX points.");
+			System.out.println("      Waypoints: " + ((session.getGpsTrack() != null) ? session.getGpsTrack().size() : (session.getGpsData() == null) ? 0 : session.getGpsData().size()) + " JSON points, " + ((session.getGpxTrack() == null) ? 0 : session.getGpxTrack().size()) + " GPX points.");
 			System.out.println("      Photos:" + (session.getSessionAlbum() != null ? session.getSessionAlbum().getPhotosIds().toString() : "none"));
 			if (session.getImages() != null) {
 				for (ImagesMetaData image : session.getImages()) {
@@ -208,7 +393,7 @@ public class RuntasticExportConverter {
 		for (ImagesMetaData image : session.getImages()) {
 			if (image != null) {
 				if (image.getId() == Integer.parseInt(id)) {
-					doInfo(path, session.getId());
+					printInfo(session);
 					System.out.println(sdf.format(session.getStartTime()) + " - ID: " + session.getId());
 					System.out.println("             [" + image.getId() + ".jpg] " + sdf.format(image.getCreatedAt()) + ": " + image.getDescription() );
 					if( image.getLatitude() != null ) System.out.println("             ( http://maps.google.com/maps?q=" + image.getLatitude() + "," + image.getLongitude() + " )");
@@ -219,20 +404,147 @@ public class RuntasticExportConverter {
 
 	protected void doConvert(File path, String id, File dest, String format) throws FileNotFoundException, IOException {
 		if ("all".equalsIgnoreCase(id)) {
+			if (zip && incremental) {
+				throw new IllegalArgumentException("Option '--incremental' is not supported with option '--zip'");
+			}
 			long startTime = System.currentTimeMillis();
-			int count = converter.exportSportSessions(path, dest, format);
+			ExportResult result = zip ? converter.exportSportSessionsToArchive(path, dest, format) : converter.exportSportSessions(path, dest, format, incremental);
 			long endTime = System.currentTimeMillis();
-			System.out.println(count + " activities successfully written to '" + dest + "' in " + (endTime - startTime) / 1000 + " seconds");
+			System.out.println(result.getTotal() + " activities successfully written to '" + dest + "' in " + (endTime - startTime) / 1000 + " seconds (" + result + ")");
+			printReferenceDataStatistics();
 		} else {
 			converter.exportSportSession(path, id, dest, format);
 			System.out.println("Activity successfully written to '" + dest + "'");
 		}
 	}
 
+	protected void doBatch(File dest, List<String> exports, String format) throws IOException {
+		if (zip) {
+			throw new IllegalArgumentException("Option '--zip' is not supported with action 'batch'");
+		}
+		List<File> paths = expandExportPaths(exports);
+		System.out.println("Convert " + paths.size() + " exports to '" + dest + "' ...");
+		BatchResult result = converter.exportSportSessions(paths, dest, format, incremental);
+		for (BatchResult.Export export : result.getExports()) {
+			System.out.println("      " + export);
+		}
+		System.out.println(result);
+		printReferenceDataStatistics();
+	}
+
+	protected void doWatch(File path, File dest, String format) throws IOException, JMException {
+		if (zip) {
+			throw new IllegalArgumentException("Option '--zip' is not supported with action 'watch'");
+		}
+		ExportWatcher watcher = new ExportWatcher(converter, path, dest, format, debounce);
+		ConversionMetrics.get().register();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				// Stopping anyway
+			}
+		}));
+		System.out.println("Watch '" + path + "' and convert new or changed sessions to '" + dest + "' ...");
+		watcher.run(new ExportWatcher.Listener() {
+			@Override
+			public void converted(Set<String> ids, ExportResult result, long latency) {
+				if (result.getConverted() > 0 || result.getDeleted() > 0) {
+					System.out.println("      " + (ids != null ? ids.size() + " changed session(s)" : "All sessions") + " processed in " + latency + " ms (" + result + ")");
+				}
+			}
+
+			@Override
+			public void failed(Set<String> ids, Exception failure) {
+				System.out.println("      Failed to convert " + (ids != null ? "session(s) " + ids : "all sessions") + ": " + failure);
+			}
+		});
+	}
+
+	protected void doServe(List<String> exports) throws IOException, InterruptedException, JMException {
+		if (zip) {
+			throw new IllegalArgumentException("Option '--zip' is not supported with action 'serve'");
+		}
+		ExportServer server = new ExportServer(converter, expandExportPaths(exports), port, Runtime.getRuntime().availableProcessors(), cache, outputRoot);
+		ConversionMetrics.get().register();
+		server.start();
+		System.out.println("Serving " + server.getExports().size() + " exports on http://localhost:" + server.getPort() + "/ ...");
+		for (Map.Entry<String, File> export : server.getExports().entrySet()) {
+			System.out.println("      /exports/" + export.getKey() + " -> " + export.getValue());
+		}
+		if (server.getOutputRoot() != null) {
+			System.out.println("Converting sessions within " + server.getOutputRoot());
+		} else {
+			System.out.println("Not converting sessions, no output root given with '--output-root'");
+		}
+
+		// Serve until the JVM is stopped, e.g. with Ctrl+C
+		CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			stopped.countDown();
+		}));
+		stopped.await();
+	}
+
+	private void printMetrics() throws IOException {
+		if (metricsFile != null) {
+			try (OutputStream os = new FileOutputStream(metricsFile)) {
+				ConversionMetrics.get().writeReport(os);
+			}
+			System.out.println("Metrics written to '" + metricsFile + "'");
+		} else {
+			System.out.println("Metrics:");
+			ConversionMetrics.get().writeReport(System.out);
+		}
+	}
+
+	// Export paths given as is, as glob patterns (e.g. 'users/*/export.zip') or in a file listing one path or pattern per line
+	protected List<File> expandExportPaths(List<String> exports) throws IOException {
+		List<File> paths = new ArrayList<>();
+		for (String export : exports) {
+			if (export.startsWith("@")) {
+				List<String> lines = new ArrayList<>();
+				for (String line : Files.readAllLines(Paths.get(export.substring(1)))) {
+					if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+						lines.add(line.trim());
+					}
+				}
+				paths.addAll(expandExportPaths(lines));
+			} else if (export.matches(".*[*?\\[{].*")) {
+				paths.addAll(expandGlob(export));
+			} else {
+				paths.add(new File(export));
+			}
+		}
+		return paths;
+	}
+
+	private List<File> expandGlob(String pattern) throws IOException {
+		// Walk from the last directory before the first wildcard, as deep as the pattern goes
+		String[] parts = pattern.replace(File.separatorChar, '/').split("/", -1);
+		int fixed = 0;
+		while (!parts[fixed].matches(".*[*?\\[{].*")) {
+			fixed++;
+		}
+		String base = String.join("/", Arrays.asList(parts).subList(0, fixed));
+		Path start = Paths.get(fixed == 0 ? "." : base.isEmpty() ? "/" : base);
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (fixed == 0 ? "./" : "") + pattern);
+		List<File> paths = new ArrayList<>();
+		if (Files.isDirectory(start)) {
+			try (Stream<Path> stream = Files.walk(start, parts.length - fixed)) {
+				stream.filter(matcher::matches).sorted().forEach(p -> paths.add(p.toFile()));
+			}
+		}
+		if (paths.isEmpty()) {
+			throw new FileNotFoundException("No export found matching '" + pattern + "'");
+		}
+		return paths;
+	}
+
 	private void doOverlap(File path, String id, File dest, String format) throws FileNotFoundException, IOException {
 		long startTime = System.currentTimeMillis();
-		System.out.println("Load full list of sport session (inclusive all sub-data), this requires some time ...");
-		List<SportSession> sessions = converter.convertSportSessions(path, format);
+		List<SportSession> sessions = loadSportSessions(path, format, dest != null);
 		converter.doOverlap(sessions);
 		displaySummary(sessions, false);
 
@@ -250,12 +562,12 @@ public class RuntasticExportConverter {
 
 		long endTime = System.currentTimeMillis();
 		System.out.println(sessions.size() + " activities successfully processed, in " + (endTime - startTime) / 1000 + " seconds");
+		printReferenceDataStatistics();
 	}
 
 	private void doCompound(File path, String id, File dest, String format) throws FileNotFoundException, IOException {
 		long startTime = System.currentTimeMillis();
-		System.out.println("Load full list of sport session (inclusive all sub-data), this requires some time ...");
-		List<SportSession> sessions = converter.convertSportSessions(path, format);
+		List<SportSession> sessions = loadSportSessions(path, format, dest != null);
 		converter.doCompound(sessions);
 		displaySummary(sessions, false);
 
@@ -273,8 +585,66 @@ public class RuntasticExportConverter {
 
 		long endTime = System.currentTimeMillis();
 		System.out.println(sessions.size() + " activities successfully processed, in " + (endTime - startTime) / 1000 + " seconds");
+		printReferenceDataStatistics();
+	}
+
+
+	private void doRoute(File path, String id) throws FileNotFoundException, IOException {
+		long startTime = System.currentTimeMillis();
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		// Routes are fingerprinted from the positions kept in the session cache, stored on first use
+		List<SportSession> sessions = loadSportSessions(path, "gpx", false, true);
+		List<SessionCluster> clusters = converter.doRoutes(sessions);
+
+		if ("all".equalsIgnoreCase(id)) {
+			System.out.println("Sport sessions following the same route ...");
+			int routeSessionCount = 0;
+			for (SessionCluster cluster : clusters) {
+				SportSession first = cluster.getSessions().get(0);
+				System.out.println("      Route of " + cluster.size() + " sessions, first on " + sdf.format(first.getStartTime()) + " (ID: " + first.getId() + ")");
+				for (SportSession session : cluster.getSessions()) {
+					System.out.println("         " + sdf.format(session.getStartTime()) + " - ID: " + session.getId() + ", Distance: " + (session.getDistance() != null ? session.getDistance() / 1000.0 : "n/a") + " km, Notes: '" + session.getNotes() + "'");
+				}
+				routeSessionCount += cluster.size();
+			}
+			System.out.println("      " + clusters.size() + " routes found, followed by " + routeSessionCount + " sessions.");
+		} else {
+			SportSession session = sessions.stream().filter(s -> id.equalsIgnoreCase(s.getId())).findFirst().orElse(null);
+			if (session == null) {
+				throw new FileNotFoundException("Sport Session '" + id + "' not found");
+			}
+			System.out.println("Sport sessions following the same route as '" + id + "', most similar first ...");
+			List<SportSession> routeSessions = session.getRouteSessions();
+			if (routeSessions == null) {
+				System.out.println("      none");
+			} else {
+				for (SportSession routeSession : routeSessions) {
+					System.out.println("      " + sdf.format(routeSession.getStartTime()) + " - ID: " + routeSession.getId() + ", Distance: " + (routeSession.getDistance() != null ? routeSession.getDistance() / 1000.0 : "n/a") + " km, Notes: '" + routeSession.getNotes() + "'");
+				}
+			}
+		}
+
+		long endTime = System.currentTimeMillis();
+		System.out.println(sessions.size() + " activities successfully processed with min. route similarity of " + converter.routeSimilarity + ", in " + (endTime - startTime) / 1000 + " seconds");
+		printReferenceDataStatistics();
+	}
+
+	// Sessions only analysed are summarized (from the session cache if enabled), sessions to export need their full GPX
+	protected List<SportSession> loadSportSessions(File path, String format, boolean export) throws FileNotFoundException, IOException {
+		return loadSportSessions(path, format, export, cacheTracks);
 	}
 
+	protected List<SportSession> loadSportSessions(File path, String format, boolean export, boolean tracks) throws FileNotFoundException, IOException {
+		if (cache && !export) {
+			System.out.println("Load sport session summaries from the session cache (parsing only new and changed sessions) ...");
+			return converter.listSportSessionSummaries(path, tracks);
+		} else if (!export) {
+			System.out.println("Load sport session summaries (parsing all sessions without mapping them) ...");
+			return converter.summarizeSportSessions(path);
+		}
+		System.out.println("Load full list of sport session (inclusive all sub-data), this requires some time ...");
+		return converter.convertSportSessions(path, format);
+	}
 
 	// display summary of sport sessions
 	public void displaySummary(List<SportSession> sessions, boolean full) {
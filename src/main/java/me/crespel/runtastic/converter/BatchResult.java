@@ -0,0 +1,174 @@
+package me.crespel.runtastic.converter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of the conversion of several exports in a single run.
+ * This class holds the result of each export, or the failure that stopped it, along with the time at which it completed,
+ * and sums them up into the throughput of the whole run.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class BatchResult {
+
+	private final List<Export> exports = new ArrayList<>();
+	private final long startTime = System.currentTimeMillis();
+	private long endTime;
+
+	public List<Export> getExports() {
+		return Collections.unmodifiableList(exports);
+	}
+
+	/**
+	 * @return exports stopped by a failure
+	 */
+	public int getFailed() {
+		int failed = 0;
+		for (Export export : exports) {
+			if (export.getFailure() != null) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return sessions converted or skipped as unchanged, in all exports
+	 */
+	public long getSessions() {
+		long sessions = 0;
+		for (Export export : exports) {
+			if (export.getResult() != null) {
+				sessions += export.getResult().getConverted() + export.getResult().getSkipped();
+			}
+		}
+		return sessions;
+	}
+
+	/**
+	 * @return bytes of session files read, in all exports
+	 */
+	public long getReadBytes() {
+		long bytes = 0;
+		for (Export export : exports) {
+			if (export.getResult() != null) {
+				bytes += export.getResult().getReadBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return bytes written, in all exports
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for (Export export : exports) {
+			if (export.getResult() != null) {
+				bytes += export.getResult().getBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return duration of the run in milliseconds
+	 */
+	public long getElapsed() {
+		return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	Export add(File path, File dest) {
+		Export export = new Export(path, dest);
+		exports.add(export);
+		return export;
+	}
+
+	void end() {
+		endTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		double seconds = Math.max(getElapsed(), 1) / 1000.0;
+		return String.format("%d exports (%d failed), %d sessions in %.1f seconds: %.1f sessions/s, %.2f MB/s read, %.2f MB/s written",
+				exports.size(), getFailed(), getSessions(), seconds, getSessions() / seconds,
+				getReadBytes() / 1048576.0 / seconds, getBytes() / 1048576.0 / seconds);
+	}
+
+	/**
+	 * Result of one export of the run.
+	 */
+	public class Export {
+
+		private final File path;
+		private final File dest;
+		private volatile ExportResult result;
+		private volatile Throwable failure;
+		private volatile long endTime;
+
+		Export(File path, File dest) {
+			this.path = path;
+			this.dest = dest;
+		}
+
+		public File getPath() {
+			return path;
+		}
+
+		public File getDest() {
+			return dest;
+		}
+
+		/**
+		 * @return conversion result, or null if the export could not be listed
+		 */
+		public ExportResult getResult() {
+			return result;
+		}
+
+		/**
+		 * @return first failure of the export, or null if it was fully converted
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		/**
+		 * @return milliseconds from the start of the run to the completion of the export
+		 */
+		public long getElapsed() {
+			return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+		}
+
+		void setResult(ExportResult result) {
+			this.result = result;
+		}
+
+		synchronized void fail(Throwable failure) {
+			if (this.failure == null) {
+				this.failure = failure;
+			}
+		}
+
+		void end() {
+			endTime = System.currentTimeMillis();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(path).append(" -> ").append(dest).append(String.format(" in %.1f seconds", getElapsed() / 1000.0));
+			if (result != null) {
+				sb.append(" (").append(result).append(")");
+			}
+			if (failure != null) {
+				sb.append(", failed: ").append(failure);
+			}
+			return sb.toString();
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package me.crespel.runtastic.converter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.apache.commons.io.FilenameUtils;
+
+import lombok.Data;
+import me.crespel.runtastic.parser.ExportSource;
+import me.crespel.runtastic.parser.RawSportSession;
+import me.crespel.runtastic.parser.SportSessionParser;
+
+/**
+ * Manifest of the sport sessions converted to a destination directory.
+ * This class records, for each session, the size, modification time and CRC-32 of its source files along with
+ * the output format, options and converter version, so that an incremental conversion only converts sessions
+ * whose sources changed. Entries describe the sources as they were read for the conversion, not as they are once it
+ * is done. The CRC-32 is only computed again when the size is unchanged but the modification time is not.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class ConversionManifest {
+
+	static final String MANIFEST_FILE = ".conversion-manifest.json";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private final ConcurrentMap<String, Entry> entries;
+
+	private ConversionManifest(Map<String, Entry> entries) {
+		this.entries = new ConcurrentHashMap<>(entries);
+	}
+
+	/**
+	 * Read the manifest of a destination directory.
+	 * @param dest destination directory
+	 * @return manifest, empty if missing or unreadable
+	 */
+	static ConversionManifest read(File dest) {
+		File manifestFile = new File(dest, MANIFEST_FILE);
+		if (manifestFile.isFile()) {
+			try (InputStream is = new BufferedInputStream(new FileInputStream(manifestFile))) {
+				Manifest manifest = MAPPER.readValue(is, Manifest.class);
+				if (manifest.getSessions() != null) {
+					return new ConversionManifest(manifest.getSessions());
+				}
+			} catch (IOException | RuntimeException e) {
+				// Unreadable or corrupt manifest: convert everything again
+			}
+		}
+		return new ConversionManifest(new TreeMap<>());
+	}
+
+	void write(File dest) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.setSessions(new TreeMap<>(entries));
+		File manifestFile = new File(dest, MANIFEST_FILE);
+		File tmpFile = new File(manifestFile.getPath() + ".tmp");
+		MAPPER.writeValue(tmpFile, manifest);
+		FileSupport.replace(tmpFile, manifestFile);
+	}
+
+	Entry get(String id) {
+		return entries.get(id);
+	}
+
+	void put(String id, Entry entry) {
+		entries.put(id, entry);
+	}
+
+	Entry remove(String id) {
+		return entries.remove(id);
+	}
+
+	/**
+	 * Remove the entries of sessions which are not part of the export anymore.
+	 * @param ids ids of the sessions still in the export
+	 * @return removed entries
+	 */
+	List<Entry> retain(Collection<String> ids) {
+		Set<String> retained = new HashSet<>(ids);
+		List<Entry> removed = new ArrayList<>();
+		entries.keySet().removeIf(id -> {
+			if (!retained.contains(id)) {
+				removed.add(entries.get(id));
+				return true;
+			}
+			return false;
+		});
+		return removed;
+	}
+
+	/**
+	 * Check if a sport session is unchanged since it was last converted with the same settings.
+	 * The modification time of sources whose content is unchanged is updated in the entry.
+	 * @param file sport session file
+	 * @param dest destination directory
+	 * @param format output format
+	 * @param options output options
+	 * @param version converter version
+	 * @param parser parser reading the export
+	 * @return true if the session does not need to be converted again
+	 */
+	boolean isUpToDate(File file, File dest, String format, String options, String version, SportSessionParser parser) throws IOException {
+		Entry entry = entries.get(getId(file));
+		if (entry == null || !Objects.equals(entry.getFormat(), format) || !Objects.equals(entry.getOptions(), options)
+				|| !Objects.equals(entry.getVersion(), version)) {
+			return false;
+		}
+		if (entry.getOutput() != null && !new File(dest, entry.getOutput()).isFile()) {
+			return false;
+		}
+		Map<String, File> sourceFiles = getSourceFiles(file, parser);
+		ExportSource exportSource = parser.getSource(file);
+		if (entry.getSources() == null || !entry.getSources().keySet().equals(sourceFiles.keySet())) {
+			return false;
+		}
+		for (Map.Entry<String, File> sourceFile : sourceFiles.entrySet()) {
+			Source source = entry.getSources().get(sourceFile.getKey());
+			File f = sourceFile.getValue();
+			if (source.getSize() != exportSource.length(f)) {
+				return false;
+			}
+			long lastModified = exportSource.lastModified(f);
+			if (source.getLastModified() != lastModified) {
+				// Touched or copied again: compare the content
+				if (source.getCrc() != crc(exportSource, f)) {
+					return false;
+				}
+				source.setLastModified(lastModified);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the sources of a sport session from the content read to convert it.
+	 * @param raw sport session files read into memory
+	 * @return sources, keyed by their path relative to the sport sessions directory
+	 */
+	static Map<String, Source> getSources(RawSportSession raw) {
+		Map<String, Source> sources = new TreeMap<>();
+		Path dir = raw.getFile().getParentFile().toPath();
+		for (File f : raw.getSourceFiles()) {
+			Source source = new Source();
+			source.setSize(raw.getSize(f));
+			source.setLastModified(raw.getLastModified(f));
+			source.setCrc(raw.getCrc(f));
+			sources.put(getKey(dir, f), source);
+		}
+		return sources;
+	}
+
+	/**
+	 * Create the entry of a sport session which has just been converted.
+	 * @param output output file name, or null if the session had nothing to convert
+	 * @param format output format
+	 * @param options output options
+	 * @param version converter version
+	 * @param sources sources read to convert the session
+	 * @return new entry
+	 */
+	static Entry createEntry(String output, String format, String options, String version, Map<String, Source> sources) {
+		Entry entry = new Entry();
+		entry.setOutput(output);
+		entry.setFormat(format);
+		entry.setOptions(options);
+		entry.setVersion(version);
+		entry.setSources(sources);
+		return entry;
+	}
+
+	static String getId(File file) {
+		return FilenameUtils.getBaseName(file.getName());
+	}
+
+	// Source files of a sport session, keyed by their path relative to the sport sessions directory
+	private static Map<String, File> getSourceFiles(File file, SportSessionParser parser) {
+		Map<String, File> sourceFiles = new TreeMap<>();
+		Path dir = file.getParentFile().toPath();
+		for (File f : parser.getSourceFiles(file, true)) {
+			sourceFiles.put(getKey(dir, f), f);
+		}
+		return sourceFiles;
+	}
+
+	private static String getKey(Path dir, File file) {
+		return FilenameUtils.separatorsToUnix(dir.relativize(file.toPath()).toString());
+	}
+
+	private static long crc(ExportSource source, File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		try (InputStream is = source.open(file)) {
+			if (is == null) {
+				throw new FileNotFoundException("File '" + file + "' not found");
+			}
+			int n;
+			while ((n = is.read(buffer)) > 0) {
+				crc.update(buffer, 0, n);
+			}
+		}
+		return crc.getValue();
+	}
+
+	@Data
+	static class Manifest {
+		private Map<String, Entry> sessions;
+	}
+
+	@Data
+	static class Entry {
+		private String output;
+		private String format;
+		private String options;
+		private String version;
+		private Map<String, Source> sources;
+	}
+
+	@Data
+	static class Source {
+		private long size;
+		private long lastModified;
+		private long crc;
+	}
+
+}
@@ -1,33 +1,76 @@
 package me.crespel.runtastic.converter;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FilenameUtils;
 
 import com.topografix.gpx._1._1.BoundsType;
 
+import me.crespel.runtastic.converter.StagedPipeline.Stage;
 import me.crespel.runtastic.mapper.DelegatingSportSessionMapper;
+import me.crespel.runtastic.mapper.MappingOptions;
 import me.crespel.runtastic.mapper.SportSessionMapper;
+import me.crespel.runtastic.mapper.TrackSimplifier;
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.SessionWriteEvent;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
 import me.crespel.runtastic.model.ImagesMetaData;
+import me.crespel.runtastic.model.SessionCluster;
+import me.crespel.runtastic.model.SessionSummary;
+import me.crespel.runtastic.model.Shoe;
 import me.crespel.runtastic.model.SportSession;
-import me.crespel.runtastic.model.SportSessionAlbums;
 import me.crespel.runtastic.model.User;
+import me.crespel.runtastic.parser.RawSportSession;
+import me.crespel.runtastic.parser.ReferenceDataCache;
 import me.crespel.runtastic.parser.SportSessionParser;
+import me.crespel.runtastic.parser.ZipExportSource;
 
 /**
  * Export directory converter.
  * @author Fabien CRESPEL (fabien@crespel.net)
  * @author Christian IMFELD (imfeldc@gmail.com)
  */
-public class ExportConverter {
+public class ExportConverter implements Closeable {
 
 	public BigDecimal diff = new BigDecimal(0.0005); // max. allowed "deviation" between bounds of sessions
+	public double routeSimilarity = 0.6; // min. estimated share of cells crossed by both routes of sessions
 
 	public static final String SPORT_SESSIONS_DIR = "Sport-sessions";
 	public static final String PHOTOS_DIR = "Photos";
@@ -36,13 +79,31 @@ public class ExportConverter {
 	public static final String USER_DIR = "User";
 	public static final String DEFAULT_FORMAT = "tcx";
 
+	private static final int ARCHIVE_BUFFER_SIZE = 65536;
+
+	private static final ConversionMetrics metrics = ConversionMetrics.get();
+
 	protected final SportSessionParser parser = new SportSessionParser();
-	protected final SportSessionMapper<?> mapper = new DelegatingSportSessionMapper();
+	protected final MappingOptions mappingOptions = new MappingOptions();
+	protected final SportSessionMapper<?> mapper = new DelegatingSportSessionMapper(mappingOptions);
+	protected final PipelineOptions pipelineOptions = new PipelineOptions();
+	protected final ConcurrentMap<File, PhotoIndex> photoIndexes = new ConcurrentHashMap<>();
+
+	public MappingOptions getMappingOptions() {
+		return mappingOptions;
+	}
+
+	public PipelineOptions getPipelineOptions() {
+		return pipelineOptions;
+	}
+
+	public ReferenceDataCache getReferenceDataCache() {
+		return parser.getReferenceDataCache();
+	}
 
 	public List<SportSession> listSportSessions(File path, boolean full) throws FileNotFoundException, IOException {
-		path = normalizeExportPath(path, SPORT_SESSIONS_DIR);
 		List<SportSession> sessions = new ArrayList<>();
-		File[] files = path.listFiles(file -> file.getName().endsWith(".json"));
+		File[] files = listSportSessionFiles(path);
 		for (File file : files) {
 			sessions.add(parser.parseSportSession(file,full));
 		}
@@ -52,7 +113,22 @@ public class ExportConverter {
 	}
 
 	public User getUser(File path) throws FileNotFoundException, IOException {
-		return parser.parseUser(new File(normalizeExportPath(path, USER_DIR), "user.json"));
+		File file = new File(normalizeExportPath(path, USER_DIR), "user.json");
+		if (!parser.getSource(file).exists(file)) {
+			throw new FileNotFoundException("User file '" + file + "' not found");
+		}
+		return parser.getUser(file.getParentFile().getParentFile());
+	}
+
+	public List<Shoe> getShoes(File path) throws FileNotFoundException, IOException {
+		return parser.getShoes(normalizeExportPath(path, USER_DIR).getParentFile());
+	}
+
+	protected PhotoIndex getPhotoIndex(File root) throws IOException {
+		root = root.getAbsoluteFile();
+		PhotoIndex index = PhotoIndex.get(root, getExportDataFile(root, PhotoIndex.INDEX_FILE), photoIndexes.get(root), parser);
+		photoIndexes.put(root, index);
+		return index;
 	}
 
 	public SportSession getSportSession(File path, String id) throws FileNotFoundException, IOException {
@@ -63,26 +139,16 @@ public class ExportConverter {
 		String sessionid = null;
 
 		File photofile = new File(normalizeExportPath(path, PHOTOS_DIR), photoid + ".jpg");
-		if( photofile.exists() ) {
+		if( parser.getSource(photofile).exists(photofile) ) {
 			// photo file found ...
 
-			ImagesMetaData image = parser.parseImagesMetaData(new File(normalizeExportPath(path, PHOTOS_META_DATA_DIR), photoid + ".json"));
+			File root = normalizeExportPath(path, PHOTOS_DIR).getParentFile();
+			ImagesMetaData image = parser.getImagesMetaData(root, photoid);
 			if( image != null ) {
 				// photo meta data file found ...
 
-				// search trough sport session album data, to find sport session related to the photo
-				File[] files = normalizeExportPath(path, PHOTOS_SPORT_SESSION_ALBUMS_DIR).listFiles(file -> file.getName().endsWith(".json"));
-				for( File file : files ) {
-					try {
-						SportSessionAlbums mysessionalbum = parser.parseSportSessionAlbumsData(file);
-						if (mysessionalbum.getPhotosIds().contains(photoid)) {
-							// Sport session id found within sport session albums
-							sessionid = mysessionalbum.getId();
-						}
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
-				}
+				// look up the sport session related to the photo in the (persisted) photo index
+				sessionid = getPhotoIndex(root).getSessionId(photoid);
 			}
 		}
 
@@ -94,20 +160,110 @@ public class ExportConverter {
 	}
 
 	public List<SportSession> convertSportSessions(File path, String format) throws FileNotFoundException, IOException {
-		File[] files = normalizeExportPath(path, SPORT_SESSIONS_DIR).listFiles(file -> file.getName().endsWith(".json"));
-		List<SportSession> sessionlist = new ArrayList<>();
-		Arrays.asList(files).parallelStream().forEach(file -> {
-			try {
-				SportSession session = parser.parseSportSession(file, true);
-				if (session.getGpsData() != null || session.getHeartRateData() != null || session.getGpx() != null) {
+		File[] files = listSportSessionFiles(path);
+		List<SportSession> sessionlist = StagedPipeline.from(Arrays.asList(files), pipelineOptions.getQueueCapacity())
+			.stage("read", pipelineOptions.getReadThreads(), file -> parser.readSportSession(file, true))
+			.stage("parse", pipelineOptions.getParseThreads(), parser::parseSportSession)
+			.stage("map", pipelineOptions.getMapThreads(), session -> {
+				if (session.hasGpsData() || session.hasHeartRateData() || session.getGpxTrack() != null) {
 					mapper.mapSportSession(session, format);
 				}
-				sessionlist.add(session);
+				// Keep the mapped GPX only, other sub-data is loaded again on access
+				session.release();
+				return session;
+			})
+			.collect();
+		Collections.sort(sessionlist);
+		return sessionlist;
+	}
+
+	/**
+	 * List the sport sessions of an export with the data needed to check and compare them: times, sport type, distance,
+	 * duration, notes, equipment and {@link SportSession#getSummary() summary} of positions, whose bounds are also set in
+	 * their GPX. The GPX of these sessions holds no track, so they cannot be exported, other sub-data is loaded on access.
+	 * Sessions are read from the session cache of the export, only sessions changed since it was written are parsed.
+	 * @param path export path
+	 * @param tracks true to also cache the positions of each session
+	 * @return sport session summaries
+	 */
+	public List<SportSession> listSportSessionSummaries(File path, boolean tracks) throws FileNotFoundException, IOException {
+		File dir = normalizeExportPath(path, SPORT_SESSIONS_DIR);
+		File[] files = parser.getSource(dir).listFiles(dir, ".json");
+		File cacheFile = getExportDataFile(dir.getParentFile(), SessionCache.CACHE_FILE);
+		SessionCache cache = SessionCache.read(cacheFile);
+		boolean cacheTracks = tracks || (cache != null && cache.hasTracks());
+		if (cache != null && cacheTracks && !cache.hasTracks()) {
+			// Rebuild the cache with tracks
+			cache = null;
+		}
+
+		List<SessionCache.Entry> entries = new ArrayList<>(files.length);
+		List<File> staleFiles = new ArrayList<>();
+		Map<File, Long> signatures = new HashMap<>();
+		for (File file : files) {
+			long signature = SessionCache.getSignature(file, parser);
+			int index = cache != null ? cache.indexOf(file.getName()) : -1;
+			if (index >= 0 && cache.getSignature(index) == signature) {
+				entries.add(new SessionCache.Entry(file.getName(), signature, cache.getSportSession(index), cacheTracks ? cache.getTrack(index) : null));
+			} else {
+				staleFiles.add(file);
+				signatures.put(file, signature);
+			}
+		}
+
+		boolean modified = cache == null || !staleFiles.isEmpty() || entries.size() != cache.size();
+		entries.addAll(summarizeSportSessions(staleFiles, signatures, cacheTracks));
+		if (modified) {
+			try {
+				SessionCache.write(cacheFile, entries, cacheTracks);
 			} catch (IOException e) {
-				throw new RuntimeException(e);
+				// Read-only export: changed sessions are parsed again on next run
 			}
-		});
-		return sessionlist;
+		}
+		return attachLoaders(dir, entries);
+	}
+
+	/**
+	 * List the sport sessions of an export with the same data as {@link #listSportSessionSummaries(File, boolean)},
+	 * parsing all sessions without reading or writing the session cache.
+	 * @param path export path
+	 * @return sport session summaries
+	 */
+	public List<SportSession> summarizeSportSessions(File path) throws FileNotFoundException, IOException {
+		File dir = normalizeExportPath(path, SPORT_SESSIONS_DIR);
+		File[] files = parser.getSource(dir).listFiles(dir, ".json");
+		return attachLoaders(dir, summarizeSportSessions(Arrays.asList(files), Collections.emptyMap(), false));
+	}
+
+	// Parse sessions, keeping only their summary: bounds are computed while GPS data and GPX are parsed, without mapping
+	private List<SessionCache.Entry> summarizeSportSessions(List<File> files, Map<File, Long> signatures, boolean tracks) throws IOException {
+		return StagedPipeline.from(files, pipelineOptions.getQueueCapacity())
+			.stage("read", pipelineOptions.getReadThreads(), file -> new ExportItem(file, parser.readSportSession(file, true)))
+			.stage("parse", pipelineOptions.getParseThreads(), item -> {
+				item.session = parser.parseSportSession(item.raw);
+				item.raw = null;
+				return item;
+			})
+			.stage("summarize", pipelineOptions.getMapThreads(), item -> SessionCache.Entry.of(item.file, signatures.getOrDefault(item.file, 0L), item.session, tracks))
+			.collect();
+	}
+
+	private List<SportSession> attachLoaders(File dir, List<SessionCache.Entry> entries) {
+		List<SportSession> sessions = new ArrayList<>(entries.size());
+		for (SessionCache.Entry entry : entries) {
+			entry.session.getSummary().setPositions(entry.track);
+			sessions.add(parser.attachLoader(entry.session, new File(dir, entry.name), true));
+		}
+		Collections.sort(sessions);
+		return sessions;
+	}
+
+	/**
+	 * @param path export path
+	 * @return true if the export has a session cache, even partially outdated
+	 */
+	public boolean hasSessionCache(File path) throws IOException {
+		return getExportDataFile(normalizeExportPath(path, SPORT_SESSIONS_DIR).getParentFile(), SessionCache.CACHE_FILE).isFile();
 	}
 
 	public void exportSportSession(SportSession session, File dest, String format) throws FileNotFoundException, IOException {
@@ -119,90 +275,519 @@ public class ExportConverter {
 
 	public void exportSportSession(File path, String id, File dest, String format) throws FileNotFoundException, IOException {
 		SportSession session = parser.parseSportSession(new File(normalizeExportPath(path, SPORT_SESSIONS_DIR), id + ".json"), true);
+		simplifyTracks(session, null);
 		exportSportSession(session, dest, format);
 	}
 
+	/**
+	 * Write a sport session to a stream, simplifying its tracks first if enabled by the mapping options.
+	 * The stream is flushed but not closed.
+	 * @param session sport session, as returned by {@link #getSportSession(File, String)}
+	 * @param dest output stream
+	 * @param format output format
+	 */
+	public void exportSportSession(SportSession session, OutputStream dest, String format) {
+		simplifyTracks(session, null);
+		mapper.mapSportSession(session, format, dest);
+	}
+
 	public int exportSportSessions(File path, File dest, String format) throws FileNotFoundException, IOException {
+		return exportSportSessions(path, dest, format, false).getTotal();
+	}
+
+	public ExportResult exportSportSessions(File path, File dest, String format, boolean incremental) throws FileNotFoundException, IOException {
+		ExportJob job = prepareExport(path, dest, format, incremental, null, null);
+		try {
+			runExports(Collections.singletonList(job), format);
+		} finally {
+			job.writeManifest();
+		}
+		return job.result;
+	}
+
+	/**
+	 * Convert some sport sessions of an export incrementally, e.g. sessions whose files were just added or changed.
+	 * As with {@link #exportSportSessions(File, File, String, boolean)}, sessions unchanged since their previous conversion
+	 * are skipped, and the outputs of sessions no longer in the export are deleted, but only the given sessions are checked.
+	 * @param path export path
+	 * @param ids ids of the sessions to convert, or to delete if they are not in the export anymore
+	 * @param dest destination directory
+	 * @param format output format
+	 * @return conversion result, counting the given sessions still in the export
+	 */
+	public ExportResult exportSportSessions(File path, Collection<String> ids, File dest, String format) throws FileNotFoundException, IOException {
+		ExportJob job = prepareExport(path, dest, format, true, null, ids);
+		try {
+			runExports(Collections.singletonList(job), format);
+		} finally {
+			job.writeManifest();
+		}
+		return job.result;
+	}
+
+	/**
+	 * Convert all sport sessions of several exports in a single run, sharing the workers of each stage.
+	 * Sessions are taken from each export in turn, so that large exports do not hold back small ones, and written to a
+	 * sub-directory of the destination named after their export. A failure only stops the conversion of its export.
+	 * @param paths export paths
+	 * @param dest destination directory
+	 * @param format output format
+	 * @param incremental true to only convert sessions changed since the previous run
+	 * @return result of each export and of the whole run
+	 */
+	public BatchResult exportSportSessions(List<File> paths, File dest, String format, boolean incremental) throws IOException {
+		BatchResult batch = new BatchResult();
+		List<ExportJob> jobs = new ArrayList<>(paths.size());
+		List<String> names = getExportNames(paths);
+		for (int i = 0; i < paths.size(); i++) {
+			File path = paths.get(i);
+			BatchResult.Export export = batch.add(path, new File(dest, names.get(i)));
+			try {
+				jobs.add(prepareExport(path, export.getDest(), format, incremental, export, null));
+			} catch (IOException | RuntimeException e) {
+				export.fail(e);
+				export.end();
+			}
+		}
+		try {
+			runExports(jobs, format);
+		} finally {
+			for (ExportJob job : jobs) {
+				try {
+					job.writeManifest();
+				} catch (IOException e) {
+					job.export.fail(e);
+				}
+			}
+			batch.end();
+		}
+		return batch;
+	}
+
+	/**
+	 * Name exports after their directory or archive, without extension. Exports sharing a name (e.g. users/&lt;name&gt;/export.zip)
+	 * are told apart by the name of their parent directory, then by a number.
+	 * @param paths export paths
+	 * @return distinct names, ignoring case, in the order of the paths
+	 */
+	public static List<String> getExportNames(List<File> paths) {
+		Map<String, Integer> baseNames = new HashMap<>();
+		for (File path : paths) {
+			baseNames.merge(getExportName(path).toLowerCase(), 1, Integer::sum);
+		}
+		List<String> names = new ArrayList<>(paths.size());
+		Set<String> distinctNames = new HashSet<>();
+		for (File path : paths) {
+			String baseName = getExportName(path);
+			File parent = path.getAbsoluteFile().toPath().normalize().toFile().getParentFile();
+			if (baseNames.get(baseName.toLowerCase()) > 1 && parent != null && !parent.getName().isEmpty()) {
+				baseName = parent.getName() + "-" + baseName;
+			}
+			String name = baseName;
+			for (int i = 2; !distinctNames.add(name.toLowerCase()); i++) {
+				name = baseName + "-" + i;
+			}
+			names.add(name);
+		}
+		return names;
+	}
+
+	private static String getExportName(File path) {
+		return FilenameUtils.getBaseName(path.getAbsoluteFile().toPath().normalize().toString());
+	}
+
+	private ExportJob prepareExport(File path, File dest, String format, boolean incremental, BatchResult.Export export, Collection<String> ids) throws IOException {
 		if (dest.exists() && !dest.isDirectory()) {
 			throw new IllegalArgumentException("Destination '" + dest + "' is not a valid directory");
 		}
 		dest.mkdirs();
-		File[] files = normalizeExportPath(path, SPORT_SESSIONS_DIR).listFiles(file -> file.getName().endsWith(".json"));
-		Arrays.asList(files).parallelStream().forEach(file -> {
-			try {
-				SportSession session = parser.parseSportSession(file, true);
-				if (session.getGpsData() != null || session.getHeartRateData() != null || session.getGpx() != null) {
-					File destFile = new File(dest, buildFileName(session, format));
-					mapper.mapSportSession(session, format, destFile);
+		File[] files = ids != null ? getSportSessionFiles(path, ids) : listSportSessionFiles(path);
+		ExportJob job = new ExportJob(dest, files, format != null ? format : DEFAULT_FORMAT, export);
+
+		// Remove the outputs of sessions deleted from the export since the previous incremental conversion
+		job.manifest = incremental ? ConversionManifest.read(dest) : null;
+		if (job.manifest != null && ids != null) {
+			Set<String> remaining = new HashSet<>();
+			for (File file : files) {
+				remaining.add(ConversionManifest.getId(file));
+			}
+			for (String id : ids) {
+				if (!remaining.contains(id)) {
+					ConversionManifest.Entry entry = job.manifest.remove(id);
+					if (entry != null) {
+						deleteOutput(dest, entry);
+						job.result.addDeleted();
+					}
+				}
+			}
+		} else if (job.manifest != null) {
+			List<String> remaining = new ArrayList<>(files.length);
+			for (File file : files) {
+				remaining.add(ConversionManifest.getId(file));
+			}
+			for (ConversionManifest.Entry entry : job.manifest.retain(remaining)) {
+				deleteOutput(dest, entry);
+				job.result.addDeleted();
+			}
+		}
+		return job;
+	}
+
+	// Each session goes through read, parse, map and write stages, holding only the data needed by the next stage
+	private void runExports(List<ExportJob> jobs, String format) throws IOException {
+		String options = mappingOptions.toString();
+		String version = getVersion();
+		StagedPipeline.from(interleave(jobs), pipelineOptions.getQueueCapacity())
+			.stage("read", pipelineOptions.getReadThreads(), guard(item -> {
+				ExportJob job = item.job;
+				if (job.manifest != null && job.manifest.isUpToDate(item.file, job.dest, job.format, options, version, parser)) {
+					job.result.addSkipped();
+					return null;
+				}
+				item.raw = parser.readSportSession(item.file, true);
+				job.result.addReadBytes(item.raw.getSize());
+				if (job.manifest != null) {
+					item.sources = ConversionManifest.getSources(item.raw);
+				}
+				return item;
+			}))
+			.stage("parse", pipelineOptions.getParseThreads(), guard(item -> {
+				item.session = parser.parseSportSession(item.raw);
+				item.raw = null;
+				return item;
+			}))
+			.stage("map", pipelineOptions.getMapThreads(), guard(item -> {
+				SportSession session = item.session;
+				if (session.hasGpsData() || session.hasHeartRateData() || session.getGpxTrack() != null) {
+					simplifyTracks(session, item.job.result);
+					ByteArrayOutputStream os = new ByteArrayOutputStream();
+					mapper.mapSportSession(session, format, os);
+					item.output = buildFileName(session, format);
+					item.content = os.toByteArray();
+				}
+				item.session = null;
+				return item;
+			}))
+			.stage("write", pipelineOptions.getWriteThreads(), guard(item -> {
+				ExportJob job = item.job;
+				if (item.content != null) {
+					SessionWriteEvent event = new SessionWriteEvent();
+					event.begin();
+					long start = metrics.start();
+					Files.write(new File(job.dest, item.output).toPath(), item.content);
+					metrics.record(ConversionMetrics.Stage.WRITE, start);
+					metrics.addBytesOut(item.content.length);
+					event.record(ConversionManifest.getId(item.file), item.output, item.content.length);
+					job.result.addBytes(item.content.length);
+					item.content = null;
+				}
+				job.result.addConverted();
+				if (job.manifest != null) {
+					String id = ConversionManifest.getId(item.file);
+					ConversionManifest.Entry previous = job.manifest.get(id);
+					if (previous != null && !Objects.equals(previous.getOutput(), item.output)) {
+						deleteOutput(job.dest, previous);
+					}
+					job.manifest.put(id, ConversionManifest.createEntry(item.output, job.format, options, version, item.sources));
+				}
+				return null;
+			}))
+			.run(item -> {});
+	}
+
+	// Sessions of each export in turn, so that all exports progress at the same pace whatever their size
+	private static Iterable<ExportItem> interleave(List<ExportJob> jobs) {
+		return () -> new Iterator<ExportItem>() {
+			private final Deque<ExportJob> queue = new ArrayDeque<>(jobs);
+
+			@Override
+			public boolean hasNext() {
+				while (!queue.isEmpty() && queue.peekFirst().next == queue.peekFirst().files.length) {
+					queue.removeFirst();
+				}
+				return !queue.isEmpty();
+			}
+
+			@Override
+			public ExportItem next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				ExportJob job = queue.removeFirst();
+				queue.addLast(job);
+				return new ExportItem(job, job.files[job.next++]);
+			}
+		};
+	}
+
+	// Track the sessions of batch exports leaving the pipeline, a failure dropping the remaining sessions of its export
+	private static Stage<ExportItem, ExportItem> guard(Stage<ExportItem, ExportItem> stage) {
+		return item -> {
+			ExportJob job = item.job;
+			if (job.export == null) {
+				return stage.apply(item);
+			}
+			ExportItem result = null;
+			if (job.export.getFailure() == null) {
+				try {
+					result = stage.apply(item);
+				} catch (Exception e) {
+					job.export.fail(e);
+				}
+			}
+			if (result == null && job.pending.decrementAndGet() == 0) {
+				job.export.end();
+			}
+			return result;
+		};
+	}
+
+	/**
+	 * Convert all sport sessions of an export into a single ZIP archive.
+	 * Sessions are mapped and compressed in parallel, then appended to the archive by a single writer. The archive is
+	 * written under a temporary name until complete.
+	 * @param path export path
+	 * @param archive destination ZIP file
+	 * @param format output format
+	 * @return conversion result
+	 */
+	public ExportResult exportSportSessionsToArchive(File path, File archive, String format) throws FileNotFoundException, IOException {
+		if (archive.isDirectory()) {
+			throw new IllegalArgumentException("Destination '" + archive + "' is not a valid file");
+		}
+		File[] files = listSportSessionFiles(path);
+		ExportResult result = new ExportResult(files.length);
+		File parent = archive.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File tmpFile = new File(parent, archive.getName() + ".tmp");
+		try (ZipArchiveOutputStream zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), ARCHIVE_BUFFER_SIZE))) {
+			StagedPipeline.from(Arrays.asList(files), pipelineOptions.getQueueCapacity())
+				.stage("read", pipelineOptions.getReadThreads(), file -> new ExportItem(file, parser.readSportSession(file, true)))
+				.stage("parse", pipelineOptions.getParseThreads(), item -> {
+					item.session = parser.parseSportSession(item.raw);
+					item.raw = null;
+					return item;
+				})
+				.stage("map", pipelineOptions.getMapThreads(), item -> {
+					SportSession session = item.session;
+					if (session.hasGpsData() || session.hasHeartRateData() || session.getGpxTrack() != null) {
+						simplifyTracks(session, result);
+						item.output = buildFileName(session, format);
+						item.entry = new ZipArchiveEntry(item.output);
+						item.content = compress(session, format, item.entry);
+					}
+					item.session = null;
+					return item;
+				})
+				// Compressed entries are appended as is, in the order they are ready
+				.stage("write", 1, item -> {
+					if (item.content != null) {
+						SessionWriteEvent event = new SessionWriteEvent();
+						event.begin();
+						long start = metrics.start();
+						zos.addRawArchiveEntry(item.entry, new ByteArrayInputStream(item.content));
+						metrics.record(ConversionMetrics.Stage.WRITE, start);
+						metrics.addBytesOut(item.content.length);
+						event.record(ConversionManifest.getId(item.file), item.output, item.content.length);
+						result.addBytes(item.content.length);
+						item.content = null;
+					}
+					result.addConverted();
+					return null;
+				})
+				.run(item -> {});
+		} catch (IOException | RuntimeException e) {
+			tmpFile.delete();
+			throw e;
+		}
+		Files.move(tmpFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return result;
+	}
+
+	// Simplify and downsample the tracks of a parsed session before mapping, when enabled by the mapping options
+	private void simplifyTracks(SportSession session, ExportResult result) {
+		if (!TrackSimplifier.isEnabled(mappingOptions)) {
+			return;
+		}
+		long points = 0, kept = 0;
+		GpsTrack gpsTrack = session.getGpsTrack();
+		if (gpsTrack != null) {
+			GpsTrack simplified = TrackSimplifier.simplify(gpsTrack, mappingOptions);
+			points += gpsTrack.size();
+			kept += simplified.size();
+			session.setGpsTrack(simplified);
+		}
+		GpsTrack gpxTrack = session.getGpxTrack();
+		if (gpxTrack != null) {
+			GpsTrack simplified = TrackSimplifier.simplify(gpxTrack, mappingOptions);
+			points += gpxTrack.size();
+			kept += simplified.size();
+			session.setGpxTrack(simplified);
+		}
+		HeartRateTrack heartRateTrack = session.getHeartRateTrack();
+		if (heartRateTrack != null) {
+			HeartRateTrack downsampled = TrackSimplifier.simplify(heartRateTrack, mappingOptions);
+			points += heartRateTrack.size();
+			kept += downsampled.size();
+			session.setHeartRateTrack(downsampled);
+		}
+		if (result != null) {
+			result.addPoints(points, kept);
+		}
+	}
+
+	// Map a sport session straight into a raw deflate stream, to be appended to an archive without compressing it again
+	private byte[] compress(SportSession session, String format, ZipArchiveEntry entry) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			DeflaterOutputStream deflaterStream = new DeflaterOutputStream(bytes, deflater, ARCHIVE_BUFFER_SIZE);
+			CheckedOutputStream os = new CheckedOutputStream(deflaterStream, new CRC32());
+			mapper.mapSportSession(session, format, os);
+			deflaterStream.finish();
+			entry.setMethod(ZipEntry.DEFLATED);
+			entry.setCrc(os.getChecksum().getValue());
+			entry.setSize(deflater.getBytesRead());
+			entry.setCompressedSize(bytes.size());
+			entry.setTime(System.currentTimeMillis());
+		} finally {
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+
+	// Sport session moving through the export and summary pipelines
+	private static class ExportItem {
+		private final File file;
+		private ExportJob job;
+		private RawSportSession raw;
+		private Map<String, ConversionManifest.Source> sources;
+		private SportSession session;
+		private String output;
+		private byte[] content;
+		private ZipArchiveEntry entry;
+
+		ExportItem(File file, RawSportSession raw) {
+			this.file = file;
+			this.raw = raw;
+		}
+
+		ExportItem(ExportJob job, File file) {
+			this.file = file;
+			this.job = job;
+		}
+	}
+
+	// Export converted to a destination directory, alone or as part of a batch
+	private static class ExportJob {
+		private final File dest;
+		private final File[] files;
+		private final String format;
+		private final ExportResult result;
+		private final BatchResult.Export export;
+		private final AtomicInteger pending;
+		private ConversionManifest manifest;
+		private int next;
+
+		ExportJob(File dest, File[] files, String format, BatchResult.Export export) {
+			this.dest = dest;
+			this.files = files;
+			this.format = format;
+			this.result = new ExportResult(files.length);
+			this.export = export;
+			this.pending = new AtomicInteger(files.length);
+			if (export != null) {
+				export.setResult(result);
+				if (files.length == 0) {
+					export.end();
 				}
-			} catch (IOException e) {
-				throw new RuntimeException(e);
 			}
-		});
-		return files.length;
+		}
+
+		void writeManifest() throws IOException {
+			if (manifest != null) {
+				// Also record the sessions converted before a failure
+				manifest.write(dest);
+			}
+		}
+	}
+
+	private void deleteOutput(File dest, ConversionManifest.Entry entry) {
+		if (entry.getOutput() != null) {
+			new File(dest, entry.getOutput()).delete();
+		}
+	}
+
+	protected String getVersion() {
+		String version = ExportConverter.class.getPackage().getImplementationVersion();
+		return version != null ? version : "dev";
 	}
 
 
 	// Loop through all sport session and add "overlapping" session to each sport session
-	public void doOverlap(List<SportSession> sessions) {
+	public List<SessionCluster> doOverlap(List<SportSession> sessions) {
 		// (1) search per session for all overlapping sessions
 		// NOTE: This can result in different results; e.g.
 		// - Session A, overlaps with B and C, but
 		// - Session D, overlaps only with B and C (this because B & C are in range of D, but not of A)
 		// but expected is that all mention sessions above are calculated as "overlapping"
-		// This circumstance will be "normalized" in a second step.
-		for (SportSession session : sessions) {
+		// This circumstance is "normalized" by joining overlapping sessions into the same cluster.
+		SessionBoundsIndex index = new SessionBoundsIndex(sessions, diff);
+		SessionUnionFind unionFind = new SessionUnionFind(sessions);
+		for (int i = 0; i < sessions.size(); i++) {
+			SportSession session = sessions.get(i);
 			if (session.getGpx() != null && session.getGpx().getMetadata() != null
 					&& session.getGpx().getMetadata().getBounds() != null) {
-				List<SportSession> overlapSessions = new ArrayList<>();
-				for (SportSession session2 : sessions) {
+				// only sessions near this one in the index need the exact comparison
+				for (SportSession session2 : index.getOverlapCandidates(i)) {
 					if (!session.getId().equals(session2.getId())) {
-						if ((session2.getGpx() != null && session2.getGpx().getMetadata() != null
-								&& session2.getGpx().getMetadata().getBounds() != null)) {
-							BoundsType bounds = session.getGpx().getMetadata().getBounds();
-							BoundsType bounds2 = session2.getGpx().getMetadata().getBounds();
-							BigDecimal diffMaxlat = bounds.getMaxlat().subtract(bounds2.getMaxlat()).abs();
-							BigDecimal diffMaxlon = bounds.getMaxlon().subtract(bounds2.getMaxlon()).abs();
-							BigDecimal diffMinlat = bounds.getMinlat().subtract(bounds2.getMinlat()).abs();
-							BigDecimal diffMinlon = bounds.getMinlon().subtract(bounds2.getMinlon()).abs();
-							if ((diffMaxlat.compareTo(diff) < 0) && (diffMaxlon.compareTo(diff) < 0)
-									&& (diffMinlat.compareTo(diff) < 0) && (diffMinlon.compareTo(diff) < 0)) {
-								// overlapping sport session found
-								overlapSessions.add(session2);
-							}
+						if (isOverlap(session, session2)) {
+							// overlapping sport session found
+							unionFind.union(session, session2);
 						}
 					}
 				}
-				if( overlapSessions.size()>0) {
-					session.setOverlapSessions(overlapSessions);
-				}
 			}
 		}
-		// (2) Normalize overlapping sport sessions
+		// (2) Build clusters of overlapping sport sessions, shared by all sessions of a cluster
 		for (SportSession session : sessions) {
-			if( session.getOverlapSessions() != null ) {
-				List<SportSession> normalizedOverlapSessions = new ArrayList<>();
-				for (SportSession overlapSession : session.getOverlapSessions()) {
-					addOverlapSessions(normalizedOverlapSessions, overlapSession);
-				}
-				session.setOverlapSessions(normalizedOverlapSessions);
+			session.setOverlapSessions(null);
+			session.setInnerBound(null);
+			session.setOuterBound(null);
+		}
+		List<SessionCluster> clusters = unionFind.getClusters();
+		for (SessionCluster cluster : clusters) {
+			for (SportSession session : cluster.getSessions()) {
+				session.setOverlapSessions(cluster.getSessions());
 			}
 		}
-		// (3) Calculate inner and outer bound (of normalized overlapping sessions)
-		for (SportSession session : sessions) {
-			calculateInnerAndOuterBound(session);
+		// (3) Calculate inner and outer bound (of clustered overlapping sessions), once per cluster
+		for (SessionCluster cluster : clusters) {
+			SportSession first = cluster.getSessions().get(0);
+			calculateInnerAndOuterBound(first);
+			for (SportSession session : cluster.getSessions()) {
+				session.setInnerBound(first.getInnerBound());
+				session.setOuterBound(first.getOuterBound());
+			}
 		}
+		return clusters;
 	}
 
-	private void addOverlapSessions(List<SportSession> normalizedOverlapSessions, SportSession overlapSession) {
-		if((normalizedOverlapSessions != null) && (overlapSession.getOverlapSessions() != null)) {
-			for (SportSession innerOverlapSession : overlapSession.getOverlapSessions()) {
-				if( (innerOverlapSession != null) && (!normalizedOverlapSessions.contains(innerOverlapSession)) ) {
-					normalizedOverlapSessions.add(innerOverlapSession);
-					addOverlapSessions(normalizedOverlapSessions, innerOverlapSession);
-				}
+	public boolean isOverlap(SportSession session, SportSession session2) {
+		if ((session2.getGpx() != null && session2.getGpx().getMetadata() != null && session2.getGpx().getMetadata().getBounds() != null)) {
+			BoundsType bounds = session.getGpx().getMetadata().getBounds();
+			BoundsType bounds2 = session2.getGpx().getMetadata().getBounds();
+			BigDecimal diffMaxlat = bounds.getMaxlat().subtract(bounds2.getMaxlat()).abs();
+			BigDecimal diffMaxlon = bounds.getMaxlon().subtract(bounds2.getMaxlon()).abs();
+			BigDecimal diffMinlat = bounds.getMinlat().subtract(bounds2.getMinlat()).abs();
+			BigDecimal diffMinlon = bounds.getMinlon().subtract(bounds2.getMinlon()).abs();
+			if ((diffMaxlat.compareTo(diff) < 0) && (diffMaxlon.compareTo(diff) < 0)
+					&& (diffMinlat.compareTo(diff) < 0) && (diffMinlon.compareTo(diff) < 0)) {
+				// overlapping sport session found
+				return true;
 			}
 		}
+		return false;
 	}
 
 	public void calculateInnerAndOuterBound(SportSession session) {
@@ -249,42 +834,48 @@ public class ExportConverter {
 	}
 
 	// Loop through all sport session and search for "adjuncted" sessions
-	public void doCompound(List<SportSession> sessions) {
+	public List<SessionCluster> doCompound(List<SportSession> sessions) {
 		// calculate overlapping sessions, as those are not considered as "compound" session
-		doOverlap(sessions);
+		Map<String, SessionCluster> overlapClusters = new HashMap<>();
+		for (SessionCluster cluster : doOverlap(sessions)) {
+			for (String id : cluster.getIds()) {
+				overlapClusters.put(id, cluster);
+			}
+		}
 
 		// (1) search per session for all "adjuncted sessions
-		for (SportSession session : sessions) {
+		SessionBoundsIndex index = new SessionBoundsIndex(sessions, diff);
+		SessionUnionFind unionFind = new SessionUnionFind(sessions);
+		for (int i = 0; i < sessions.size(); i++) {
+			SportSession session = sessions.get(i);
 			if (session.getGpx() != null && session.getGpx().getMetadata() != null && session.getGpx().getMetadata().getBounds() != null) {
-				List<SportSession> compoundSessions = new ArrayList<>();
-				for (SportSession session2 : sessions) {
+				SessionCluster overlapCluster = overlapClusters.get(session.getId());
+				// only sessions with an edge near this one in the index need the exact comparison
+				for (SportSession session2 : index.getCompoundCandidates(i)) {
 					if (!session.getId().equals(session2.getId())) {
-						if( (session.getOverlapSessions()==null) ||
-						    ((session.getOverlapSessions()!=null) && (!session.getOverlapSessions().contains(session2))) ) {
+						if( (overlapCluster==null) || (!overlapCluster.contains(session2)) ) {
 							// process session only if it isn't an "overlapping" session
 							if(isCompound(session,session2))
 							{
 								// compound sport session found
-								compoundSessions.add(session2);
+								unionFind.union(session, session2);
 							}
 						}
 					}
 				}
-				if( compoundSessions.size() > 0 ) {
-					session.setCompoundSessions(compoundSessions);
-				}
 			}
 		}
-		// (2) Normalize compound sport sessions (add all compound sessions to one "chain")
+		// (2) Build clusters of compound sport sessions (all compound sessions in one "chain")
 		for (SportSession session : sessions) {
-			if( session.getCompoundSessions() != null ) {
-				List<SportSession> normalizedCompoundSessions = new ArrayList<>();
-				for (SportSession compoundSession : session.getCompoundSessions()) {
-					addCompoundSessions(normalizedCompoundSessions, compoundSession);
-				}
-				session.setCompoundSessions(normalizedCompoundSessions);
+			session.setCompoundSessions(null);
+		}
+		List<SessionCluster> clusters = unionFind.getClusters();
+		for (SessionCluster cluster : clusters) {
+			for (SportSession session : cluster.getSessions()) {
+				session.setCompoundSessions(cluster.getSessions());
 			}
 		}
+		return clusters;
 	}
 
 	public boolean isCompound(SportSession session, SportSession session2) {
@@ -306,19 +897,94 @@ public class ExportConverter {
 		return false;
 	}
 
-	private void addCompoundSessions(List<SportSession> normalizedCompoundSessions, SportSession compoundSession) {
-		if((normalizedCompoundSessions != null) && (compoundSession.getCompoundSessions() != null)) {
-			for (SportSession innerCompoundSession : compoundSession.getCompoundSessions()) {
-				if( (innerCompoundSession != null) && (!normalizedCompoundSessions.contains(innerCompoundSession)) ) {
-					normalizedCompoundSessions.add(innerCompoundSession);
-					addCompoundSessions(normalizedCompoundSessions, innerCompoundSession);
+	// Loop through all sport sessions and search for sessions following the same route, whatever their bounds
+	public List<SessionCluster> doRoutes(List<SportSession> sessions) throws IOException {
+		// (1) fingerprint the route of each session, loading its positions on demand
+		long[][] signatures = new long[sessions.size()][];
+		List<Integer> indexes = new ArrayList<>(sessions.size());
+		for (int i = 0; i < sessions.size(); i++) {
+			indexes.add(i);
+		}
+		StagedPipeline.from(indexes, pipelineOptions.getQueueCapacity())
+			.stage("fingerprint", pipelineOptions.getMapThreads(), i -> {
+				signatures[i] = getRouteSignature(sessions.get(i));
+				return i;
+			})
+			.run(i -> { });
+
+		// (2) search per session for the sessions sharing enough cells, among those sharing a band of signature
+		RouteIndex index = new RouteIndex(signatures);
+		SessionUnionFind unionFind = new SessionUnionFind(sessions);
+		for (int i = 0; i < sessions.size(); i++) {
+			SportSession session = sessions.get(i);
+			List<Integer> matches = new ArrayList<>();
+			for (int j : index.getCandidates(i)) {
+				if (!session.getId().equals(sessions.get(j).getId()) && index.getSimilarity(i, j) >= routeSimilarity) {
+					matches.add(j);
 				}
 			}
+			// most similar routes first
+			final int session1 = i;
+			matches.sort((a, b) -> Double.compare(index.getSimilarity(session1, b), index.getSimilarity(session1, a)));
+			List<SportSession> routeSessions = new ArrayList<>(matches.size());
+			for (int j : matches) {
+				routeSessions.add(sessions.get(j));
+				unionFind.union(session, sessions.get(j));
+			}
+			session.setRouteSessions(routeSessions.isEmpty() ? null : routeSessions);
 		}
+
+		// (3) Build clusters of sessions following the same route
+		return unionFind.getClusters();
+	}
+
+	private long[] getRouteSignature(SportSession session) {
+		RouteIndex.Fingerprint fingerprint = new RouteIndex.Fingerprint();
+		// Positions kept by the session cache, in the same order, without reading the session files
+		int[] positions = session.getSummary().getPositions();
+		if (positions != null) {
+			for (int i = 0; i < positions.length; i += 2) {
+				if (positions[i] == SessionSummary.SEGMENT_START) {
+					fingerprint.newSegment();
+				} else {
+					fingerprint.add(SessionCache.toDegrees(positions[i]), SessionCache.toDegrees(positions[i + 1]));
+				}
+			}
+			return fingerprint.getSignature();
+		}
+		GpsTrack track = session.getGpsTrack();
+		if (track == null && session.getGpsData() != null) {
+			track = GpsTrack.of(session.getGpsData());
+		}
+		if (track != null) {
+			for (int i = 0; i < track.size(); i++) {
+				if (track.hasPosition(i)) {
+					fingerprint.add(track.getLatitude(i), track.getLongitude(i));
+				}
+			}
+		}
+		// Track of the GPX file of the session, read apart from its GPX which may be the mapped one or hold only bounds
+		GpsTrack gpxTrack = session.getGpxTrack();
+		if (gpxTrack != null) {
+			for (int s = 0; s < gpxTrack.getSegmentCount(); s++) {
+				fingerprint.newSegment();
+				for (int i = gpxTrack.getSegmentStart(s); i < gpxTrack.getSegmentEnd(s); i++) {
+					if (gpxTrack.hasPosition(i)) {
+						fingerprint.add(gpxTrack.getLatitude(i), gpxTrack.getLongitude(i));
+					}
+				}
+			}
+		}
+		session.release();
+		return fingerprint.getSignature();
 	}
 
 
-	protected File normalizeExportPath(File path, String subpath) {
+	protected File normalizeExportPath(File path, String subpath) throws IOException {
+		// check if an export archive is provided, to read it in place ...
+		if (ZipExportSource.isArchive(path)) {
+			path = parser.openArchive(path);
+		}
 		// check if "Sport Session" sub-directory is provided ...
 		if (SPORT_SESSIONS_DIR.equals(path.getName())) {
 			// if yes, remove them.
@@ -329,14 +995,45 @@ public class ExportConverter {
 			// if not, add sub-path to path.
 			path = new File(path, subpath);
 		}
-		if (!path.isDirectory()) {
+		if (!parser.getSource(path).isDirectory(path)) {
 			throw new IllegalArgumentException("Export path '" + path + "' is not a valid directory");
 		}
 		return path;
 	}
 
+	protected File[] listSportSessionFiles(File path) throws IOException {
+		File dir = normalizeExportPath(path, SPORT_SESSIONS_DIR);
+		return parser.getSource(dir).listFiles(dir, ".json");
+	}
+
+	// Files of the given sessions still in the export
+	private File[] getSportSessionFiles(File path, Collection<String> ids) throws IOException {
+		File dir = normalizeExportPath(path, SPORT_SESSIONS_DIR);
+		List<File> files = new ArrayList<>(ids.size());
+		for (String id : ids) {
+			File file = new File(dir, id + ".json");
+			if (parser.getSource(file).exists(file)) {
+				files.add(file);
+			}
+		}
+		return files.toArray(new File[0]);
+	}
+
+	// Files written by the converter at the root of an export directory, or next to an export archive
+	static File getExportDataFile(File root, String name) {
+		return root.isDirectory() ? new File(root, name) : new File(root.getParentFile(), root.getName() + name);
+	}
+
+	/**
+	 * Close the export archives read so far.
+	 */
+	@Override
+	public void close() throws IOException {
+		parser.closeArchives();
+	}
+
 
-	protected String buildFileName(SportSession session, String format) {
+	public String buildFileName(SportSession session, String format) {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss");
 		return new StringBuilder("runtastic_")
 			.append(sdf.format(session.getStartTime()))
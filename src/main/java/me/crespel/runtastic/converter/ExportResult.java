@@ -0,0 +1,111 @@
+package me.crespel.runtastic.converter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Result of the conversion of all sport sessions of an export.
+ * This class counts the sessions converted, skipped because unchanged since the previous incremental conversion,
+ * and deleted because they are not part of the export anymore, along with the bytes read and written and the track
+ * points kept when simplifying tracks.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class ExportResult {
+
+	private final int total;
+	private final AtomicInteger converted = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger deleted = new AtomicInteger();
+	private final AtomicLong readBytes = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong points = new AtomicLong();
+	private final AtomicLong keptPoints = new AtomicLong();
+
+	public ExportResult(int total) {
+		this.total = total;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getConverted() {
+		return converted.get();
+	}
+
+	public int getSkipped() {
+		return skipped.get();
+	}
+
+	public int getDeleted() {
+		return deleted.get();
+	}
+
+	/**
+	 * @return bytes of the session files read, for sessions not skipped
+	 */
+	public long getReadBytes() {
+		return readBytes.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return GPS, GPX and heart rate points of the simplified tracks before simplification
+	 */
+	public long getPoints() {
+		return points.get();
+	}
+
+	/**
+	 * @return GPS, GPX and heart rate points of the simplified tracks after simplification
+	 */
+	public long getKeptPoints() {
+		return keptPoints.get();
+	}
+
+	void addConverted() {
+		converted.incrementAndGet();
+	}
+
+	void addSkipped() {
+		skipped.incrementAndGet();
+	}
+
+	void addDeleted() {
+		deleted.incrementAndGet();
+	}
+
+	void addReadBytes(long count) {
+		readBytes.addAndGet(count);
+	}
+
+	void addBytes(long count) {
+		bytes.addAndGet(count);
+	}
+
+	void addPoints(long count, long kept) {
+		points.addAndGet(count);
+		keptPoints.addAndGet(kept);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("converted ").append(getConverted()).append(", skipped ").append(getSkipped()).append(", deleted ").append(getDeleted());
+		sb.append(", ").append(getBytes() / 1024).append(" KB written");
+		if (getPoints() > 0) {
+			// Saved bytes are estimated from the average size of a written point
+			long removed = getPoints() - getKeptPoints();
+			sb.append(", ").append(getKeptPoints()).append(" of ").append(getPoints()).append(" points kept (-").append(removed * 100 / getPoints()).append("%");
+			if (getKeptPoints() > 0) {
+				sb.append(", about ").append(getBytes() * removed / getKeptPoints() / 1024).append(" KB saved");
+			}
+			sb.append(")");
+		}
+		return sb.toString();
+	}
+
+}
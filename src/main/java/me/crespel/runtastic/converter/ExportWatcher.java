@@ -0,0 +1,208 @@
+package me.crespel.runtastic.converter;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FilenameUtils;
+
+import me.crespel.runtastic.parser.ZipExportSource;
+
+/**
+ * Export directory watcher.
+ * This class converts the sport sessions of an extracted export as their files appear, change or disappear, watching the
+ * sport sessions directory and its GPS, heart rate and elevation data sub-directories with a {@link WatchService}. Events
+ * are collected until none arrives for the debounce delay, so that files copied together are converted in a single
+ * incremental conversion of the sessions they belong to. The watching thread sleeps while no event arrives.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class ExportWatcher implements Closeable {
+
+	// Sessions are converted at least this many debounce delays after the first event, even if events keep arriving
+	private static final int MAX_DEBOUNCES = 10;
+
+	/**
+	 * Listener of the conversions triggered by the watcher.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param ids ids of the converted sessions, or null if all sessions were checked
+		 * @param result conversion result
+		 * @param latency milliseconds from the first file event to the end of the conversion
+		 */
+		void converted(Set<String> ids, ExportResult result, long latency);
+
+		/**
+		 * @param ids ids of the sessions which failed to convert, or null if all sessions were checked
+		 * @param failure failure, sessions being converted again on their next change
+		 */
+		void failed(Set<String> ids, Exception failure);
+
+	}
+
+	private final ExportConverter converter;
+	private final File path;
+	private final Path root;
+	private final Path dir;
+	private final File dest;
+	private final String format;
+	private final long debounce;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+	/**
+	 * @param converter converter, whose mapping options apply to all conversions
+	 * @param path export directory
+	 * @param dest destination directory
+	 * @param format output format
+	 * @param debounce milliseconds without file events before converting the sessions changed so far
+	 */
+	public ExportWatcher(ExportConverter converter, File path, File dest, String format, long debounce) throws IOException {
+		if (ZipExportSource.isArchive(path) || !path.isDirectory()) {
+			throw new IllegalArgumentException("Export '" + path + "' is not a directory, only extracted exports can be watched");
+		}
+		this.converter = converter;
+		this.path = path;
+		this.dir = converter.normalizeExportPath(path, ExportConverter.SPORT_SESSIONS_DIR).toPath().toAbsolutePath();
+		this.root = dir.getParent();
+		this.dest = dest;
+		this.format = format;
+		this.debounce = debounce;
+		this.watchService = root.getFileSystem().newWatchService();
+		register(root);
+		if (Files.isDirectory(dir)) {
+			registerSessionsDir();
+		}
+	}
+
+	/**
+	 * Convert the sessions changed since the previous conversion to the destination, then the sessions changed while
+	 * watching, until the watcher is closed.
+	 * @param listener listener of each conversion
+	 */
+	public void run(Listener listener) {
+		convert(null, System.currentTimeMillis(), listener);
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				long startTime = System.currentTimeMillis();
+				long deadline = startTime + debounce * MAX_DEBOUNCES;
+				Set<String> ids = new TreeSet<>();
+				boolean all = false;
+				while (key != null) {
+					all |= collect(key, ids);
+					long wait = Math.min(debounce, deadline - System.currentTimeMillis());
+					key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+				if (all) {
+					convert(null, startTime, listener);
+				} else if (!ids.isEmpty()) {
+					convert(ids, startTime, listener);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// Closed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop watching, {@link #run(Listener)} returning once the current conversion is over.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	// Collect the ids of the sessions whose files changed, returning true if all sessions must be checked
+	private boolean collect(WatchKey key, Set<String> ids) {
+		Path watched = keys.get(key);
+		boolean all = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW || watched == null) {
+				all = true;
+				continue;
+			}
+			Path child = watched.resolve((Path) event.context());
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+				// Files created before the directory is registered are only found by checking all sessions
+				if (child.equals(dir)) {
+					all |= registerSessionsDir();
+				} else if (watched.equals(dir)) {
+					all |= register(child);
+				}
+			} else if (!watched.equals(root)) {
+				String name = child.getFileName().toString();
+				String extension = FilenameUtils.getExtension(name);
+				if ("json".equalsIgnoreCase(extension) || ("gpx".equalsIgnoreCase(extension) && !watched.equals(dir))) {
+					ids.add(FilenameUtils.getBaseName(name));
+				}
+			} else if (child.equals(dir) && event.kind() == ENTRY_DELETE) {
+				all = true;
+			}
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+		return all;
+	}
+
+	private boolean registerSessionsDir() {
+		boolean registered = register(dir);
+		try (DirectoryStream<Path> subdirs = Files.newDirectoryStream(dir, Files::isDirectory)) {
+			for (Path subdir : subdirs) {
+				registered |= register(subdir);
+			}
+		} catch (IOException e) {
+			// Deleted meanwhile
+		}
+		return registered;
+	}
+
+	private boolean register(Path path) {
+		try {
+			keys.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+			return true;
+		} catch (IOException e) {
+			// Deleted meanwhile
+			return false;
+		}
+	}
+
+	private void convert(Set<String> ids, long startTime, Listener listener) {
+		try {
+			ExportResult result = ids != null ? converter.exportSportSessions(path, ids, dest, format) : converter.exportSportSessions(path, dest, format, true);
+			listener.converted(ids, result, System.currentTimeMillis() - startTime);
+		} catch (IOException | RuntimeException e) {
+			if (ids != null && ids.size() > 1) {
+				// Convert sessions one by one, so that a file still being written does not hold back the others
+				for (String id : ids) {
+					convert(Collections.singleton(id), startTime, listener);
+				}
+			} else {
+				listener.failed(ids, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package me.crespel.runtastic.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * File support.
+ * This class replaces the files persisted next to an export or in a destination directory (indexes, caches,
+ * manifests) with a temporary file written beside them, so that readers never see a missing or partial file.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+final class FileSupport {
+
+	private FileSupport() {
+	}
+
+	/**
+	 * Replace a file with a temporary file of the same directory, atomically where the file system allows it.
+	 * The temporary file is deleted if it cannot be moved.
+	 * @param tmpFile temporary file
+	 * @param file file to replace
+	 */
+	static void replace(File tmpFile, File file) throws IOException {
+		try {
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package me.crespel.runtastic.converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FilenameUtils;
+
+import me.crespel.runtastic.model.SportSessionAlbums;
+import me.crespel.runtastic.parser.SportSessionParser;
+
+/**
+ * Reverse index from photo id to sport session id.
+ * This class is built once from the sport session albums and persisted next to the export,
+ * then reused as long as the modification time of the albums directory is unchanged.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class PhotoIndex {
+
+	static final String INDEX_FILE = ".photo-index.properties";
+	private static final String LAST_MODIFIED_KEY = "albums.lastModified";
+
+	private final long lastModified;
+	private final Map<String, String> sessionIds;
+
+	private PhotoIndex(long lastModified, Map<String, String> sessionIds) {
+		this.lastModified = lastModified;
+		this.sessionIds = Collections.unmodifiableMap(sessionIds);
+	}
+
+	/**
+	 * Get the photo index of an export, reading the persisted index if still valid or rebuilding it.
+	 * @param root export root directory
+	 * @param indexFile persisted index file
+	 * @param current index already loaded for this export, may be null
+	 * @param parser parser used to read sport session albums
+	 * @return valid photo index
+	 */
+	static PhotoIndex get(File root, File indexFile, PhotoIndex current, SportSessionParser parser) throws IOException {
+		File albumsDir = new File(root, SportSessionParser.PHOTOS_SPORT_SESSION_ALBUMS_DIR);
+		long lastModified = parser.getSource(albumsDir).lastModified(albumsDir);
+		if (current != null && current.lastModified == lastModified) {
+			return current;
+		}
+
+		PhotoIndex index = read(indexFile);
+		if (index == null || index.lastModified != lastModified) {
+			index = build(root, albumsDir, lastModified, parser);
+			try {
+				index.write(indexFile);
+			} catch (IOException e) {
+				// Read-only export: the index is rebuilt on next run
+			}
+		}
+		return index;
+	}
+
+	String getSessionId(String photoId) {
+		return sessionIds.get(photoId);
+	}
+
+	int size() {
+		return sessionIds.size();
+	}
+
+	private static PhotoIndex build(File root, File albumsDir, long lastModified, SportSessionParser parser) throws IOException {
+		Map<String, String> sessionIds = new HashMap<>();
+		File[] files = parser.getSource(albumsDir).listFiles(albumsDir, ".json");
+		if (files != null) {
+			for (File file : files) {
+				SportSessionAlbums album = parser.getSportSessionAlbum(root, FilenameUtils.getBaseName(file.getName()));
+				if (album != null && album.getPhotosIds() != null) {
+					for (String photoId : album.getPhotosIds()) {
+						sessionIds.put(photoId, album.getId());
+					}
+				}
+			}
+		}
+		return new PhotoIndex(lastModified, sessionIds);
+	}
+
+	private static PhotoIndex read(File indexFile) {
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream is = new BufferedInputStream(new FileInputStream(indexFile))) {
+			props.load(is);
+			long lastModified = Long.parseLong(props.getProperty(LAST_MODIFIED_KEY));
+			props.remove(LAST_MODIFIED_KEY);
+			Map<String, String> sessionIds = new HashMap<>();
+			for (String photoId : props.stringPropertyNames()) {
+				sessionIds.put(photoId, props.getProperty(photoId));
+			}
+			return new PhotoIndex(lastModified, sessionIds);
+		} catch (IOException | RuntimeException e) {
+			// Unreadable or corrupt index: rebuild it
+			return null;
+		}
+	}
+
+	private void write(File indexFile) throws IOException {
+		Properties props = new Properties();
+		props.putAll(sessionIds);
+		props.setProperty(LAST_MODIFIED_KEY, Long.toString(lastModified));
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+			props.store(os, "Runtastic photo id to sport session id index");
+		}
+		FileSupport.replace(tmpFile, indexFile);
+	}
+
+}
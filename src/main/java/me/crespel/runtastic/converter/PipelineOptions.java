@@ -0,0 +1,56 @@
+package me.crespel.runtastic.converter;
+
+import lombok.Data;
+
+/**
+ * Sport session conversion pipeline options.
+ * These options set the worker threads of each stage of {@link StagedPipeline} used to convert all sessions of an export,
+ * and the capacity of the queues between stages, which bounds the number of sessions held in memory.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Data
+public class PipelineOptions {
+
+	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Threads reading session files into memory.
+	 */
+	private int readThreads = 2;
+
+	/**
+	 * Threads parsing sessions from JSON and GPX.
+	 */
+	private int parseThreads = PROCESSORS;
+
+	/**
+	 * Threads mapping sessions to GPX or TCX.
+	 */
+	private int mapThreads = PROCESSORS;
+
+	/**
+	 * Threads writing output files.
+	 */
+	private int writeThreads = 2;
+
+	/**
+	 * Capacity of the queue before each stage.
+	 */
+	private int queueCapacity = 2 * PROCESSORS;
+
+	/**
+	 * Set the thread counts from a "read,parse,map,write" specification.
+	 * @param threads thread counts, separated by commas
+	 */
+	public void setThreads(String threads) {
+		String[] counts = threads.split(",");
+		if (counts.length != 4) {
+			throw new IllegalArgumentException("Expected 4 thread counts (read,parse,map,write) instead of '" + threads + "'");
+		}
+		setReadThreads(Integer.parseInt(counts[0].trim()));
+		setParseThreads(Integer.parseInt(counts[1].trim()));
+		setMapThreads(Integer.parseInt(counts[2].trim()));
+		setWriteThreads(Integer.parseInt(counts[3].trim()));
+	}
+
+}
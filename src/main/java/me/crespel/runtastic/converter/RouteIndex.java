@@ -0,0 +1,198 @@
+package me.crespel.runtastic.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locality-sensitive hashing index of sport session routes.
+ * This class fingerprints each route as the set of geohash cells crossed by its track (7 characters, about 150 m), and
+ * summarizes that set with a MinHash signature whose share of equal values estimates the Jaccard similarity of two routes.
+ * Signatures are split into bands, sessions sharing a band being candidates for the same route: sessions with a similarity
+ * of 0.5 are found with a probability of 87%, 0.6 of 99%, while dissimilar routes rarely share a band. Callers must still
+ * check the estimated similarity of each candidate.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class RouteIndex {
+
+	private static final int BANDS = 32;
+	private static final int ROWS = 4;
+	private static final int HASHES = BANDS * ROWS;
+
+	private final long[][] signatures;
+	private final Map<Long, List<Integer>> buckets = new HashMap<>();
+	private final int[] marks;
+	private int mark;
+
+	/**
+	 * @param signatures MinHash signature of each session, or null for sessions without positions
+	 */
+	RouteIndex(long[][] signatures) {
+		this.signatures = signatures;
+		this.marks = new int[signatures.length];
+		for (int i = 0; i < signatures.length; i++) {
+			if (signatures[i] != null) {
+				for (int band = 0; band < BANDS; band++) {
+					buckets.computeIfAbsent(bandKey(signatures[i], band), k -> new ArrayList<>()).add(i);
+				}
+			}
+		}
+	}
+
+	boolean contains(int i) {
+		return signatures[i] != null;
+	}
+
+	/**
+	 * Find sessions sharing at least one band of signature with the given session.
+	 * @param i session index
+	 * @return candidate session indexes, other than the session itself
+	 */
+	int[] getCandidates(int i) {
+		if (signatures[i] == null) {
+			return new int[0];
+		}
+		mark++;
+		marks[i] = mark;
+		int[] candidates = new int[16];
+		int size = 0;
+		for (int band = 0; band < BANDS; band++) {
+			for (int j : buckets.get(bandKey(signatures[i], band))) {
+				if (marks[j] != mark) {
+					marks[j] = mark;
+					if (size == candidates.length) {
+						candidates = Arrays.copyOf(candidates, size * 2);
+					}
+					candidates[size++] = j;
+				}
+			}
+		}
+		return Arrays.copyOf(candidates, size);
+	}
+
+	/**
+	 * @return estimated Jaccard similarity of the cells of two sessions, from 0 to 1
+	 */
+	double getSimilarity(int i, int j) {
+		long[] signature = signatures[i], signature2 = signatures[j];
+		if (signature == null || signature2 == null) {
+			return 0;
+		}
+		int equal = 0;
+		for (int k = 0; k < HASHES; k++) {
+			if (signature[k] == signature2[k]) {
+				equal++;
+			}
+		}
+		return equal / (double) HASHES;
+	}
+
+	private static long bandKey(long[] signature, int band) {
+		long key = band;
+		for (int k = band * ROWS; k < (band + 1) * ROWS; k++) {
+			key = mix(key * 31 + signature[k]);
+		}
+		return key;
+	}
+
+	// SplitMix64 finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Fingerprint of a route.
+	 * Positions are added in track order, gaps between consecutive positions being filled so that fast or sparse tracks
+	 * cross the same cells as dense ones.
+	 */
+	static class Fingerprint {
+
+		private static final int LAT_BITS = 17;
+		private static final int LON_BITS = 18;
+		private static final double CELL_DEGREES = 180.0 / (1 << LAT_BITS);
+		// Gaps longer than this are lost signal rather than movement, and are not filled
+		private static final int MAX_STEPS = 512;
+
+		private long[] cells = new long[256];
+		private int size;
+		private double latitude = Double.NaN;
+		private double longitude = Double.NaN;
+
+		void add(double latitude, double longitude) {
+			if (!Double.isNaN(this.latitude)) {
+				int steps = (int) Math.ceil(Math.max(Math.abs(latitude - this.latitude), Math.abs(longitude - this.longitude)) * 2 / CELL_DEGREES);
+				if (steps > 1 && steps <= MAX_STEPS) {
+					for (int step = 1; step < steps; step++) {
+						double t = step / (double) steps;
+						addCell(this.latitude + (latitude - this.latitude) * t, this.longitude + (longitude - this.longitude) * t);
+					}
+				}
+			}
+			addCell(latitude, longitude);
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		/**
+		 * Start a new segment, not joined to the previous position.
+		 */
+		void newSegment() {
+			latitude = longitude = Double.NaN;
+		}
+
+		/**
+		 * @return MinHash signature of the cells, or null if no position was added
+		 */
+		long[] getSignature() {
+			if (size == 0) {
+				return null;
+			}
+			long[] unique = Arrays.copyOf(cells, size);
+			Arrays.sort(unique);
+			long[] signature = new long[HASHES];
+			Arrays.fill(signature, Long.MAX_VALUE);
+			for (int c = 0; c < unique.length; c++) {
+				if (c > 0 && unique[c] == unique[c - 1]) {
+					continue;
+				}
+				long hash = mix(unique[c]);
+				for (int k = 0; k < HASHES; k++) {
+					signature[k] = Math.min(signature[k], mix(hash + k * 0x9e3779b97f4a7c15L));
+				}
+			}
+			return signature;
+		}
+
+		private void addCell(double latitude, double longitude) {
+			long cell = geohash(latitude, longitude);
+			// Consecutive positions mostly fall in the same cell
+			if (size > 0 && cells[size - 1] == cell) {
+				return;
+			}
+			if (size == cells.length) {
+				cells = Arrays.copyOf(cells, size * 2);
+			}
+			cells[size++] = cell;
+		}
+
+		// Geohash as an integer: longitude and latitude bits interleaved, longitude first
+		static long geohash(double latitude, double longitude) {
+			long lat = Math.min((long) ((latitude + 90) / 180 * (1L << LAT_BITS)), (1L << LAT_BITS) - 1);
+			long lon = Math.min((long) ((longitude + 180) / 360 * (1L << LON_BITS)), (1L << LON_BITS) - 1);
+			long hash = 0;
+			for (int i = 0; i < LON_BITS + LAT_BITS; i++) {
+				if (i % 2 == 0) {
+					hash = (hash << 1) | ((lon >>> (LON_BITS - 1 - i / 2)) & 1);
+				} else {
+					hash = (hash << 1) | ((lat >>> (LAT_BITS - 1 - i / 2)) & 1);
+				}
+			}
+			return hash;
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package me.crespel.runtastic.converter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.topografix.gpx._1._1.BoundsType;
+
+import me.crespel.runtastic.model.SportSession;
+
+/**
+ * Spatial index of sport session bounds.
+ * This class returns candidate sessions near a given session, so that overlapping and compound sessions
+ * can be searched without comparing every pair of sessions. Candidates are a superset of the matching
+ * sessions: callers must still apply the exact {@link BigDecimal} comparison to each candidate.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class SessionBoundsIndex {
+
+	// Relative margin added to the tolerance, covering the rounding of BigDecimal bounds to double
+	private static final double MARGIN = 1e-6;
+
+	private final List<SportSession> sessions;
+	private final double tolerance;
+	private final double[] minLat;
+	private final double[] maxLat;
+	private final double[] minLon;
+	private final double[] maxLon;
+
+	// Uniform grid keyed by the (maxlat, maxlon) corner, with cells at least as large as the tolerance
+	private final Map<Long, List<Integer>> grid = new HashMap<>();
+
+	// Session indexes sorted by each bound, for edge proximity range queries
+	private final Integer[] byMinLat;
+	private final Integer[] byMaxLat;
+	private final Integer[] byMinLon;
+	private final Integer[] byMaxLon;
+
+	SessionBoundsIndex(List<SportSession> sessions, BigDecimal diff) {
+		this.sessions = sessions;
+		this.tolerance = diff.doubleValue() * (1 + MARGIN);
+		int n = sessions.size();
+		minLat = new double[n];
+		maxLat = new double[n];
+		minLon = new double[n];
+		maxLon = new double[n];
+
+		List<Integer> indexed = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			BoundsType bounds = getBounds(sessions.get(i));
+			if (bounds != null) {
+				minLat[i] = bounds.getMinlat().doubleValue();
+				maxLat[i] = bounds.getMaxlat().doubleValue();
+				minLon[i] = bounds.getMinlon().doubleValue();
+				maxLon[i] = bounds.getMaxlon().doubleValue();
+				grid.computeIfAbsent(cellKey(cell(maxLat[i]), cell(maxLon[i])), k -> new ArrayList<>()).add(i);
+				indexed.add(i);
+			}
+		}
+
+		byMinLat = sortBy(indexed, minLat);
+		byMaxLat = sortBy(indexed, maxLat);
+		byMinLon = sortBy(indexed, minLon);
+		byMaxLon = sortBy(indexed, maxLon);
+	}
+
+	static BoundsType getBounds(SportSession session) {
+		if (session.getGpx() != null && session.getGpx().getMetadata() != null) {
+			return session.getGpx().getMetadata().getBounds();
+		}
+		return null;
+	}
+
+	/**
+	 * Find sessions whose four bounds may all be within the tolerance of the given session's bounds.
+	 * @param i session index
+	 * @return candidate sessions, in list order
+	 */
+	List<SportSession> getOverlapCandidates(int i) {
+		List<Integer> candidates = new ArrayList<>();
+		long latCell = cell(maxLat[i]);
+		long lonCell = cell(maxLon[i]);
+		for (long lat = latCell - 1; lat <= latCell + 1; lat++) {
+			for (long lon = lonCell - 1; lon <= lonCell + 1; lon++) {
+				List<Integer> cell = grid.get(cellKey(lat, lon));
+				if (cell != null) {
+					for (Integer j : cell) {
+						if (Math.abs(maxLat[i] - maxLat[j]) < tolerance && Math.abs(maxLon[i] - maxLon[j]) < tolerance
+								&& Math.abs(minLat[i] - minLat[j]) < tolerance && Math.abs(minLon[i] - minLon[j]) < tolerance) {
+							candidates.add(j);
+						}
+					}
+				}
+			}
+		}
+		return toSessions(candidates);
+	}
+
+	/**
+	 * Find sessions having one edge within the tolerance of the opposite edge of the given session.
+	 * @param i session index
+	 * @return candidate sessions, in list order
+	 */
+	List<SportSession> getCompoundCandidates(int i) {
+		List<Integer> candidates = new ArrayList<>();
+		addRange(candidates, byMinLat, minLat, maxLat[i]); // top
+		addRange(candidates, byMinLon, minLon, maxLon[i]); // right
+		addRange(candidates, byMaxLat, maxLat, minLat[i]); // down
+		addRange(candidates, byMaxLon, maxLon, minLon[i]); // left
+		return toSessions(candidates);
+	}
+
+	private void addRange(List<Integer> candidates, Integer[] sorted, double[] values, double value) {
+		int from = lowerBound(sorted, values, value - tolerance);
+		for (int k = from; k < sorted.length && values[sorted[k]] <= value + tolerance; k++) {
+			candidates.add(sorted[k]);
+		}
+	}
+
+	private static int lowerBound(Integer[] sorted, double[] values, double value) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[sorted[mid]] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private List<SportSession> toSessions(List<Integer> indexes) {
+		int[] sorted = indexes.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+		List<SportSession> result = new ArrayList<>(sorted.length);
+		for (int j : sorted) {
+			result.add(sessions.get(j));
+		}
+		return result;
+	}
+
+	private static Integer[] sortBy(List<Integer> indexes, double[] values) {
+		Integer[] sorted = indexes.toArray(new Integer[indexes.size()]);
+		Arrays.sort(sorted, (a, b) -> Double.compare(values[a], values[b]));
+		return sorted;
+	}
+
+	private long cell(double value) {
+		return (long) Math.floor(value / tolerance);
+	}
+
+	private static long cellKey(long lat, long lon) {
+		return (lat << 32) ^ (lon & 0xFFFFFFFFL);
+	}
+
+}
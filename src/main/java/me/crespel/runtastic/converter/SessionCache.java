@@ -0,0 +1,466 @@
+package me.crespel.runtastic.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.topografix.gpx._1._1.BoundsType;
+import com.topografix.gpx._1._1.GpxType;
+import com.topografix.gpx._1._1.MetadataType;
+
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.SessionSummary;
+import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.parser.ExportSource;
+import me.crespel.runtastic.parser.SportSessionParser;
+
+/**
+ * Columnar cache of sport session summaries.
+ * This class persists next to the export the data needed to list, check and compare sessions (id, times, sport type,
+ * distance, duration, notes, equipment and the {@link SessionSummary} of their positions: bounds, number of positions,
+ * first and last timestamps), one column per field, optionally followed by the positions of each session in 1e-7
+ * degrees, from which routes are fingerprinted. The file is memory-mapped when read, and the summary of a session is
+ * reused as long as the size and modification time of its files are unchanged.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class SessionCache {
+
+	static final String CACHE_FILE = ".session-cache.bin";
+
+	private static final int MAGIC = 0x52545343; // "RTSC"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 32;
+	private static final int HAS_TRACKS = 1;
+	private static final int HAS_GPX = 1;
+	private static final long NO_TIME = Long.MIN_VALUE;
+	private static final int NO_VALUE = Integer.MIN_VALUE;
+	private static final double DEGREES_SCALE = 1e7;
+
+	// Columns, in file order, and their width in bytes; bounds are stored as minlat, minlon, maxlat, maxlon doubles
+	private static final int SIGNATURE = 0;
+	private static final int START_TIME = 1;
+	private static final int END_TIME = 2;
+	private static final int DISTANCE = 3;
+	private static final int DURATION = 4;
+	private static final int BOUND = 5;
+	private static final int POINTS = 9;
+	private static final int FIRST_TIMESTAMP = 10;
+	private static final int LAST_TIMESTAMP = 11;
+	private static final int FLAGS = 12;
+	private static final int STRINGS = 13;
+	private static final int TRACK_OFFSET = 14;
+	private static final int TRACK_SIZE = 15;
+	private static final int[] WIDTHS = { 8, 8, 8, 4, 4, 8, 8, 8, 8, 4, 8, 8, 1, 4, 4, 4 };
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final boolean tracks;
+	private final int[] columns;
+	private final int stringsOffset;
+	private final int tracksOffset;
+	private final Map<String, Integer> indexes;
+
+	private SessionCache(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IllegalStateException("Unsupported session cache");
+		}
+		size = buffer.getInt(8);
+		tracks = (buffer.getInt(12) & HAS_TRACKS) != 0;
+		columns = getColumnOffsets(size);
+		stringsOffset = Math.toIntExact(buffer.getLong(16));
+		tracksOffset = Math.toIntExact(buffer.getLong(24));
+		if (size < 0 || stringsOffset != columns[WIDTHS.length] || tracksOffset < stringsOffset || tracksOffset > buffer.limit()) {
+			throw new IllegalStateException("Corrupt session cache");
+		}
+		indexes = new HashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			indexes.put(getString(getStringsPosition(i)), i);
+		}
+	}
+
+	/**
+	 * Read a session cache file.
+	 * @param cacheFile session cache file
+	 * @return session cache, or null if missing, unreadable or corrupt
+	 */
+	static SessionCache read(File cacheFile) {
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			// The mapping remains valid after the channel is closed
+			return new SessionCache(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException | RuntimeException e) {
+			// Unreadable or corrupt cache: rebuild it
+			return null;
+		}
+	}
+
+	/**
+	 * Write a session cache file, replacing the previous one.
+	 * @param cacheFile session cache file
+	 * @param entries cached sessions
+	 * @param tracks true to write the track of each session
+	 */
+	static void write(File cacheFile, List<Entry> entries, boolean tracks) throws IOException {
+		// Variable-size data first, to know the offsets stored in the columns
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		DataOutputStream stringsOut = new DataOutputStream(strings);
+		int[] stringsPositions = new int[entries.size()];
+		int[] trackOffsets = new int[entries.size()];
+		int trackPoints = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			SportSession session = entry.session;
+			stringsPositions[i] = stringsOut.size();
+			putString(stringsOut, entry.name);
+			putString(stringsOut, session.getId());
+			putString(stringsOut, session.getSportTypeId());
+			putString(stringsOut, session.getNotes());
+			List<String> equipmentIds = session.getUserEquipmentIds();
+			stringsOut.writeInt(equipmentIds != null ? equipmentIds.size() : -1);
+			if (equipmentIds != null) {
+				for (String equipmentId : equipmentIds) {
+					putString(stringsOut, equipmentId);
+				}
+			}
+			trackOffsets[i] = trackPoints;
+			if (tracks && entry.track != null) {
+				trackPoints += entry.track.length / 2;
+			}
+		}
+
+		int[] columns = getColumnOffsets(entries.size());
+		long stringsOffset = columns[WIDTHS.length];
+		long tracksOffset = stringsOffset + strings.size();
+		if (tracksOffset + trackPoints * 8L > Integer.MAX_VALUE) {
+			throw new IOException("Session cache '" + cacheFile + "' too large");
+		}
+
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(entries.size());
+			os.writeInt(tracks ? HAS_TRACKS : 0);
+			os.writeLong(stringsOffset);
+			os.writeLong(tracksOffset);
+			for (Entry entry : entries) {
+				os.writeLong(entry.signature);
+			}
+			for (Entry entry : entries) {
+				os.writeLong(entry.session.getStartTime() != null ? entry.session.getStartTime().getTime() : NO_TIME);
+			}
+			for (Entry entry : entries) {
+				os.writeLong(entry.session.getEndTime() != null ? entry.session.getEndTime().getTime() : NO_TIME);
+			}
+			for (Entry entry : entries) {
+				os.writeInt(entry.session.getDistance() != null ? entry.session.getDistance() : NO_VALUE);
+			}
+			for (Entry entry : entries) {
+				os.writeInt(entry.session.getDuration() != null ? entry.session.getDuration() : NO_VALUE);
+			}
+			for (int bound = 0; bound < 4; bound++) {
+				for (Entry entry : entries) {
+					os.writeDouble(getBound(entry.session.getSummary(), bound));
+				}
+			}
+			for (Entry entry : entries) {
+				os.writeInt(entry.session.getSummary().getPoints());
+			}
+			for (Entry entry : entries) {
+				os.writeLong(entry.session.getSummary().getFirstTimestamp());
+			}
+			for (Entry entry : entries) {
+				os.writeLong(entry.session.getSummary().getLastTimestamp());
+			}
+			for (Entry entry : entries) {
+				os.writeByte(entry.session.getGpx() != null ? HAS_GPX : 0);
+			}
+			for (int i = 0; i < entries.size(); i++) {
+				os.writeInt(stringsPositions[i]);
+			}
+			for (int i = 0; i < entries.size(); i++) {
+				os.writeInt(trackOffsets[i]);
+			}
+			for (Entry entry : entries) {
+				os.writeInt(tracks && entry.track != null ? entry.track.length / 2 : -1);
+			}
+			strings.writeTo(os);
+			if (tracks) {
+				for (Entry entry : entries) {
+					if (entry.track != null) {
+						for (int value : entry.track) {
+							os.writeInt(value);
+						}
+					}
+				}
+			}
+		}
+		FileSupport.replace(tmpFile, cacheFile);
+	}
+
+	/**
+	 * Compute the signature of the files of a sport session, from their name, size and modification time.
+	 * @param file sport session file
+	 * @param parser parser reading the export
+	 * @return signature
+	 */
+	static long getSignature(File file, SportSessionParser parser) {
+		long signature = 0xcbf29ce484222325L;
+		ExportSource source = parser.getSource(file);
+		for (File sourceFile : parser.getSourceFiles(file, true)) {
+			for (long value : new long[] { sourceFile.getParentFile().getName().hashCode(), sourceFile.getName().hashCode(), source.length(sourceFile), source.lastModified(sourceFile) }) {
+				signature = (signature ^ value) * 0x100000001b3L;
+			}
+		}
+		return signature;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean hasTracks() {
+		return tracks;
+	}
+
+	/**
+	 * @param name sport session file name
+	 * @return index of the session, or -1 if not cached
+	 */
+	int indexOf(String name) {
+		Integer index = indexes.get(name);
+		return index != null ? index : -1;
+	}
+
+	long getSignature(int index) {
+		return buffer.getLong(getPosition(SIGNATURE, index));
+	}
+
+	/**
+	 * Get the summary of a cached session.
+	 * @param index session index
+	 * @return sport session holding summary fields and positions summary, and a GPX holding only bounds if the session
+	 *         has GPS, heart rate or GPX data
+	 */
+	SportSession getSportSession(int index) {
+		SportSession session = new SportSession();
+		int position = getStringsPosition(index);
+		position = skipString(position);
+		session.setId(getString(position));
+		position = skipString(position);
+		session.setSportTypeId(getString(position));
+		position = skipString(position);
+		session.setNotes(getString(position));
+		position = skipString(position);
+		int equipmentCount = buffer.getInt(position);
+		position += 4;
+		if (equipmentCount >= 0) {
+			List<String> equipmentIds = new ArrayList<>(equipmentCount);
+			for (int i = 0; i < equipmentCount; i++) {
+				equipmentIds.add(getString(position));
+				position = skipString(position);
+			}
+			session.setUserEquipmentIds(equipmentIds);
+		}
+		long startTime = buffer.getLong(getPosition(START_TIME, index));
+		session.setStartTime(startTime != NO_TIME ? new Date(startTime) : null);
+		long endTime = buffer.getLong(getPosition(END_TIME, index));
+		session.setEndTime(endTime != NO_TIME ? new Date(endTime) : null);
+		int distance = buffer.getInt(getPosition(DISTANCE, index));
+		session.setDistance(distance != NO_VALUE ? distance : null);
+		int duration = buffer.getInt(getPosition(DURATION, index));
+		session.setDuration(duration != NO_VALUE ? duration : null);
+
+		SessionSummary summary = new SessionSummary(buffer.getInt(getPosition(POINTS, index)),
+				buffer.getDouble(getPosition(BOUND, index)), buffer.getDouble(getPosition(BOUND + 1, index)),
+				buffer.getDouble(getPosition(BOUND + 2, index)), buffer.getDouble(getPosition(BOUND + 3, index)),
+				buffer.getLong(getPosition(FIRST_TIMESTAMP, index)), buffer.getLong(getPosition(LAST_TIMESTAMP, index)));
+		session.setSummary(summary);
+		if ((buffer.get(getPosition(FLAGS, index)) & HAS_GPX) != 0) {
+			session.setGpx(createGpx(summary.toBounds()));
+		}
+		return session;
+	}
+
+	/**
+	 * Get the track of a cached session.
+	 * @param index session index
+	 * @return latitude and longitude of each position in 1e-7 degrees, as {@link SessionSummary#getPositions()}, or null
+	 *         if not cached
+	 */
+	int[] getTrack(int index) {
+		int points = buffer.getInt(getPosition(TRACK_SIZE, index));
+		if (!tracks || points < 0) {
+			return null;
+		}
+		int[] track = new int[points * 2];
+		ByteBuffer trackBuffer = buffer.duplicate();
+		trackBuffer.position(tracksOffset + buffer.getInt(getPosition(TRACK_OFFSET, index)) * 8);
+		trackBuffer.asIntBuffer().get(track);
+		return track;
+	}
+
+	static double toDegrees(int value) {
+		return value / DEGREES_SCALE;
+	}
+
+	private static int[] getColumnOffsets(int size) {
+		int[] columns = new int[WIDTHS.length + 1];
+		columns[0] = HEADER_SIZE;
+		for (int i = 0; i < WIDTHS.length; i++) {
+			columns[i + 1] = Math.addExact(columns[i], Math.multiplyExact(WIDTHS[i], size));
+		}
+		return columns;
+	}
+
+	private int getPosition(int column, int index) {
+		return columns[column] + index * WIDTHS[column];
+	}
+
+	private int getStringsPosition(int index) {
+		return stringsOffset + buffer.getInt(getPosition(STRINGS, index));
+	}
+
+	private String getString(int position) {
+		int length = buffer.getInt(position);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer stringBuffer = buffer.duplicate();
+		stringBuffer.position(position + 4);
+		stringBuffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int skipString(int position) {
+		return position + 4 + Math.max(buffer.getInt(position), 0);
+	}
+
+	private static void putString(DataOutputStream os, String value) throws IOException {
+		if (value == null) {
+			os.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			os.writeInt(bytes.length);
+			os.write(bytes);
+		}
+	}
+
+	private static double getBound(SessionSummary summary, int bound) {
+		switch (bound) {
+			case 0:
+				return summary.getMinLatitude();
+			case 1:
+				return summary.getMinLongitude();
+			case 2:
+				return summary.getMaxLatitude();
+			default:
+				return summary.getMaxLongitude();
+		}
+	}
+
+	private static GpxType createGpx(BoundsType bounds) {
+		MetadataType metadata = new MetadataType();
+		metadata.setBounds(bounds);
+		GpxType gpx = new GpxType();
+		gpx.setMetadata(metadata);
+		return gpx;
+	}
+
+	/**
+	 * Cached sport session: summary, signature of its files and optional track.
+	 */
+	static class Entry {
+		final String name;
+		final long signature;
+		final SportSession session;
+		final int[] track;
+
+		Entry(String name, long signature, SportSession session, int[] track) {
+			this.name = name;
+			this.signature = signature;
+			this.session = session;
+			this.track = track;
+		}
+
+		/**
+		 * Create the entry of a parsed sport session, keeping only the cached data.
+		 * Its GPX holds the bounds of its summary if it has data to map, as the GPX mapped from it would.
+		 * @param file sport session file
+		 * @param signature signature of the sport session files
+		 * @param session parsed sport session
+		 * @param tracks true to keep the track of the session
+		 * @return entry
+		 */
+		static Entry of(File file, long signature, SportSession session, boolean tracks) {
+			SportSession summary = new SportSession();
+			summary.setId(session.getId());
+			summary.setStartTime(session.getStartTime());
+			summary.setEndTime(session.getEndTime());
+			summary.setDistance(session.getDistance());
+			summary.setDuration(session.getDuration());
+			summary.setSportTypeId(session.getSportTypeId());
+			summary.setNotes(session.getNotes());
+			summary.setUserEquipmentIds(session.getUserEquipmentIds());
+			summary.setSummary(session.getSummary());
+			boolean mapped = session.hasGpsData() || session.hasHeartRateData() || session.getGpxTrack() != null;
+			if (mapped) {
+				summary.setGpx(createGpx(summary.getSummary().toBounds()));
+			}
+			return new Entry(file.getName(), signature, summary, tracks && mapped ? getTrack(session) : null);
+		}
+
+		// Positions of the GPS data, then of each segment of the GPX track, in mapping order
+		private static int[] getTrack(SportSession session) {
+			GpsTrack gpxTrack = session.getGpxTrack();
+			int[] track = new int[(session.getSummary().getPoints() + (gpxTrack != null ? gpxTrack.getSegmentCount() : 0)) * 2];
+			int size = 0;
+			GpsTrack gpsTrack = session.getGpsTrack();
+			if (gpsTrack == null && session.getGpsData() != null) {
+				gpsTrack = GpsTrack.of(session.getGpsData());
+			}
+			if (gpsTrack != null) {
+				for (int i = 0; i < gpsTrack.size(); i++) {
+					if (gpsTrack.hasPosition(i)) {
+						track[size++] = toFixedDegrees(gpsTrack.getLatitude(i));
+						track[size++] = toFixedDegrees(gpsTrack.getLongitude(i));
+					}
+				}
+			}
+			if (gpxTrack != null) {
+				for (int s = 0; s < gpxTrack.getSegmentCount(); s++) {
+					track[size++] = SessionSummary.SEGMENT_START;
+					track[size++] = SessionSummary.SEGMENT_START;
+					for (int i = gpxTrack.getSegmentStart(s); i < gpxTrack.getSegmentEnd(s); i++) {
+						if (gpxTrack.hasPosition(i)) {
+							track[size++] = toFixedDegrees(gpxTrack.getLatitude(i));
+							track[size++] = toFixedDegrees(gpxTrack.getLongitude(i));
+						}
+					}
+				}
+			}
+			return track;
+		}
+
+		private static int toFixedDegrees(double value) {
+			return (int) Math.round(value * DEGREES_SCALE);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package me.crespel.runtastic.converter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.crespel.runtastic.model.SessionCluster;
+import me.crespel.runtastic.model.SportSession;
+
+/**
+ * Disjoint-set of sport sessions, keyed by session id.
+ * This class joins related sessions into clusters with union by size and path halving,
+ * without recursion and without comparing session objects.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class SessionUnionFind {
+
+	private final List<SportSession> sessions;
+	private final Map<String, Integer> indexes = new HashMap<>();
+	private final int[] parent;
+	private final int[] size;
+
+	SessionUnionFind(List<SportSession> sessions) {
+		this.sessions = sessions;
+		this.parent = new int[sessions.size()];
+		this.size = new int[sessions.size()];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			size[i] = 1;
+			indexes.putIfAbsent(sessions.get(i).getId(), i);
+		}
+	}
+
+	void union(SportSession session, SportSession session2) {
+		int root = find(indexes.get(session.getId()));
+		int root2 = find(indexes.get(session2.getId()));
+		if (root != root2) {
+			if (size[root] < size[root2]) {
+				int tmp = root;
+				root = root2;
+				root2 = tmp;
+			}
+			parent[root2] = root;
+			size[root] += size[root2];
+		}
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Build the clusters having more than one session.
+	 * @return clusters ordered by their first session, each one listing its sessions in list order
+	 */
+	List<SessionCluster> getClusters() {
+		Map<Integer, List<SportSession>> members = new LinkedHashMap<>();
+		for (int i = 0; i < parent.length; i++) {
+			int root = find(indexes.get(sessions.get(i).getId()));
+			if (size[root] > 1) {
+				members.computeIfAbsent(root, k -> new ArrayList<>()).add(sessions.get(i));
+			}
+		}
+		List<SessionCluster> clusters = new ArrayList<>(members.size());
+		for (List<SportSession> cluster : members.values()) {
+			clusters.add(new SessionCluster(cluster));
+		}
+		return clusters;
+	}
+
+}
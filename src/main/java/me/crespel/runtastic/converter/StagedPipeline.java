@@ -0,0 +1,219 @@
+package me.crespel.runtastic.converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Staged pipeline.
+ * This class runs items through a sequence of stages, each with its own worker threads, connected by bounded queues:
+ * a stage blocks when the next one falls behind, so that I/O-bound and CPU-bound stages overlap while only a bounded
+ * number of items are in flight. A stage returning null drops the item. The first failure stops the whole pipeline.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ * @param <I> source item type
+ * @param <O> output item type
+ */
+public class StagedPipeline<I, O> {
+
+	@FunctionalInterface
+	public interface Stage<A, B> {
+		B apply(A item) throws Exception;
+	}
+
+	@FunctionalInterface
+	public interface Sink<T> {
+		void accept(T item) throws Exception;
+	}
+
+	// End of stream marker, passed on to every worker of a stage
+	private static final Object END = new Object();
+	private static final long POLL_MILLIS = 100;
+
+	private final Iterable<? extends I> source;
+	private final int queueCapacity;
+	private final List<StageDef> stages;
+
+	private StagedPipeline(Iterable<? extends I> source, int queueCapacity, List<StageDef> stages) {
+		this.source = source;
+		this.queueCapacity = queueCapacity;
+		this.stages = stages;
+	}
+
+	/**
+	 * Create a pipeline without stages.
+	 * @param source source items
+	 * @param queueCapacity capacity of the queue before each stage
+	 * @return new pipeline
+	 */
+	public static <I> StagedPipeline<I, I> from(Iterable<? extends I> source, int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity);
+		}
+		return new StagedPipeline<>(source, queueCapacity, new ArrayList<>());
+	}
+
+	/**
+	 * Add a stage to the pipeline.
+	 * @param name stage name, used for thread names
+	 * @param threads number of worker threads
+	 * @param stage stage function
+	 * @return new pipeline ending with this stage
+	 */
+	public <R> StagedPipeline<I, R> stage(String name, int threads, Stage<? super O, ? extends R> stage) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid thread count " + threads + " for stage '" + name + "'");
+		}
+		List<StageDef> newStages = new ArrayList<>(stages);
+		newStages.add(new StageDef(name, threads, stage));
+		return new StagedPipeline<>(source, queueCapacity, newStages);
+	}
+
+	/**
+	 * Run the pipeline and wait for its completion.
+	 * @param sink consumer of output items, called from the calling thread
+	 */
+	@SuppressWarnings("unchecked")
+	public void run(Sink<? super O> sink) throws IOException {
+		int threads = 1;
+		for (StageDef stage : stages) {
+			threads += stage.threads;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			BlockingQueue<Object> input = new ArrayBlockingQueue<>(queueCapacity);
+			BlockingQueue<Object> sourceOutput = input;
+			executor.execute(named("source", () -> feed(sourceOutput, failure)));
+			for (StageDef stage : stages) {
+				BlockingQueue<Object> output = new ArrayBlockingQueue<>(queueCapacity);
+				AtomicInteger remaining = new AtomicInteger(stage.threads);
+				for (int i = 1; i <= stage.threads; i++) {
+					BlockingQueue<Object> in = input;
+					executor.execute(named(stage.name + "-" + i, () -> work(stage, in, output, remaining, failure)));
+				}
+				input = output;
+			}
+
+			while (failure.get() == null) {
+				Object item = input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (item == END) {
+					break;
+				} else if (item != null) {
+					try {
+						sink.accept((O) item);
+					} catch (Exception | Error e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} finally {
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Throwable t = failure.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	/**
+	 * Run the pipeline, collecting output items.
+	 * @return output items, in completion order
+	 */
+	public List<O> collect() throws IOException {
+		List<O> result = new ArrayList<>();
+		run(result::add);
+		return result;
+	}
+
+	private void feed(BlockingQueue<Object> output, AtomicReference<Throwable> failure) {
+		try {
+			Iterator<? extends I> it = source.iterator();
+			while (it.hasNext() && failure.get() == null) {
+				output.put(it.next());
+			}
+			output.put(END);
+		} catch (InterruptedException e) {
+			// Pipeline stopped
+		} catch (RuntimeException | Error e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work(StageDef stage, BlockingQueue<Object> input, BlockingQueue<Object> output, AtomicInteger remaining, AtomicReference<Throwable> failure) {
+		try {
+			while (failure.get() == null) {
+				Object item = input.take();
+				if (item == END) {
+					// Let the other workers of this stage see the end, the last one passes it on
+					input.put(END);
+					if (remaining.decrementAndGet() == 0) {
+						output.put(END);
+					}
+					return;
+				}
+				Object result;
+				try {
+					result = ((Stage<Object, Object>) stage.function).apply(item);
+				} catch (Exception | Error e) {
+					failure.compareAndSet(null, e);
+					return;
+				}
+				if (result != null) {
+					output.put(result);
+				}
+			}
+		} catch (InterruptedException e) {
+			// Pipeline stopped
+		}
+	}
+
+	private static Runnable named(String name, Runnable runnable) {
+		return () -> {
+			Thread thread = Thread.currentThread();
+			String previousName = thread.getName();
+			thread.setName("pipeline-" + name);
+			try {
+				runnable.run();
+			} finally {
+				thread.setName(previousName);
+			}
+		};
+	}
+
+	private static class StageDef {
+		private final String name;
+		private final int threads;
+		private final Stage<?, ?> function;
+
+		StageDef(String name, int threads, Stage<?, ?> function) {
+			this.name = name;
+			this.threads = threads;
+			this.function = function;
+		}
+	}
+
+}
@@ -3,6 +3,9 @@ package me.crespel.runtastic.mapper;
 import java.io.File;
 import java.io.OutputStream;
 
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.ConversionMetrics.Stage;
+import me.crespel.runtastic.metrics.SessionMapEvent;
 import me.crespel.runtastic.model.SportSession;
 
 /**
@@ -12,7 +15,15 @@ import me.crespel.runtastic.model.SportSession;
  */
 public class DelegatingSportSessionMapper implements SportSessionMapper<Object> {
 
-	private final SportSessionMapper<?>[] mappers = { new GpxSportSessionMapper(), new TcxSportSessionMapper() };
+	private final SportSessionMapper<?>[] mappers;
+
+	public DelegatingSportSessionMapper() {
+		this(new MappingOptions());
+	}
+
+	public DelegatingSportSessionMapper(MappingOptions options) {
+		this.mappers = new SportSessionMapper<?>[] { new GpxSportSessionMapper(options), new TcxSportSessionMapper(options) };
+	}
 
 	@Override
 	public boolean supports(String format) {
@@ -28,7 +39,13 @@ public class DelegatingSportSessionMapper implements SportSessionMapper<Object>
 	public Object mapSportSession(SportSession session, String format) {
 		for (SportSessionMapper<?> mapper : mappers) {
 			if (mapper.supports(format)) {
-				return mapper.mapSportSession(session, format);
+				SessionMapEvent event = new SessionMapEvent();
+				event.begin();
+				long start = ConversionMetrics.get().start();
+				Object result = mapper.mapSportSession(session, format);
+				event.mappingTime = ConversionMetrics.get().record(Stage.MAPPING, start);
+				event.record(session, format, false);
+				return result;
 			}
 		}
 		throw new UnsupportedOperationException("Unsupported export format '" + format + "'");
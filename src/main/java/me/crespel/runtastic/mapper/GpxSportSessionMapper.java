@@ -1,19 +1,18 @@
 package me.crespel.runtastic.mapper;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLStreamException;
 
 import com.topografix.gpx._1._1.BoundsType;
 import com.topografix.gpx._1._1.EmailType;
@@ -26,27 +25,38 @@ import com.topografix.gpx._1._1.TrkType;
 import com.topografix.gpx._1._1.TrksegType;
 import com.topografix.gpx._1._1.WptType;
 
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.ConversionMetrics.Stage;
+import me.crespel.runtastic.metrics.SessionMapEvent;
 import me.crespel.runtastic.model.GpsData;
+import me.crespel.runtastic.model.GpsTrack;
 import me.crespel.runtastic.model.ImagesMetaData;
 import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.model.TimestampCodec;
+import me.crespel.runtastic.xml.JaxbSupport;
 
 /**
  * GPX sport session mapper.
+ * This class is stateless and may be shared by concurrent export threads.
  * 
  * @author Fabien CRESPEL (fabien@crespel.net)
  * @author Christian IMFELD (imfeldc@gmail.com)
  */
 public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 
-	protected final DatatypeFactory dtf;
+	protected static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ConversionMetrics metrics = ConversionMetrics.get();
+
 	protected final ObjectFactory factory = new ObjectFactory();
+	protected final MappingOptions options;
 
 	public GpxSportSessionMapper() {
-		try {
-			dtf = DatatypeFactory.newInstance();
-		} catch (DatatypeConfigurationException e) {
-			throw new RuntimeException(e);
-		}
+		this(new MappingOptions());
+	}
+
+	public GpxSportSessionMapper(MappingOptions options) {
+		this.options = options;
 	}
 
 	@Override
@@ -89,8 +99,12 @@ public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 			PersonType author = factory.createPersonType();
 			EmailType email = factory.createEmailType();
 			author.setName(session.getUser().getFirstName() + " " + session.getUser().getLastName());
-			email.setId(session.getUser().getEmail());
-			author.setEmail(email);
+			String address = session.getUser().getEmail();
+			if (address != null && address.indexOf('@') > 0) {
+				email.setId(address.substring(0, address.indexOf('@')));
+				email.setDomain(address.substring(address.indexOf('@') + 1));
+				author.setEmail(email);
+			}
 			meta.setAuthor(author);
 		}
 		meta.setKeywords("runtastic"); // add comma separated keywords
@@ -99,8 +113,11 @@ public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 
 	private void mapImages(SportSession session, GpxType gpx) {
 		if (session.getImages() != null) {
-			// Add the photos as "way points"
+			// Add the photos as "way points", except those without a location which would not be valid
 			for (ImagesMetaData image : session.getImages()) {
+				if (image.getLatitude() == null || image.getLongitude() == null) {
+					continue;
+				}
 				WptType wpt = factory.createWptType();
 				wpt.setLat(image.getLatitude());
 				wpt.setLon(image.getLongitude());
@@ -114,19 +131,24 @@ public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 	}
 
 	private void mapGPSdata(SportSession session, GpxType gpx) {
-		if (session.getGpsData() != null) {
+		if (session.hasGpsData()) {
 			TrkType trk = factory.createTrkType();
 			trk.setName(session.getNotes());
 			trk.setType(mapSport(session.getSportTypeId()));
 			// handling JSON GPS data
 			TrksegType trkseg = factory.createTrksegType();
-			for (GpsData gps : session.getGpsData()) {
-				WptType wpt = factory.createWptType();
-				wpt.setLat(gps.getLatitude());
-				wpt.setLon(gps.getLongitude());
-				wpt.setEle(gps.getAltitude());
-				wpt.setTime(mapDate(gps.getTimestamp()));
-				trkseg.getTrkpt().add(wpt);
+			if (session.getGpsTrack() != null) {
+				GpsTrack track = session.getGpsTrack();
+				mapTrkpts(track, 0, track.size(), trkseg);
+			} else {
+				for (GpsData gps : session.getGpsData()) {
+					WptType wpt = factory.createWptType();
+					wpt.setLat(gps.getLatitude());
+					wpt.setLon(gps.getLongitude());
+					wpt.setEle(gps.getAltitude());
+					wpt.setTime(mapDate(gps.getTimestamp()));
+					trkseg.getTrkpt().add(wpt);
+				}
 			}
 			trk.getTrkseg().add(trkseg);
 			gpx.getTrk().add(trk);
@@ -134,20 +156,36 @@ public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 	}
 
 	private void mapGPXdata(SportSession session, GpxType gpx) {
-		if (session.getGpx() != null) {
+		GpsTrack track = session.getGpxTrack();
+		if (track != null) {
 			TrkType trk = factory.createTrkType();
 			trk.setName(session.getNotes() + " (" + session.getId() + ")");
 			trk.setDesc(session.getNotes() + " (" + session.getId() + ")");
 			trk.setType(mapSport(session.getSportTypeId()));
-			// handling GPX GPS data
-			trk.getTrkseg().addAll(session.getGpx().getTrk().get(0).getTrkseg());
+			// handling GPX GPS data, read as a track with its segments
+			for (int s = 0; s < track.getSegmentCount(); s++) {
+				TrksegType trkseg = factory.createTrksegType();
+				mapTrkpts(track, track.getSegmentStart(s), track.getSegmentEnd(s), trkseg);
+				trk.getTrkseg().add(trkseg);
+			}
 			gpx.getTrk().add(trk);
 		}
 	}
 
+	private void mapTrkpts(GpsTrack track, int from, int to, TrksegType trkseg) {
+		for (int i = from; i < to; i++) {
+			WptType wpt = factory.createWptType();
+			wpt.setLat(GpsTrack.toDecimal(track.getLatitude(i)));
+			wpt.setLon(GpsTrack.toDecimal(track.getLongitude(i)));
+			wpt.setEle(GpsTrack.toDecimal(track.getAltitude(i)));
+			wpt.setTime(mapDate(track.getTimestamp(i)));
+			trkseg.getTrkpt().add(wpt);
+		}
+	}
+
 	private void mapBoundsdata(SportSession session, GpxType gpx) {
-		// Calculate bounds and set them in meta data
-		gpx.getMetadata().setBounds(calculateBounds(gpx,false));
+		// Set bounds in meta data, from the summary computed while the GPS data and GPX were parsed
+		gpx.getMetadata().setBounds(session.getSummary().toBounds());
 
 		// Add bounds as waypoints
 		gpx.getWpt().addAll(getBoundsAsWpt(gpx.getMetadata().getBounds(),"Session bounds"));
@@ -228,37 +266,74 @@ public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 
 	@Override
 	public GpxType mapSportSession(SportSession session, String format, File dest) {
-		GpxType gpx = mapSportSession(session, format);
-		try {
-			JAXBContext ctx = JAXBContext.newInstance(GpxType.class);
-			Marshaller m = ctx.createMarshaller();
-			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			m.marshal(factory.createGpx(gpx), dest);
-		} catch (JAXBException e) {
-			throw new RuntimeException(e);
+		SessionMapEvent event = new SessionMapEvent();
+		event.begin();
+		GpxType gpx = null;
+		if (options.isStreaming()) {
+			try (OutputStream os = new FileOutputStream(dest)) {
+				event.marshallingTime = writeSportSession(session, os);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			long start = metrics.start();
+			gpx = mapSportSession(session, format);
+			event.mappingTime = metrics.record(Stage.MAPPING, start);
+			start = metrics.start();
+			try {
+				JaxbSupport.getMarshaller(GpxType.class, options.isFormattedOutput()).marshal(factory.createGpx(gpx), dest);
+			} catch (JAXBException e) {
+				throw new RuntimeException(e);
+			}
+			event.marshallingTime = metrics.record(Stage.MARSHALLING, start);
 		}
+		event.record(session, format, options.isStreaming());
 		return gpx;
 	}
 
 	@Override
 	public GpxType mapSportSession(SportSession session, String format, OutputStream dest) {
-		GpxType gpx = mapSportSession(session, format);
+		SessionMapEvent event = new SessionMapEvent();
+		event.begin();
+		GpxType gpx = null;
+		if (options.isStreaming()) {
+			event.marshallingTime = writeSportSession(session, dest);
+		} else {
+			long start = metrics.start();
+			gpx = mapSportSession(session, format);
+			event.mappingTime = metrics.record(Stage.MAPPING, start);
+			start = metrics.start();
+			try {
+				JaxbSupport.getMarshaller(GpxType.class, options.isFormattedOutput()).marshal(factory.createGpx(gpx), dest);
+			} catch (JAXBException e) {
+				throw new RuntimeException(e);
+			}
+			event.marshallingTime = metrics.record(Stage.MARSHALLING, start);
+		}
+		event.record(session, format, options.isStreaming());
+		return gpx;
+	}
+
+	// Streaming mode: write the session without building the object tree (nothing is stored in the session), returning the time spent
+	protected long writeSportSession(SportSession session, OutputStream dest) {
+		long start = metrics.start();
 		try {
-			JAXBContext ctx = JAXBContext.newInstance(GpxType.class);
-			Marshaller m = ctx.createMarshaller();
-			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			m.marshal(factory.createGpx(gpx), dest);
-		} catch (JAXBException e) {
+			BufferedOutputStream os = new BufferedOutputStream(dest, BUFFER_SIZE);
+			new GpxStreamWriter(this, os, options.isFormattedOutput()).write(session);
+			os.flush();
+		} catch (XMLStreamException | IOException e) {
 			throw new RuntimeException(e);
 		}
-		return gpx;
+		return metrics.record(Stage.MARSHALLING, start);
 	}
 
 	protected XMLGregorianCalendar mapDate(Date date) {
-		if (date != null) {
-			GregorianCalendar cal = new GregorianCalendar();
-			cal.setTime(date);
-			return dtf.newXMLGregorianCalendar(cal);
+		return date != null ? mapDate(date.getTime()) : null;
+	}
+
+	protected XMLGregorianCalendar mapDate(long timestamp) {
+		if (timestamp != GpsTrack.NO_TIMESTAMP) {
+			return TimestampCodec.toXMLGregorianCalendar(timestamp, JaxbSupport.getDatatypeFactory());
 		}
 		return null;
 	}
@@ -326,6 +401,15 @@ public class GpxSportSessionMapper implements SportSessionMapper<GpxType> {
 		return bounds;
 	}
 
+	protected BoundsType calculateBounds(GpsTrack track) {
+		BoundsType bounds = factory.createBoundsType();
+		bounds.setMinlat(GpsTrack.toDecimal(track.getMinLatitude()));
+		bounds.setMaxlat(GpsTrack.toDecimal(track.getMaxLatitude()));
+		bounds.setMinlon(GpsTrack.toDecimal(track.getMinLongitude()));
+		bounds.setMaxlon(GpsTrack.toDecimal(track.getMaxLongitude()));
+		return bounds;
+	}
+
 	private Collection<? extends WptType> getBoundsAsWpt(BoundsType bounds, String boundName) {
 		List<WptType> wptlist = new ArrayList<>();
 
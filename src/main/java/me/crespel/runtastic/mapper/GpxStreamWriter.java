@@ -0,0 +1,244 @@
+package me.crespel.runtastic.mapper;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.topografix.gpx._1._1.BoundsType;
+import com.topografix.gpx._1._1.TrksegType;
+import com.topografix.gpx._1._1.WptType;
+
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.ImagesMetaData;
+import me.crespel.runtastic.model.SessionSummary;
+import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.model.TimestampCodec;
+
+/**
+ * GPX streaming writer.
+ * This class writes the same document as {@link GpxSportSessionMapper} directly to an output stream,
+ * without building a {@code GpxType} tree for the session's own GPS data and GPX track.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class GpxStreamWriter {
+
+	private static final String NAMESPACE = "http://www.topografix.com/GPX/1/1";
+
+	private final GpxSportSessionMapper mapper;
+	private final XmlStreamSupport xml;
+
+	GpxStreamWriter(GpxSportSessionMapper mapper, OutputStream os, boolean formatted) throws XMLStreamException {
+		this.mapper = mapper;
+		this.xml = new XmlStreamSupport(os, formatted);
+	}
+
+	void write(SportSession session) throws XMLStreamException {
+		GpsTrack track = getGpsTrack(session);
+		SessionSummary summary = session.getSummary();
+		BoundsType bounds = summary.hasPositions() ? summary.toBounds() : null;
+
+		xml.startDocument(NAMESPACE, "gpx");
+		xml.attribute("version", "1.1");
+		xml.attribute("creator", "RuntasticExportConverter");
+
+		writeMetadata(session, bounds);
+
+		writeImages(session.getImages(), "");
+		if (bounds != null) {
+			writeBoundsAsWpt("wpt", bounds, "Session bounds");
+		}
+		if (session.getOverlapSessions() != null) {
+			int count = 0;
+			for (SportSession overlapSession : session.getOverlapSessions()) {
+				writeImages(overlapSession.getImages(), "Overlap Session " + (++count) + ": ");
+			}
+		}
+		if (session.getCompoundSessions() != null) {
+			int count = 0;
+			for (SportSession compoundSession : session.getCompoundSessions()) {
+				writeImages(compoundSession.getImages(), "Compound Session " + (++count) + ": ");
+			}
+		}
+
+		if (bounds != null) {
+			writeBoundsAsRte(bounds, "Session bounds");
+		}
+		if (session.getInnerBound() != null) {
+			writeBoundsAsRte(session.getInnerBound(), "Inner bounds of all overlapping sessions");
+		}
+		if (session.getOuterBound() != null) {
+			writeBoundsAsRte(session.getOuterBound(), "Outer bounds of all overlapping sessions");
+		}
+
+		writeGpsData(session, track);
+		writeGpxData(session);
+		writeRelatedSessions(session.getOverlapSessions(), "Overlap Session ");
+		writeRelatedSessions(session.getCompoundSessions(), "Compound Session ");
+
+		xml.endDocument();
+	}
+
+	private void writeMetadata(SportSession session, BoundsType bounds) throws XMLStreamException {
+		xml.startElement("metadata");
+		xml.element("desc", session.getNotes() + " (ID:" + session.getId() + ")");
+		if (session.getUser() != null) {
+			xml.startElement("author");
+			xml.element("name", session.getUser().getFirstName() + " " + session.getUser().getLastName());
+			writeEmail(session.getUser().getEmail());
+			xml.endElement();
+		}
+		xml.element("time", formatDate(session.getCreatedAt()));
+		xml.element("keywords", "runtastic");
+		if (bounds != null) {
+			xml.emptyElement("bounds");
+			xml.attribute("minlat", bounds.getMinlat());
+			xml.attribute("minlon", bounds.getMinlon());
+			xml.attribute("maxlat", bounds.getMaxlat());
+			xml.attribute("maxlon", bounds.getMaxlon());
+		}
+		xml.endElement();
+	}
+
+	private void writeEmail(String email) throws XMLStreamException {
+		int at = email != null ? email.indexOf('@') : -1;
+		if (at > 0) {
+			xml.emptyElement("email");
+			xml.attribute("id", email.substring(0, at));
+			xml.attribute("domain", email.substring(at + 1));
+		}
+	}
+
+	private void writeImages(List<ImagesMetaData> images, String prefix) throws XMLStreamException {
+		if (images != null) {
+			for (ImagesMetaData image : images) {
+				// Photos without a location cannot be written as valid way points
+				if (image.getLatitude() != null && image.getLongitude() != null) {
+					xml.startElement("wpt");
+					xml.attribute("lat", image.getLatitude());
+					xml.attribute("lon", image.getLongitude());
+					xml.element("time", formatDate(image.getCreatedAt()));
+					xml.element("name", prefix + "Photo: " + image.getId() + ".jpg");
+					xml.element("desc", prefix + image.getDescription());
+					xml.element("type", "photo");
+					xml.endElement();
+				}
+			}
+		}
+	}
+
+	private void writeGpsData(SportSession session, GpsTrack track) throws XMLStreamException {
+		if (track != null) {
+			xml.startElement("trk");
+			xml.element("name", session.getNotes());
+			xml.element("type", mapper.mapSport(session.getSportTypeId()));
+			writeTrkseg(track, 0, track.size());
+			xml.endElement();
+		}
+	}
+
+	private void writeGpxData(SportSession session) throws XMLStreamException {
+		GpsTrack track = session.getGpxTrack();
+		if (track != null) {
+			xml.startElement("trk");
+			xml.element("name", session.getNotes() + " (" + session.getId() + ")");
+			xml.element("desc", session.getNotes() + " (" + session.getId() + ")");
+			xml.element("type", mapper.mapSport(session.getSportTypeId()));
+			for (int s = 0; s < track.getSegmentCount(); s++) {
+				writeTrkseg(track, track.getSegmentStart(s), track.getSegmentEnd(s));
+			}
+			xml.endElement();
+		}
+	}
+
+	private void writeRelatedSessions(List<SportSession> sessions, String prefix) throws XMLStreamException {
+		if (sessions != null) {
+			int count = 0;
+			for (SportSession related : sessions) {
+				count++;
+				xml.startElement("trk");
+				xml.element("name", prefix + count + ": " + related.getId());
+				xml.element("desc", prefix + count + ": " + related.getNotes());
+				xml.element("type", mapper.mapSport(related.getSportTypeId()));
+				writeTrksegs(related.getGpx().getTrk().get(0).getTrkseg());
+				xml.endElement();
+			}
+		}
+	}
+
+	private void writeTrkseg(GpsTrack track, int from, int to) throws XMLStreamException {
+		xml.startElement("trkseg");
+		for (int i = from; i < to; i++) {
+			writePoint("trkpt", GpsTrack.toDecimal(track.getLatitude(i)), GpsTrack.toDecimal(track.getLongitude(i)),
+					GpsTrack.toDecimal(track.getAltitude(i)), formatDate(track.getTimestamp(i)));
+		}
+		xml.endElement();
+	}
+
+	private void writeTrksegs(List<TrksegType> trksegs) throws XMLStreamException {
+		for (TrksegType trkseg : trksegs) {
+			xml.startElement("trkseg");
+			for (WptType wpt : trkseg.getTrkpt()) {
+				writePoint("trkpt", wpt.getLat(), wpt.getLon(), wpt.getEle(), wpt.getTime() != null ? wpt.getTime().toXMLFormat() : null);
+			}
+			xml.endElement();
+		}
+	}
+
+	private void writePoint(String name, BigDecimal lat, BigDecimal lon, BigDecimal ele, String time) throws XMLStreamException {
+		xml.startElement(name);
+		xml.attribute("lat", lat);
+		xml.attribute("lon", lon);
+		xml.element("ele", ele);
+		xml.element("time", time);
+		xml.endElement();
+	}
+
+	private void writeBoundsAsWpt(String name, BoundsType bounds, String boundName) throws XMLStreamException {
+		writeCorner(name, bounds.getMaxlat(), bounds.getMaxlon(), boundName + ": top-right corner");
+		writeCorner(name, bounds.getMinlat(), bounds.getMaxlon(), boundName + ": down-right corner");
+		writeCorner(name, bounds.getMaxlat(), bounds.getMinlon(), boundName + ": top-left corner");
+		writeCorner(name, bounds.getMinlat(), bounds.getMinlon(), boundName + ": down-left corner");
+	}
+
+	private void writeBoundsAsRte(BoundsType bounds, String boundName) throws XMLStreamException {
+		xml.startElement("rte");
+		xml.element("name", boundName);
+		xml.element("desc", boundName + ": Bounds of this sport session.");
+		writeCorner("rtept", bounds.getMaxlat(), bounds.getMaxlon(), boundName + ": top-right corner");
+		writeCorner("rtept", bounds.getMinlat(), bounds.getMaxlon(), boundName + ": down-right corner");
+		writeCorner("rtept", bounds.getMinlat(), bounds.getMinlon(), boundName + ": down-left corner");
+		writeCorner("rtept", bounds.getMaxlat(), bounds.getMinlon(), boundName + ": top-left corner");
+		writeCorner("rtept", bounds.getMaxlat(), bounds.getMaxlon(), boundName + ": top-right corner");
+		xml.endElement();
+	}
+
+	private void writeCorner(String name, BigDecimal lat, BigDecimal lon, String cornerName) throws XMLStreamException {
+		xml.startElement(name);
+		xml.attribute("lat", lat);
+		xml.attribute("lon", lon);
+		xml.element("name", cornerName);
+		xml.element("type", "bounds");
+		xml.endElement();
+	}
+
+	private GpsTrack getGpsTrack(SportSession session) {
+		if (session.getGpsTrack() != null) {
+			return session.getGpsTrack();
+		} else if (session.getGpsData() != null) {
+			return GpsTrack.of(session.getGpsData());
+		}
+		return null;
+	}
+
+	private String formatDate(long timestamp) {
+		return timestamp != GpsTrack.NO_TIMESTAMP ? TimestampCodec.format(timestamp) : null;
+	}
+
+	private String formatDate(Date date) {
+		return date != null ? TimestampCodec.format(date.getTime()) : null;
+	}
+
+}
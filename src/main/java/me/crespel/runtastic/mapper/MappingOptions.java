@@ -0,0 +1,38 @@
+package me.crespel.runtastic.mapper;
+
+import lombok.Data;
+
+/**
+ * Sport session mapping options.
+ * These options are shared by all mappers of a converter and may be changed between exports.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Data
+public class MappingOptions {
+
+	/**
+	 * Write files with a streaming XML writer instead of building and marshalling a JAXB object tree.
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * Indent written files; disable to produce compact output.
+	 */
+	private boolean formattedOutput = true;
+
+	/**
+	 * Spatial simplification tolerance of GPS tracks before mapping, in meters, or 0 to keep all positions.
+	 */
+	private double simplifyTolerance = 0;
+
+	/**
+	 * Spatial simplification algorithm of GPS tracks.
+	 */
+	private TrackSimplifier.Method simplifyMethod = TrackSimplifier.Method.DOUGLAS_PEUCKER;
+
+	/**
+	 * Minimum interval between GPS and heart rate samples kept before mapping, in seconds, or 0 to keep all samples.
+	 */
+	private int sampleInterval = 0;
+
+}
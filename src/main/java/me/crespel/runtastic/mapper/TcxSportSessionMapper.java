@@ -1,24 +1,23 @@
 package me.crespel.runtastic.mapper;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLStreamException;
 
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.ActivityLapT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.ActivityListT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.ActivityT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.HeartRateInBeatsPerMinuteT;
+import com.garmin.xmlschemas.trainingcenterdatabase.v2.IntensityT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.ObjectFactory;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.PositionT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.SportT;
@@ -27,25 +26,35 @@ import com.garmin.xmlschemas.trainingcenterdatabase.v2.TrackpointT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.TrainingCenterDatabaseT;
 import com.garmin.xmlschemas.trainingcenterdatabase.v2.TriggerMethodT;
 
-import me.crespel.runtastic.model.GpsData;
-import me.crespel.runtastic.model.HeartRateData;
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.ConversionMetrics.Stage;
+import me.crespel.runtastic.metrics.SessionMapEvent;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
 import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.model.TimestampCodec;
+import me.crespel.runtastic.xml.JaxbSupport;
 
 /**
  * TCX sport session mapper.
+ * This class is stateless and may be shared by concurrent export threads.
  * @author Fabien CRESPEL (fabien@crespel.net)
  */
 public class TcxSportSessionMapper implements SportSessionMapper<TrainingCenterDatabaseT> {
 
-	protected final DatatypeFactory dtf;
+	protected static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ConversionMetrics metrics = ConversionMetrics.get();
+
 	protected final ObjectFactory factory = new ObjectFactory();
+	protected final MappingOptions options;
 
 	public TcxSportSessionMapper() {
-		try {
-			dtf = DatatypeFactory.newInstance();
-		} catch (DatatypeConfigurationException e) {
-			throw new RuntimeException(e);
-		}
+		this(new MappingOptions());
+	}
+
+	public TcxSportSessionMapper(MappingOptions options) {
+		this.options = options;
 	}
 
 	@Override
@@ -55,11 +64,8 @@ public class TcxSportSessionMapper implements SportSessionMapper<TrainingCenterD
 
 	@Override
 	public TrainingCenterDatabaseT mapSportSession(SportSession session, String format) {
-		List<TrackpointT> trackpoints = new ArrayList<>();
-		trackpoints.addAll(mapGpsData(session.getGpsData()));
-		trackpoints.addAll(mapHeartRateData(session.getHeartRateData()));
 		TrackT track = factory.createTrackT();
-		track.getTrackpoint().addAll(mergeTrackpoints(trackpoints));
+		track.getTrackpoint().addAll(mapTrackpoints(session));
 
 		ActivityLapT lap = factory.createActivityLapT();
 		lap.setStartTime(mapDate(session.getStartTime()));
@@ -69,6 +75,7 @@ public class TcxSportSessionMapper implements SportSessionMapper<TrainingCenterD
 		lap.setAverageHeartRateBpm(mapHeartRate(session.getPulseAvg()));
 		lap.setMaximumHeartRateBpm(mapHeartRate(session.getPulseMax()));
 		lap.setMaximumSpeed(session.getMaxSpeed().doubleValue());
+		lap.setIntensity(IntensityT.ACTIVE);
 		lap.setTriggerMethod(TriggerMethodT.MANUAL);
 		lap.getTrack().add(track);
 
@@ -87,37 +94,74 @@ public class TcxSportSessionMapper implements SportSessionMapper<TrainingCenterD
 
 	@Override
 	public TrainingCenterDatabaseT mapSportSession(SportSession session, String format, File dest) {
-		TrainingCenterDatabaseT tcx = mapSportSession(session, format);
-		try {
-			JAXBContext ctx = JAXBContext.newInstance(TrainingCenterDatabaseT.class);
-			Marshaller m = ctx.createMarshaller();
-			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			m.marshal(factory.createTrainingCenterDatabase(tcx), dest);
-		} catch (JAXBException e) {
-			throw new RuntimeException(e);
+		SessionMapEvent event = new SessionMapEvent();
+		event.begin();
+		TrainingCenterDatabaseT tcx = null;
+		if (options.isStreaming()) {
+			try (OutputStream os = new FileOutputStream(dest)) {
+				event.marshallingTime = writeSportSession(session, os);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			long start = metrics.start();
+			tcx = mapSportSession(session, format);
+			event.mappingTime = metrics.record(Stage.MAPPING, start);
+			start = metrics.start();
+			try {
+				JaxbSupport.getMarshaller(TrainingCenterDatabaseT.class, options.isFormattedOutput()).marshal(factory.createTrainingCenterDatabase(tcx), dest);
+			} catch (JAXBException e) {
+				throw new RuntimeException(e);
+			}
+			event.marshallingTime = metrics.record(Stage.MARSHALLING, start);
 		}
+		event.record(session, format, options.isStreaming());
 		return tcx;
 	}
 
 	@Override
 	public TrainingCenterDatabaseT mapSportSession(SportSession session, String format, OutputStream dest) {
-		TrainingCenterDatabaseT tcx = mapSportSession(session, format);
+		SessionMapEvent event = new SessionMapEvent();
+		event.begin();
+		TrainingCenterDatabaseT tcx = null;
+		if (options.isStreaming()) {
+			event.marshallingTime = writeSportSession(session, dest);
+		} else {
+			long start = metrics.start();
+			tcx = mapSportSession(session, format);
+			event.mappingTime = metrics.record(Stage.MAPPING, start);
+			start = metrics.start();
+			try {
+				JaxbSupport.getMarshaller(TrainingCenterDatabaseT.class, options.isFormattedOutput()).marshal(factory.createTrainingCenterDatabase(tcx), dest);
+			} catch (JAXBException e) {
+				throw new RuntimeException(e);
+			}
+			event.marshallingTime = metrics.record(Stage.MARSHALLING, start);
+		}
+		event.record(session, format, options.isStreaming());
+		return tcx;
+	}
+
+	// Streaming mode: write the session without building the object tree (nothing is stored in the session), returning the time spent
+	protected long writeSportSession(SportSession session, OutputStream dest) {
+		long start = metrics.start();
 		try {
-			JAXBContext ctx = JAXBContext.newInstance(TrainingCenterDatabaseT.class);
-			Marshaller m = ctx.createMarshaller();
-			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			m.marshal(factory.createTrainingCenterDatabase(tcx), dest);
-		} catch (JAXBException e) {
+			BufferedOutputStream os = new BufferedOutputStream(dest, BUFFER_SIZE);
+			new TcxStreamWriter(this, os, options.isFormattedOutput()).write(session);
+			os.flush();
+		} catch (XMLStreamException | IOException e) {
 			throw new RuntimeException(e);
 		}
-		return tcx;
+		return metrics.record(Stage.MARSHALLING, start);
 	}
 
 	protected XMLGregorianCalendar mapDate(Date date) {
-		if (date != null) {
-			GregorianCalendar cal = new GregorianCalendar();
-			cal.setTime(date);
-			return dtf.newXMLGregorianCalendar(cal);
+		return date != null ? mapDate(date.getTime()) : null;
+	}
+
+	protected XMLGregorianCalendar mapDate(long timestamp) {
+		if (timestamp != GpsTrack.NO_TIMESTAMP) {
+			return TimestampCodec.toXMLGregorianCalendar(timestamp, JaxbSupport.getDatatypeFactory());
 		}
 		return null;
 	}
@@ -142,62 +186,30 @@ public class TcxSportSessionMapper implements SportSessionMapper<TrainingCenterD
 		}
 	}
 
-	protected List<TrackpointT> mapGpsData(List<GpsData> gpsData) {
-		List<TrackpointT> trackpoints = new ArrayList<>();
-		if (gpsData != null) {
-			for (GpsData gps : gpsData) {
+	protected List<TrackpointT> mapTrackpoints(SportSession session) {
+		TrackpointMerger merger = new TrackpointMerger(session);
+		List<TrackpointT> trackpoints = new ArrayList<>(merger.estimatedSize());
+		while (merger.next()) {
+			TrackpointT trackpoint = factory.createTrackpointT();
+			trackpoint.setTime(mapDate(merger.getTime()));
+			if (merger.hasPosition()) {
 				PositionT pos = factory.createPositionT();
-				pos.setLatitudeDegrees(gps.getLatitude().doubleValue());
-				pos.setLongitudeDegrees(gps.getLongitude().doubleValue());
-				TrackpointT trackpoint = factory.createTrackpointT();
-				trackpoint.setTime(mapDate(gps.getTimestamp()));
-				trackpoint.setDistanceMeters(gps.getDistance().doubleValue());
-				trackpoint.setAltitudeMeters(gps.getAltitude().doubleValue());
+				pos.setLatitudeDegrees(merger.getLatitude());
+				pos.setLongitudeDegrees(merger.getLongitude());
 				trackpoint.setPosition(pos);
-				trackpoints.add(trackpoint);
 			}
-		}
-		return trackpoints;
-	}
-
-	protected List<TrackpointT> mapHeartRateData(List<HeartRateData> heartRateData) {
-		List<TrackpointT> trackpoints = new ArrayList<>();
-		if (heartRateData != null) {
-			for (HeartRateData hr : heartRateData) {
-				TrackpointT trackpoint = factory.createTrackpointT();
-				trackpoint.setTime(mapDate(hr.getTimestamp()));
-				trackpoint.setDistanceMeters(hr.getDistance().doubleValue());
-				trackpoint.setHeartRateBpm(mapHeartRate(hr.getHeartRate()));
-				trackpoints.add(trackpoint);
+			if (!Double.isNaN(merger.getAltitude())) {
+				trackpoint.setAltitudeMeters(merger.getAltitude());
 			}
-		}
-		return trackpoints;
-	}
-
-	protected List<TrackpointT> mergeTrackpoints(List<TrackpointT> trackpoints) {
-		List<TrackpointT> merged = new ArrayList<>();
-		Collections.sort(trackpoints, (a, b) -> a.getTime().compare(b.getTime()));
-		TrackpointT previous = null;
-		for (TrackpointT current : trackpoints) {
-			if (previous != null && current.getTime().equals(previous.getTime())) {
-				if (previous.getDistanceMeters() == null) {
-					previous.setDistanceMeters(current.getDistanceMeters());
-				}
-				if (previous.getAltitudeMeters() == null) {
-					previous.setAltitudeMeters(current.getAltitudeMeters());
-				}
-				if (previous.getPosition() == null) {
-					previous.setPosition(current.getPosition());
-				}
-				if (previous.getHeartRateBpm() == null) {
-					previous.setHeartRateBpm(current.getHeartRateBpm());
-				}
-			} else {
-				merged.add(current);
+			if (merger.getDistance() != GpsTrack.NO_DISTANCE) {
+				trackpoint.setDistanceMeters((double) merger.getDistance());
+			}
+			if (merger.getHeartRate() != HeartRateTrack.NO_VALUE) {
+				trackpoint.setHeartRateBpm(mapHeartRate(merger.getHeartRate()));
 			}
-			previous = current;
+			trackpoints.add(trackpoint);
 		}
-		return merged;
+		return trackpoints;
 	}
 
 }
@@ -0,0 +1,96 @@
+package me.crespel.runtastic.mapper;
+
+import java.io.OutputStream;
+import java.util.Date;
+
+import javax.xml.stream.XMLStreamException;
+
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
+import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.model.TimestampCodec;
+
+/**
+ * TCX streaming writer.
+ * This class writes the same document as {@link TcxSportSessionMapper} directly to an output stream,
+ * merging the time-ordered GPS, heart rate and elevation samples on the fly with a {@link TrackpointMerger}.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class TcxStreamWriter {
+
+	private static final String NAMESPACE = "http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2";
+
+	private final TcxSportSessionMapper mapper;
+	private final XmlStreamSupport xml;
+
+	TcxStreamWriter(TcxSportSessionMapper mapper, OutputStream os, boolean formatted) throws XMLStreamException {
+		this.mapper = mapper;
+		this.xml = new XmlStreamSupport(os, formatted);
+	}
+
+	void write(SportSession session) throws XMLStreamException {
+		String startTime = formatDate(session.getStartTime());
+
+		xml.startDocument(NAMESPACE, "TrainingCenterDatabase");
+		xml.startElement("Activities");
+		xml.startElement("Activity");
+		xml.attribute("Sport", mapper.mapSport(session.getSportTypeId()).value());
+		xml.element("Id", startTime);
+
+		xml.startElement("Lap");
+		xml.attribute("StartTime", startTime);
+		xml.element("TotalTimeSeconds", session.getDuration() != null ? session.getDuration().doubleValue() : 0.0);
+		xml.element("DistanceMeters", session.getDistance() != null ? session.getDistance().doubleValue() : 0.0);
+		xml.element("MaximumSpeed", session.getMaxSpeed() != null ? session.getMaxSpeed().doubleValue() : null);
+		xml.element("Calories", session.getCalories() != null ? session.getCalories() : 0);
+		writeHeartRate("AverageHeartRateBpm", session.getPulseAvg());
+		writeHeartRate("MaximumHeartRateBpm", session.getPulseMax());
+		xml.element("Intensity", "Active");
+		xml.element("TriggerMethod", "Manual");
+		writeTrack(session);
+		xml.endElement();
+
+		xml.endDocument();
+	}
+
+	private void writeTrack(SportSession session) throws XMLStreamException {
+		TrackpointMerger merger = new TrackpointMerger(session);
+		if (merger.isEmpty()) {
+			return;
+		}
+
+		xml.startElement("Track");
+		while (merger.next()) {
+			xml.startElement("Trackpoint");
+			xml.element("Time", formatDate(merger.getTime()));
+			if (merger.hasPosition()) {
+				xml.startElement("Position");
+				xml.element("LatitudeDegrees", GpsTrack.toDecimal(merger.getLatitude()));
+				xml.element("LongitudeDegrees", GpsTrack.toDecimal(merger.getLongitude()));
+				xml.endElement();
+			}
+			xml.element("AltitudeMeters", GpsTrack.toDecimal(merger.getAltitude()));
+			xml.element("DistanceMeters", merger.getDistance() != GpsTrack.NO_DISTANCE ? (double) merger.getDistance() : null);
+			writeHeartRate("HeartRateBpm", merger.getHeartRate() != HeartRateTrack.NO_VALUE ? merger.getHeartRate() : null);
+			xml.endElement();
+		}
+		xml.endElement();
+	}
+
+	private void writeHeartRate(String name, Integer value) throws XMLStreamException {
+		if (value != null) {
+			xml.startElement(name);
+			xml.element("Value", value.shortValue());
+			xml.endElement();
+		}
+	}
+
+	private String formatDate(long timestamp) {
+		return TimestampCodec.format(timestamp);
+	}
+
+	private String formatDate(Date date) {
+		return date != null ? TimestampCodec.format(date.getTime()) : null;
+	}
+
+}
@@ -0,0 +1,264 @@
+package me.crespel.runtastic.mapper;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.IntToLongFunction;
+
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
+
+/**
+ * Track simplifier.
+ * This class reduces the number of points of GPS and heart rate tracks before they are mapped: samples closer in time
+ * than the sample interval are dropped, then GPS positions are simplified with the Douglas-Peucker or Visvalingam-Whyatt
+ * algorithm, on a local equirectangular projection in meters. Each segment of a track is simplified on its own, its first
+ * and last points being always kept, as are samples without a timestamp or position, which neither algorithm can judge.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class TrackSimplifier {
+
+	public enum Method {
+		/**
+		 * Remove points closer than the tolerance to the line between kept points.
+		 */
+		DOUGLAS_PEUCKER,
+		/**
+		 * Remove points forming triangles smaller than the square of the tolerance with their neighbors, smallest first.
+		 */
+		VISVALINGAM
+	}
+
+	private static final double EARTH_RADIUS = 6371008.8;
+
+	private TrackSimplifier() {
+	}
+
+	/**
+	 * @return true if the options simplify or downsample tracks
+	 */
+	public static boolean isEnabled(MappingOptions options) {
+		return options.getSimplifyTolerance() > 0 || options.getSampleInterval() > 0;
+	}
+
+	/**
+	 * @param track GPS track
+	 * @param options mapping options
+	 * @return simplified track, or the same track if no point was removed
+	 */
+	public static GpsTrack simplify(GpsTrack track, MappingOptions options) {
+		boolean[] keep = new boolean[track.size()];
+		Arrays.fill(keep, true);
+		for (int s = 0; s < track.getSegmentCount(); s++) {
+			int from = track.getSegmentStart(s), to = track.getSegmentEnd(s);
+			if (options.getSampleInterval() > 0) {
+				downsample(from, to, track::getTimestamp, options.getSampleInterval() * 1000L, keep);
+			}
+			if (options.getSimplifyTolerance() > 0) {
+				simplifyPositions(track, from, to, options.getSimplifyMethod(), options.getSimplifyTolerance(), keep);
+			}
+		}
+		int size = count(keep);
+		if (size == track.size()) {
+			return track;
+		}
+		GpsTrack simplified = new GpsTrack(Math.max(size, 1));
+		for (int s = 0; s < track.getSegmentCount(); s++) {
+			if (track.getSegmentCount() > 1) {
+				simplified.newSegment();
+			}
+			for (int i = track.getSegmentStart(s); i < track.getSegmentEnd(s); i++) {
+				if (keep[i]) {
+					simplified.add(track.getTimestamp(i), track.getLatitude(i), track.getLongitude(i), track.getAltitude(i), track.getDistance(i));
+				}
+			}
+		}
+		return simplified;
+	}
+
+	/**
+	 * @param track heart rate track
+	 * @param options mapping options
+	 * @return downsampled track, or the same track if no sample was removed
+	 */
+	public static HeartRateTrack simplify(HeartRateTrack track, MappingOptions options) {
+		if (options.getSampleInterval() <= 0) {
+			return track;
+		}
+		boolean[] keep = new boolean[track.size()];
+		Arrays.fill(keep, true);
+		downsample(0, track.size(), track::getTimestamp, options.getSampleInterval() * 1000L, keep);
+		int size = count(keep);
+		if (size == track.size()) {
+			return track;
+		}
+		HeartRateTrack downsampled = new HeartRateTrack(Math.max(size, 1));
+		for (int i = 0; i < track.size(); i++) {
+			if (keep[i]) {
+				downsampled.add(track.getTimestamp(i), track.getHeartRate(i), track.getDistance(i));
+			}
+		}
+		return downsampled;
+	}
+
+	// Drop samples less than the interval after the previous kept sample, keeping the last one
+	private static void downsample(int from, int to, IntToLongFunction timestamps, long interval, boolean[] keep) {
+		long previous = GpsTrack.NO_TIMESTAMP;
+		int last = -1;
+		for (int i = from; i < to; i++) {
+			long timestamp = timestamps.applyAsLong(i);
+			if (timestamp == GpsTrack.NO_TIMESTAMP) {
+				continue;
+			}
+			if (previous != GpsTrack.NO_TIMESTAMP && timestamp - previous < interval) {
+				keep[i] = false;
+			} else {
+				previous = timestamp;
+			}
+			last = i;
+		}
+		if (last >= 0) {
+			keep[last] = true;
+		}
+	}
+
+	private static void simplifyPositions(GpsTrack track, int from, int to, Method method, double tolerance, boolean[] keep) {
+		// Kept points with a position, projected around their mean latitude
+		int[] index = new int[to - from];
+		int n = 0;
+		double latitude = 0;
+		for (int i = from; i < to; i++) {
+			if (keep[i] && track.hasPosition(i)) {
+				index[n++] = i;
+				latitude += track.getLatitude(i);
+			}
+		}
+		if (n < 3) {
+			return;
+		}
+		double scale = Math.toRadians(1) * EARTH_RADIUS;
+		double lonScale = scale * Math.cos(Math.toRadians(latitude / n));
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int k = 0; k < n; k++) {
+			x[k] = track.getLongitude(index[k]) * lonScale;
+			y[k] = track.getLatitude(index[k]) * scale;
+		}
+
+		boolean[] kept = method == Method.VISVALINGAM ? visvalingam(x, y, tolerance * tolerance) : douglasPeucker(x, y, tolerance);
+		for (int k = 0; k < n; k++) {
+			keep[index[k]] = kept[k];
+		}
+	}
+
+	private static boolean[] douglasPeucker(double[] x, double[] y, double tolerance) {
+		int n = x.length;
+		boolean[] kept = new boolean[n];
+		kept[0] = kept[n - 1] = true;
+		// Explicit stack of ranges, as long tracks would overflow the call stack
+		int[] stack = new int[2 * n];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			int farthest = -1;
+			double max = tolerance;
+			for (int k = first + 1; k < last; k++) {
+				double distance = segmentDistance(x[k], y[k], x[first], y[first], x[last], y[last]);
+				if (distance > max) {
+					max = distance;
+					farthest = k;
+				}
+			}
+			if (farthest >= 0) {
+				kept[farthest] = true;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+		return kept;
+	}
+
+	private static boolean[] visvalingam(double[] x, double[] y, double threshold) {
+		int n = x.length;
+		int[] previous = new int[n];
+		int[] next = new int[n];
+		double[] area = new double[n];
+		boolean[] kept = new boolean[n];
+		Arrays.fill(kept, true);
+		PriorityQueue<Triangle> queue = new PriorityQueue<>(n);
+		for (int k = 1; k < n - 1; k++) {
+			previous[k] = k - 1;
+			next[k] = k + 1;
+			area[k] = triangleArea(x, y, k - 1, k, k + 1);
+			queue.add(new Triangle(k, area[k]));
+		}
+
+		// Stale triangles (removed point or updated area) are skipped rather than removed from the queue
+		double removedArea = 0;
+		Triangle triangle;
+		while ((triangle = queue.poll()) != null && triangle.area < threshold) {
+			int k = triangle.index;
+			if (!kept[k] || triangle.area != area[k]) {
+				continue;
+			}
+			kept[k] = false;
+			removedArea = Math.max(removedArea, triangle.area);
+			int p = previous[k], q = next[k];
+			next[p] = q;
+			previous[q] = p;
+			// Neighbors never get a smaller area than the points removed before them
+			if (p > 0) {
+				area[p] = Math.max(triangleArea(x, y, previous[p], p, q), removedArea);
+				queue.add(new Triangle(p, area[p]));
+			}
+			if (q < n - 1) {
+				area[q] = Math.max(triangleArea(x, y, p, q, next[q]), removedArea);
+				queue.add(new Triangle(q, area[q]));
+			}
+		}
+		return kept;
+	}
+
+	// Distance from a point to a segment
+	private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax, dy = by - ay;
+		double length = dx * dx + dy * dy;
+		double t = length > 0 ? Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length)) : 0;
+		double ex = px - (ax + t * dx), ey = py - (ay + t * dy);
+		return Math.sqrt(ex * ex + ey * ey);
+	}
+
+	private static double triangleArea(double[] x, double[] y, int a, int b, int c) {
+		return Math.abs((x[b] - x[a]) * (y[c] - y[a]) - (x[c] - x[a]) * (y[b] - y[a])) / 2;
+	}
+
+	private static int count(boolean[] keep) {
+		int count = 0;
+		for (boolean k : keep) {
+			if (k) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static final class Triangle implements Comparable<Triangle> {
+		private final int index;
+		private final double area;
+
+		Triangle(int index, double area) {
+			this.index = index;
+			this.area = area;
+		}
+
+		@Override
+		public int compareTo(Triangle other) {
+			return Double.compare(area, other.area);
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package me.crespel.runtastic.mapper;
+
+import java.util.Collections;
+import java.util.List;
+
+import me.crespel.runtastic.model.ElevationData;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
+import me.crespel.runtastic.model.SportSession;
+
+/**
+ * Trackpoint merger.
+ * This class merges the GPS, heart rate and elevation samples of a session into trackpoints in a single linear pass,
+ * keyed on epoch milliseconds. Each source is ordered by time: every call to {@link #next()} consumes the samples of all
+ * sources sharing the earliest remaining timestamp, each value being taken from the first sample providing it (GPS, then
+ * heart rate, then elevation). Samples without a timestamp are skipped, as trackpoints require a time.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class TrackpointMerger {
+
+	private final GpsTrack gpsTrack;
+	private final HeartRateTrack heartRateTrack;
+	private final List<ElevationData> elevationData;
+	private int g, h, e;
+
+	private long time;
+	private int position;
+	private double altitude;
+	private int distance;
+	private int heartRate;
+
+	TrackpointMerger(SportSession session) {
+		this.gpsTrack = session.getGpsTrack() != null ? session.getGpsTrack() : GpsTrack.of(session.getGpsData() != null ? session.getGpsData() : Collections.emptyList());
+		this.heartRateTrack = session.getHeartRateTrack() != null ? session.getHeartRateTrack() : HeartRateTrack.of(session.getHeartRateData() != null ? session.getHeartRateData() : Collections.emptyList());
+		this.elevationData = session.getElevationData() != null ? session.getElevationData() : Collections.emptyList();
+	}
+
+	boolean isEmpty() {
+		return gpsTrack.isEmpty() && heartRateTrack.isEmpty() && elevationData.isEmpty();
+	}
+
+	/**
+	 * @return estimated number of trackpoints, for sizing
+	 */
+	int estimatedSize() {
+		return Math.max(gpsTrack.size(), Math.max(heartRateTrack.size(), elevationData.size()));
+	}
+
+	/**
+	 * Advance to the next trackpoint.
+	 * @return false when all samples were consumed
+	 */
+	boolean next() {
+		while (g < gpsTrack.size() || h < heartRateTrack.size() || e < elevationData.size()) {
+			time = Math.min(g < gpsTrack.size() ? gpsTrack.getTimestamp(g) : Long.MAX_VALUE,
+					Math.min(h < heartRateTrack.size() ? heartRateTrack.getTimestamp(h) : Long.MAX_VALUE,
+							e < elevationData.size() ? getElevationTimestamp(e) : Long.MAX_VALUE));
+			position = -1;
+			altitude = Double.NaN;
+			distance = GpsTrack.NO_DISTANCE;
+			heartRate = HeartRateTrack.NO_VALUE;
+			for (; g < gpsTrack.size() && gpsTrack.getTimestamp(g) == time; g++) {
+				if (position < 0 && gpsTrack.hasPosition(g)) {
+					position = g;
+				}
+				if (Double.isNaN(altitude)) {
+					altitude = gpsTrack.getAltitude(g);
+				}
+				if (distance == GpsTrack.NO_DISTANCE) {
+					distance = gpsTrack.getDistance(g);
+				}
+			}
+			for (; h < heartRateTrack.size() && heartRateTrack.getTimestamp(h) == time; h++) {
+				if (distance == GpsTrack.NO_DISTANCE) {
+					distance = heartRateTrack.getDistance(h);
+				}
+				if (heartRate == HeartRateTrack.NO_VALUE) {
+					heartRate = heartRateTrack.getHeartRate(h);
+				}
+			}
+			for (; e < elevationData.size() && getElevationTimestamp(e) == time; e++) {
+				ElevationData elevation = elevationData.get(e);
+				if (Double.isNaN(altitude) && elevation.getElevation() != null) {
+					altitude = elevation.getElevation();
+				}
+				if (distance == GpsTrack.NO_DISTANCE && elevation.getDistance() != null) {
+					distance = elevation.getDistance();
+				}
+			}
+			if (time != GpsTrack.NO_TIMESTAMP) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return time of the current trackpoint, in epoch milliseconds
+	 */
+	long getTime() {
+		return time;
+	}
+
+	boolean hasPosition() {
+		return position >= 0;
+	}
+
+	double getLatitude() {
+		return gpsTrack.getLatitude(position);
+	}
+
+	double getLongitude() {
+		return gpsTrack.getLongitude(position);
+	}
+
+	/**
+	 * @return altitude of the current trackpoint, or {@link Double#NaN}
+	 */
+	double getAltitude() {
+		return altitude;
+	}
+
+	/**
+	 * @return distance of the current trackpoint, or {@link GpsTrack#NO_DISTANCE}
+	 */
+	int getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return heart rate of the current trackpoint, or {@link HeartRateTrack#NO_VALUE}
+	 */
+	int getHeartRate() {
+		return heartRate;
+	}
+
+	private long getElevationTimestamp(int i) {
+		ElevationData elevation = elevationData.get(i);
+		return elevation.getTimestamp() != null ? elevation.getTimestamp().getTime() : GpsTrack.NO_TIMESTAMP;
+	}
+
+}
@@ -0,0 +1,130 @@
+package me.crespel.runtastic.mapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streaming XML writer support.
+ * This class wraps an {@link XMLStreamWriter} and optionally indents elements the same way as the JAXB marshaller,
+ * so that both write the same document.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class XmlStreamSupport {
+
+	private static final ThreadLocal<XMLOutputFactory> outputFactory = ThreadLocal.withInitial(XMLOutputFactory::newInstance);
+	private static final String INDENT = "    ";
+	// Declaration written by the JAXB marshaller, the standalone pseudo-attribute being out of reach of the StAX API
+	private static final byte[] DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".getBytes(StandardCharsets.UTF_8);
+
+	private final OutputStream os;
+	private final XMLStreamWriter writer;
+	private final boolean formatted;
+	private boolean[] hasChildren = new boolean[16];
+	private int depth = 0;
+
+	XmlStreamSupport(OutputStream os, boolean formatted) throws XMLStreamException {
+		this.os = os;
+		this.writer = outputFactory.get().createXMLStreamWriter(os, "UTF-8");
+		this.formatted = formatted;
+	}
+
+	void startDocument(String namespace, String rootElement) throws XMLStreamException {
+		try {
+			os.write(DECLARATION);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+		writer.setDefaultNamespace(namespace);
+		startElement(rootElement);
+		writer.writeDefaultNamespace(namespace);
+	}
+
+	void endDocument() throws XMLStreamException {
+		while (depth > 0) {
+			endElement();
+		}
+		if (formatted) {
+			writer.writeCharacters("\n");
+		}
+		writer.writeEndDocument();
+		writer.flush();
+	}
+
+	void startElement(String name) throws XMLStreamException {
+		indent();
+		writer.writeStartElement(name);
+		if (depth > 0) {
+			hasChildren[depth - 1] = true;
+		}
+		if (depth == hasChildren.length) {
+			hasChildren = Arrays.copyOf(hasChildren, depth * 2);
+		}
+		hasChildren[depth++] = false;
+	}
+
+	void endElement() throws XMLStreamException {
+		depth--;
+		if (hasChildren[depth]) {
+			indent();
+		}
+		writer.writeEndElement();
+	}
+
+	void emptyElement(String name) throws XMLStreamException {
+		indent();
+		writer.writeEmptyElement(name);
+		if (depth > 0) {
+			hasChildren[depth - 1] = true;
+		}
+	}
+
+	void attribute(String name, String value) throws XMLStreamException {
+		if (value != null) {
+			writer.writeAttribute(name, value);
+		}
+	}
+
+	void attribute(String name, BigDecimal value) throws XMLStreamException {
+		if (value != null) {
+			writer.writeAttribute(name, value.toPlainString());
+		}
+	}
+
+	void element(String name, String value) throws XMLStreamException {
+		if (value != null) {
+			startElement(name);
+			writer.writeCharacters(value);
+			endElement();
+		}
+	}
+
+	void element(String name, BigDecimal value) throws XMLStreamException {
+		if (value != null) {
+			element(name, value.toPlainString());
+		}
+	}
+
+	void element(String name, Number value) throws XMLStreamException {
+		if (value != null) {
+			element(name, value.toString());
+		}
+	}
+
+	private void indent() throws XMLStreamException {
+		if (formatted) {
+			StringBuilder sb = new StringBuilder(depth * INDENT.length() + 1).append('\n');
+			for (int i = 0; i < depth; i++) {
+				sb.append(INDENT);
+			}
+			writer.writeCharacters(sb.toString());
+		}
+	}
+
+}
@@ -0,0 +1,243 @@
+package me.crespel.runtastic.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Conversion metrics.
+ * This class measures the time spent in each stage of the conversion of sport sessions, along with the number of
+ * sessions, GPS positions and bytes read and written, shared by all converters of the JVM. Stages record their duration
+ * from the time returned by {@link #start()}; counters and histograms are updated without locking, so that converting
+ * threads do not contend. Metrics may be published as MBeans under the {@value #DOMAIN} domain, and reported as JSON.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class ConversionMetrics implements ConversionMetricsMBean {
+
+	public static final String DOMAIN = "me.crespel.runtastic";
+
+	public enum Stage {
+		/**
+		 * Finding the GPS, heart rate and elevation files of a session.
+		 */
+		SIDECAR_DISCOVERY("sidecar-discovery"),
+		/**
+		 * Reading the files of a session into memory.
+		 */
+		READ("read"),
+		/**
+		 * Parsing session, GPS, heart rate and elevation JSON files.
+		 */
+		JSON_PARSE("json-parse"),
+		/**
+		 * Parsing GPX files.
+		 */
+		GPX_UNMARSHAL("gpx-unmarshal"),
+		/**
+		 * Building the GPX or TCX object tree of a session.
+		 */
+		MAPPING("mapping"),
+		/**
+		 * Writing the XML of a session, from its object tree or with a streaming writer.
+		 */
+		MARSHALLING("marshalling"),
+		/**
+		 * Writing output files.
+		 */
+		WRITE("write");
+
+		private final String name;
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static final ConversionMetrics INSTANCE = new ConversionMetrics();
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private final StageMetrics[] stages = new StageMetrics[Stage.values().length];
+	private final LongAdder sessions = new LongAdder();
+	private final LongAdder points = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private volatile long startTime = System.currentTimeMillis();
+	private boolean registered;
+
+	private ConversionMetrics() {
+		for (Stage stage : Stage.values()) {
+			stages[stage.ordinal()] = new StageMetrics(stage.toString());
+		}
+	}
+
+	public static ConversionMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return start time of a stage, to be passed to {@link #record(Stage, long)}
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param stage stage
+	 * @param startTime start time returned by {@link #start()}
+	 * @return duration of the stage, in nanoseconds
+	 */
+	public long record(Stage stage, long startTime) {
+		long nanos = System.nanoTime() - startTime;
+		stages[stage.ordinal()].record(nanos);
+		return nanos;
+	}
+
+	public StageMetrics getStage(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	public void addSessions(long count) {
+		sessions.add(count);
+	}
+
+	public void addPoints(long count) {
+		points.add(count);
+	}
+
+	public void addBytesIn(long count) {
+		bytesIn.add(count);
+	}
+
+	public void addBytesOut(long count) {
+		bytesOut.add(count);
+	}
+
+	/**
+	 * @return sport session files parsed
+	 */
+	@Override
+	public long getSessions() {
+		return sessions.sum();
+	}
+
+	/**
+	 * @return GPS positions parsed, from JSON or GPX files
+	 */
+	@Override
+	public long getPoints() {
+		return points.sum();
+	}
+
+	/**
+	 * @return bytes of session files read
+	 */
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * @return bytes of output files written
+	 */
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * @return milliseconds since the metrics were created or reset
+	 */
+	@Override
+	public long getElapsedMillis() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	@Override
+	public void reset() {
+		for (StageMetrics stage : stages) {
+			stage.reset();
+		}
+		sessions.reset();
+		points.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Publish the metrics to the platform MBean server, once per JVM.
+	 */
+	public synchronized void register() throws JMException {
+		if (registered) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, new ObjectName(DOMAIN + ":type=ConversionMetrics"));
+		for (StageMetrics stage : stages) {
+			server.registerMBean(stage, new ObjectName(DOMAIN + ":type=ConversionMetrics,stage=" + stage.getName()));
+		}
+		registered = true;
+	}
+
+	/**
+	 * @return counters and metrics of each stage, along with its share of the time spent in all stages
+	 */
+	public Map<String, Object> getReport() {
+		double elapsed = Math.max(getElapsedMillis(), 1) / 1000.0;
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("elapsed_ms", getElapsedMillis());
+		report.put("sessions", getSessions());
+		report.put("points", getPoints());
+		report.put("bytes_in", getBytesIn());
+		report.put("bytes_out", getBytesOut());
+		report.put("sessions_per_second", getSessions() / elapsed);
+		report.put("mb_in_per_second", getBytesIn() / 1048576.0 / elapsed);
+		report.put("mb_out_per_second", getBytesOut() / 1048576.0 / elapsed);
+		double total = 0;
+		for (StageMetrics stage : stages) {
+			total += stage.getTotalMillis();
+		}
+		Map<String, Object> stageReports = new LinkedHashMap<>();
+		for (StageMetrics stage : stages) {
+			Map<String, Object> stageReport = new LinkedHashMap<>();
+			stageReport.put("count", stage.getCount());
+			stageReport.put("total_ms", stage.getTotalMillis());
+			stageReport.put("share", total > 0 ? stage.getTotalMillis() / total : 0);
+			stageReport.put("mean_us", stage.getMeanMicros());
+			stageReport.put("p50_us", stage.getP50Micros());
+			stageReport.put("p90_us", stage.getP90Micros());
+			stageReport.put("p99_us", stage.getP99Micros());
+			stageReport.put("max_us", stage.getMaxMicros());
+			stageReports.put(stage.getName(), stageReport);
+		}
+		report.put("stages", stageReports);
+		return report;
+	}
+
+	/**
+	 * Write the {@link #getReport() report} as JSON, leaving the stream open.
+	 * @param os output stream
+	 */
+	public void writeReport(OutputStream os) throws IOException {
+		os.write(MAPPER.writeValueAsBytes(getReport()));
+		os.write(System.lineSeparator().getBytes("UTF-8"));
+		os.flush();
+	}
+
+}
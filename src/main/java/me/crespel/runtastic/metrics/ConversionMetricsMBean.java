@@ -0,0 +1,21 @@
+package me.crespel.runtastic.metrics;
+
+/**
+ * Management interface of the conversion metrics.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public interface ConversionMetricsMBean {
+
+	long getSessions();
+
+	long getPoints();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	long getElapsedMillis();
+
+	void reset();
+
+}
@@ -0,0 +1,65 @@
+package me.crespel.runtastic.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations.
+ * This class counts values in log-linear buckets, as HdrHistogram does: values below 64 have their own bucket, larger
+ * values share 32 buckets per power of two, so that percentiles are known within 3% for any value of a long, in a fixed
+ * array of about 15 KB. Recording a value only increments the count of its bucket.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS);
+
+	void record(long value) {
+		counts.incrementAndGet(index(Math.max(value, 0)));
+	}
+
+	/**
+	 * @param percentile percentile, from 0 to 100
+	 * @return highest value of the bucket holding the percentile, or 0 if no value was recorded
+	 */
+	long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+			if (count >= rank) {
+				return highestValue(i);
+			}
+		}
+		return highestValue(counts.length() - 1);
+	}
+
+	void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	static int index(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	static long highestValue(int index) {
+		if (index < 2 << SUB_BUCKET_BITS) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = index - (shift << SUB_BUCKET_BITS);
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,42 @@
+package me.crespel.runtastic.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import me.crespel.runtastic.model.HeartRateTrack;
+import me.crespel.runtastic.model.SportSession;
+
+/**
+ * Flight recorder event of a sport session.
+ * This class holds the fields shared by the events of each conversion step of a session. Events cost nothing but their
+ * allocation, usually eliminated by the JIT, unless a flight recording enables them: fields are only set after checking
+ * {@link #shouldCommit()}.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Category({ "Runtastic Export Converter", "Conversion" })
+@StackTrace(false)
+public abstract class SessionEvent extends Event {
+
+	@Label("Session Id")
+	public String sessionId;
+
+	@Label("Positions")
+	public int points;
+
+	@Label("Heart Rate Samples")
+	public int heartRatePoints;
+
+	/**
+	 * Set the id and sample counts of a session, loading its tracks if not already loaded.
+	 * @param session sport session
+	 */
+	public void setSession(SportSession session) {
+		sessionId = session.getId();
+		points = session.getSummary().getPoints();
+		HeartRateTrack heartRateTrack = session.getHeartRateTrack();
+		heartRatePoints = heartRateTrack != null ? heartRateTrack.size() : 0;
+	}
+
+}
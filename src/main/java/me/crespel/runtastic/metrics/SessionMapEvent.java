@@ -0,0 +1,53 @@
+package me.crespel.runtastic.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import me.crespel.runtastic.model.SportSession;
+
+/**
+ * Flight recorder event of the mapping of a sport session.
+ * This class records the mapping of a session to GPX or TCX, along with the time spent building the object tree and
+ * marshalling it. Streaming writers map the session while writing it, their time being counted as marshalling.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Name(SessionMapEvent.NAME)
+@Label("Session Map")
+@Description("Mapping of a sport session to GPX or TCX")
+public class SessionMapEvent extends SessionEvent {
+
+	public static final String NAME = ConversionMetrics.DOMAIN + ".SessionMap";
+
+	@Label("Format")
+	public String format;
+
+	@Label("Streaming")
+	public boolean streaming;
+
+	@Label("Mapping Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long mappingTime;
+
+	@Label("Marshalling Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long marshallingTime;
+
+	/**
+	 * End the event and commit it, if enabled, with the given session.
+	 * @param session sport session
+	 * @param format output format
+	 * @param streaming true if written with a streaming writer
+	 */
+	public void record(SportSession session, String format, boolean streaming) {
+		end();
+		if (shouldCommit()) {
+			setSession(session);
+			this.format = format;
+			this.streaming = streaming;
+			commit();
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package me.crespel.runtastic.metrics;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of the parsing of a sport session.
+ * This class records the parsing of a session file and of its GPS, heart rate and elevation files read into memory,
+ * with the size of each file.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Name(SessionParseEvent.NAME)
+@Label("Session Parse")
+@Description("Parsing of a sport session and its sub-data files")
+public class SessionParseEvent extends SessionEvent {
+
+	public static final String NAME = ConversionMetrics.DOMAIN + ".SessionParse";
+
+	@Label("Session File Size")
+	@DataAmount
+	public long sessionSize;
+
+	@Label("GPS JSON File Size")
+	@DataAmount
+	public long gpsSize;
+
+	@Label("GPX File Size")
+	@DataAmount
+	public long gpxSize;
+
+	@Label("Heart Rate File Size")
+	@DataAmount
+	public long heartRateSize;
+
+	@Label("Elevation File Size")
+	@DataAmount
+	public long elevationSize;
+
+}
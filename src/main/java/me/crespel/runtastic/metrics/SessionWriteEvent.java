@@ -0,0 +1,51 @@
+package me.crespel.runtastic.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the writing of a converted sport session.
+ * This class records the writing of the output of a session to a file or archive entry, once mapped in memory.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Name(SessionWriteEvent.NAME)
+@Label("Session Write")
+@Description("Writing of a converted sport session")
+@Category({ "Runtastic Export Converter", "Conversion" })
+@StackTrace(false)
+public class SessionWriteEvent extends Event {
+
+	public static final String NAME = ConversionMetrics.DOMAIN + ".SessionWrite";
+
+	@Label("Session Id")
+	public String sessionId;
+
+	@Label("Output")
+	public String output;
+
+	@Label("Bytes Written")
+	@DataAmount
+	public long bytes;
+
+	/**
+	 * End the event and commit it, if enabled, with the given output.
+	 * @param sessionId session id
+	 * @param output output file or archive entry name
+	 * @param bytes bytes written
+	 */
+	public void record(String sessionId, String output, long bytes) {
+		end();
+		if (shouldCommit()) {
+			this.sessionId = sessionId;
+			this.output = output;
+			this.bytes = bytes;
+			commit();
+		}
+	}
+
+}
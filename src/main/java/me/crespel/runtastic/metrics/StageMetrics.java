@@ -0,0 +1,83 @@
+package me.crespel.runtastic.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a conversion stage.
+ * This class counts the calls of a stage and their duration, in total and as a histogram, without locking.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+	private final String name;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private final Histogram histogram = new Histogram();
+
+	StageMetrics(String name) {
+		this.name = name;
+	}
+
+	void record(long nanos) {
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		histogram.record(nanos);
+	}
+
+	void reset() {
+		count.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		histogram.reset();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getTotalMillis() {
+		return totalNanos.sum() / 1e6;
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long n = count.sum();
+		return n > 0 ? totalNanos.sum() / 1e3 / n : 0;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return getValueAtPercentile(50) / 1e3;
+	}
+
+	@Override
+	public double getP90Micros() {
+		return getValueAtPercentile(90) / 1e3;
+	}
+
+	@Override
+	public double getP99Micros() {
+		return getValueAtPercentile(99) / 1e3;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return maxNanos.get() / 1e3;
+	}
+
+	// Buckets hold values up to 3% above the recorded ones
+	private long getValueAtPercentile(double percentile) {
+		return Math.min(histogram.getValueAtPercentile(percentile), maxNanos.get());
+	}
+
+}
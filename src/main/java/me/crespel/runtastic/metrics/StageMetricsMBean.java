@@ -0,0 +1,25 @@
+package me.crespel.runtastic.metrics;
+
+/**
+ * Management interface of the metrics of a conversion stage.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public interface StageMetricsMBean {
+
+	String getName();
+
+	long getCount();
+
+	double getTotalMillis();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP90Micros();
+
+	double getP99Micros();
+
+	double getMaxMicros();
+
+}
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 
 import lombok.Data;
@@ -17,7 +18,8 @@ import lombok.Data;
 public class GpsData {
 
 	private Integer version;
-	@JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss Z")
+	@JsonFormat(shape = Shape.STRING, pattern = TimestampCodec.PATTERN)
+	@JsonDeserialize(using = TimestampDeserializer.class)
 	private Date timestamp;
 	private BigDecimal longitude;
 	private BigDecimal latitude;
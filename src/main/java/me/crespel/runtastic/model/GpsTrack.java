@@ -0,0 +1,216 @@
+package me.crespel.runtastic.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import com.topografix.gpx._1._1.GpxType;
+import com.topografix.gpx._1._1.TrkType;
+import com.topografix.gpx._1._1.TrksegType;
+import com.topografix.gpx._1._1.WptType;
+
+/**
+ * Runtastic GPS track (\Sport-sessions\GPS-data), stored as parallel primitive arrays.
+ * Missing values are stored as {@link Double#NaN}, {@link #NO_TIMESTAMP} or {@link #NO_DISTANCE}. Tracks read from
+ * GPX files keep their segments, other tracks have a single segment.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class GpsTrack {
+
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	public static final int NO_DISTANCE = Integer.MIN_VALUE;
+
+	private int size;
+	private long[] timestamp;
+	private double[] latitude;
+	private double[] longitude;
+	private double[] altitude;
+	private int[] distance;
+	// Index of the first position of each segment but the first, and number of segments started
+	private int[] segmentStarts = new int[0];
+	private int segments;
+
+	private final SessionSummary summary = new SessionSummary();
+
+	public GpsTrack() {
+		this(256);
+	}
+
+	public GpsTrack(int capacity) {
+		timestamp = new long[capacity];
+		latitude = new double[capacity];
+		longitude = new double[capacity];
+		altitude = new double[capacity];
+		distance = new int[capacity];
+	}
+
+	public static GpsTrack of(List<GpsData> gpsData) {
+		GpsTrack track = new GpsTrack(Math.max(gpsData.size(), 1));
+		for (GpsData gps : gpsData) {
+			track.add(gps.getTimestamp() != null ? gps.getTimestamp().getTime() : NO_TIMESTAMP,
+					gps.getLatitude() != null ? gps.getLatitude().doubleValue() : Double.NaN,
+					gps.getLongitude() != null ? gps.getLongitude().doubleValue() : Double.NaN,
+					gps.getAltitude() != null ? gps.getAltitude().doubleValue() : Double.NaN,
+					gps.getDistance() != null ? gps.getDistance() : NO_DISTANCE);
+		}
+		return track;
+	}
+
+	/**
+	 * @param gpx GPX file of a session
+	 * @return track of the first GPX track, the only one mapped, or null if there is none
+	 */
+	public static GpsTrack of(GpxType gpx) {
+		if (gpx.getTrk().isEmpty()) {
+			return null;
+		}
+		TrkType trk = gpx.getTrk().get(0);
+		GpsTrack track = new GpsTrack();
+		for (TrksegType trkseg : trk.getTrkseg()) {
+			track.newSegment();
+			for (WptType wpt : trkseg.getTrkpt()) {
+				XMLGregorianCalendar time = wpt.getTime();
+				track.add(time != null ? time.toGregorianCalendar().getTimeInMillis() : NO_TIMESTAMP,
+						wpt.getLat() != null ? wpt.getLat().doubleValue() : Double.NaN,
+						wpt.getLon() != null ? wpt.getLon().doubleValue() : Double.NaN,
+						wpt.getEle() != null ? wpt.getEle().doubleValue() : Double.NaN,
+						NO_DISTANCE);
+			}
+		}
+		return track;
+	}
+
+	/**
+	 * Start a new segment, positions added next being part of it.
+	 */
+	public void newSegment() {
+		if (segments > 0) {
+			segmentStarts = Arrays.copyOf(segmentStarts, segments);
+			segmentStarts[segments - 1] = size;
+		}
+		segments++;
+	}
+
+	/**
+	 * @return number of segments, at least one
+	 */
+	public int getSegmentCount() {
+		return Math.max(segments, 1);
+	}
+
+	/**
+	 * @param s segment index
+	 * @return index of the first position of the segment
+	 */
+	public int getSegmentStart(int s) {
+		return s == 0 ? 0 : segmentStarts[s - 1];
+	}
+
+	/**
+	 * @param s segment index
+	 * @return index after the last position of the segment
+	 */
+	public int getSegmentEnd(int s) {
+		return s + 1 < getSegmentCount() ? segmentStarts[s] : size;
+	}
+
+	public void add(long timestamp, double latitude, double longitude, double altitude, int distance) {
+		if (size == this.timestamp.length) {
+			int capacity = size * 2;
+			this.timestamp = Arrays.copyOf(this.timestamp, capacity);
+			this.latitude = Arrays.copyOf(this.latitude, capacity);
+			this.longitude = Arrays.copyOf(this.longitude, capacity);
+			this.altitude = Arrays.copyOf(this.altitude, capacity);
+			this.distance = Arrays.copyOf(this.distance, capacity);
+		}
+		this.timestamp[size] = timestamp;
+		this.latitude[size] = latitude;
+		this.longitude[size] = longitude;
+		this.altitude[size] = altitude;
+		this.distance[size] = distance;
+		size++;
+		summary.add(timestamp, latitude, longitude);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long getTimestamp(int i) {
+		return timestamp[i];
+	}
+
+	public double getLatitude(int i) {
+		return latitude[i];
+	}
+
+	public double getLongitude(int i) {
+		return longitude[i];
+	}
+
+	public double getAltitude(int i) {
+		return altitude[i];
+	}
+
+	public int getDistance(int i) {
+		return distance[i];
+	}
+
+	public boolean hasPosition(int i) {
+		return !Double.isNaN(latitude[i]) && !Double.isNaN(longitude[i]);
+	}
+
+	public boolean hasPositions() {
+		return summary.hasPositions();
+	}
+
+	public double getMinLatitude() {
+		return summary.getMinLatitude();
+	}
+
+	public double getMaxLatitude() {
+		return summary.getMaxLatitude();
+	}
+
+	public double getMinLongitude() {
+		return summary.getMinLongitude();
+	}
+
+	public double getMaxLongitude() {
+		return summary.getMaxLongitude();
+	}
+
+	/**
+	 * @return summary of the positions, computed as they are added
+	 */
+	public SessionSummary getSummary() {
+		return summary;
+	}
+
+	public List<GpsData> toGpsData() {
+		List<GpsData> gpsData = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			GpsData gps = new GpsData();
+			gps.setTimestamp(timestamp[i] != NO_TIMESTAMP ? new Date(timestamp[i]) : null);
+			gps.setLatitude(toDecimal(latitude[i]));
+			gps.setLongitude(toDecimal(longitude[i]));
+			gps.setAltitude(toDecimal(altitude[i]));
+			gps.setDistance(distance[i] != NO_DISTANCE ? distance[i] : null);
+			gpsData.add(gps);
+		}
+		return gpsData;
+	}
+
+	public static BigDecimal toDecimal(double value) {
+		return Double.isNaN(value) ? null : BigDecimal.valueOf(value);
+	}
+
+}
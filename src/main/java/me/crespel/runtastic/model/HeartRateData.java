@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 
 import lombok.Data;
@@ -16,7 +17,8 @@ import lombok.Data;
 public class HeartRateData {
 
 	private Integer version;
-	@JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss Z")
+	@JsonFormat(shape = Shape.STRING, pattern = TimestampCodec.PATTERN)
+	@JsonDeserialize(using = TimestampDeserializer.class)
 	private Date timestamp;
 	private Integer heartRate;
 	private Integer signalStrength;
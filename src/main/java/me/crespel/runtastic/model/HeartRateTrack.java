@@ -0,0 +1,88 @@
+package me.crespel.runtastic.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Runtastic heart rate track (\Sport-sessions\Heart-rate-data), stored as parallel primitive arrays.
+ * Missing values are stored as {@link #NO_TIMESTAMP} or {@link #NO_VALUE}.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class HeartRateTrack {
+
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	public static final int NO_VALUE = Integer.MIN_VALUE;
+
+	private int size;
+	private long[] timestamp;
+	private int[] heartRate;
+	private int[] distance;
+
+	public HeartRateTrack() {
+		this(256);
+	}
+
+	public HeartRateTrack(int capacity) {
+		timestamp = new long[capacity];
+		heartRate = new int[capacity];
+		distance = new int[capacity];
+	}
+
+	public static HeartRateTrack of(List<HeartRateData> heartRateData) {
+		HeartRateTrack track = new HeartRateTrack(Math.max(heartRateData.size(), 1));
+		for (HeartRateData hr : heartRateData) {
+			track.add(hr.getTimestamp() != null ? hr.getTimestamp().getTime() : NO_TIMESTAMP,
+					hr.getHeartRate() != null ? hr.getHeartRate() : NO_VALUE,
+					hr.getDistance() != null ? hr.getDistance() : NO_VALUE);
+		}
+		return track;
+	}
+
+	public void add(long timestamp, int heartRate, int distance) {
+		if (size == this.timestamp.length) {
+			int capacity = size * 2;
+			this.timestamp = Arrays.copyOf(this.timestamp, capacity);
+			this.heartRate = Arrays.copyOf(this.heartRate, capacity);
+			this.distance = Arrays.copyOf(this.distance, capacity);
+		}
+		this.timestamp[size] = timestamp;
+		this.heartRate[size] = heartRate;
+		this.distance[size] = distance;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long getTimestamp(int i) {
+		return timestamp[i];
+	}
+
+	public int getHeartRate(int i) {
+		return heartRate[i];
+	}
+
+	public int getDistance(int i) {
+		return distance[i];
+	}
+
+	public List<HeartRateData> toHeartRateData() {
+		List<HeartRateData> heartRateData = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			HeartRateData hr = new HeartRateData();
+			hr.setTimestamp(timestamp[i] != NO_TIMESTAMP ? new Date(timestamp[i]) : null);
+			hr.setHeartRate(heartRate[i] != NO_VALUE ? heartRate[i] : null);
+			hr.setDistance(distance[i] != NO_VALUE ? distance[i] : null);
+			heartRateData.add(hr);
+		}
+		return heartRateData;
+	}
+
+}
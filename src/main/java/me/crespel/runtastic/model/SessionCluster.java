@@ -0,0 +1,43 @@
+package me.crespel.runtastic.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.Value;
+
+/**
+ * Cluster of overlapping or compound sport sessions.
+ * Sessions are kept in the order of the list they were found in, and compared by id.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+@Value
+@EqualsAndHashCode(of = "ids")
+@ToString(of = "ids")
+public class SessionCluster {
+
+	private final List<SportSession> sessions;
+	private final Set<String> ids;
+
+	public SessionCluster(List<SportSession> sessions) {
+		this.sessions = Collections.unmodifiableList(new ArrayList<>(sessions));
+		Set<String> ids = new LinkedHashSet<>();
+		for (SportSession session : sessions) {
+			ids.add(session.getId());
+		}
+		this.ids = Collections.unmodifiableSet(ids);
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	public boolean contains(SportSession session) {
+		return session != null && ids.contains(session.getId());
+	}
+
+}
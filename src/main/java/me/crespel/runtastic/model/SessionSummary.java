@@ -0,0 +1,144 @@
+package me.crespel.runtastic.model;
+
+import com.topografix.gpx._1._1.BoundsType;
+
+/**
+ * Summary of the positions of a sport session.
+ * This class accumulates the bounds, number of positions and first and last timestamps of a session as its samples are
+ * added, so sessions can be listed and compared without mapping them to GPX. Missing values are stored as
+ * {@link Double#NaN} or {@link GpsTrack#NO_TIMESTAMP}.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class SessionSummary {
+
+	/**
+	 * Latitude and longitude starting each GPX track segment in {@link #getPositions() positions}.
+	 */
+	public static final int SEGMENT_START = Integer.MIN_VALUE;
+
+	private int points;
+	private double minLatitude = Double.NaN;
+	private double maxLatitude = Double.NaN;
+	private double minLongitude = Double.NaN;
+	private double maxLongitude = Double.NaN;
+	private long firstTimestamp = GpsTrack.NO_TIMESTAMP;
+	private long lastTimestamp = GpsTrack.NO_TIMESTAMP;
+	private int[] positions;
+
+	public SessionSummary() {
+	}
+
+	public SessionSummary(int points, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, long firstTimestamp, long lastTimestamp) {
+		this.points = points;
+		this.minLatitude = minLatitude;
+		this.minLongitude = minLongitude;
+		this.maxLatitude = maxLatitude;
+		this.maxLongitude = maxLongitude;
+		this.firstTimestamp = firstTimestamp;
+		this.lastTimestamp = lastTimestamp;
+	}
+
+	public void add(long timestamp, double latitude, double longitude) {
+		if (timestamp != GpsTrack.NO_TIMESTAMP) {
+			firstTimestamp = firstTimestamp == GpsTrack.NO_TIMESTAMP ? timestamp : Math.min(firstTimestamp, timestamp);
+			lastTimestamp = Math.max(lastTimestamp, timestamp);
+		}
+		if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+			if (points == 0) {
+				minLatitude = maxLatitude = latitude;
+				minLongitude = maxLongitude = longitude;
+			} else {
+				minLatitude = Math.min(minLatitude, latitude);
+				maxLatitude = Math.max(maxLatitude, latitude);
+				minLongitude = Math.min(minLongitude, longitude);
+				maxLongitude = Math.max(maxLongitude, longitude);
+			}
+			points++;
+		}
+	}
+
+	public void add(SessionSummary summary) {
+		if (summary.firstTimestamp != GpsTrack.NO_TIMESTAMP) {
+			add(summary.firstTimestamp, Double.NaN, Double.NaN);
+			add(summary.lastTimestamp, Double.NaN, Double.NaN);
+		}
+		if (summary.points > 0) {
+			add(GpsTrack.NO_TIMESTAMP, summary.minLatitude, summary.minLongitude);
+			add(GpsTrack.NO_TIMESTAMP, summary.maxLatitude, summary.maxLongitude);
+			points += summary.points - 2;
+		}
+	}
+
+	/**
+	 * @return number of positions
+	 */
+	public int getPoints() {
+		return points;
+	}
+
+	public boolean hasPositions() {
+		return points > 0;
+	}
+
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	/**
+	 * @return earliest sample time, in epoch milliseconds, or {@link GpsTrack#NO_TIMESTAMP}
+	 */
+	public long getFirstTimestamp() {
+		return firstTimestamp;
+	}
+
+	/**
+	 * @return latest sample time, in epoch milliseconds, or {@link GpsTrack#NO_TIMESTAMP}
+	 */
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	/**
+	 * @return latitude and longitude of each position in 1e-7 degrees, those of the GPS data first, then those of each GPX
+	 *         track segment after a {@link #SEGMENT_START} pair, or null if not kept (e.g. not read from a session cache)
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	public void setPositions(int[] positions) {
+		this.positions = positions;
+	}
+
+	/**
+	 * @return bounds of the positions, with null values if there is none
+	 */
+	public BoundsType toBounds() {
+		BoundsType bounds = new BoundsType();
+		bounds.setMinlat(GpsTrack.toDecimal(minLatitude));
+		bounds.setMaxlat(GpsTrack.toDecimal(maxLatitude));
+		bounds.setMinlon(GpsTrack.toDecimal(minLongitude));
+		bounds.setMaxlon(GpsTrack.toDecimal(maxLongitude));
+		return bounds;
+	}
+
+	@Override
+	public String toString() {
+		return "SessionSummary(points=" + points + ", minLatitude=" + minLatitude + ", minLongitude=" + minLongitude
+				+ ", maxLatitude=" + maxLatitude + ", maxLongitude=" + maxLongitude
+				+ ", firstTimestamp=" + firstTimestamp + ", lastTimestamp=" + lastTimestamp + ")";
+	}
+
+}
@@ -11,15 +11,30 @@ import com.fasterxml.jackson.databind.annotation.JsonNaming;
 import com.topografix.gpx._1._1.BoundsType;
 import com.topografix.gpx._1._1.GpxType;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 
 @Data
+@EqualsAndHashCode(doNotUseGetters = true)
 @ToString(of = {"id", "sportTypeId", "startTime", "duration", "distance", "userEquipmentIds"})
 @JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class SportSession implements Comparable<SportSession> {
 
+	// Sub-data loaded on demand
+	private static final int ELEVATION_DATA = 1;
+	private static final int GPS_DATA = 1 << 1;
+	private static final int GPX = 1 << 2;
+	private static final int HEART_RATE_DATA = 1 << 3;
+	private static final int SESSION_ALBUM = 1 << 4;
+	private static final int IMAGES = 1 << 5;
+	private static final int USER = 1 << 6;
+	private static final int GPX_TRACK = 1 << 7;
+
 	private Date startTime;
 	private Date endTime;
 	private Date createdAt;
@@ -62,12 +77,25 @@ public class SportSession implements Comparable<SportSession> {
 	@JsonIgnore
 	private List<GpsData> gpsData;
 
+	@JsonIgnore
+	private GpsTrack gpsTrack;
+
 	@JsonIgnore
 	private GpxType gpx;
 
+	@JsonIgnore
+	private GpsTrack gpxTrack;
+
 	@JsonIgnore
 	private List<HeartRateData> heartRateData;
 
+	@JsonIgnore
+	private HeartRateTrack heartRateTrack;
+
+	@JsonIgnore
+	@EqualsAndHashCode.Exclude
+	private SessionSummary summary;
+
 	@JsonIgnore
 	private SportSessionAlbums sessionAlbum;
 
@@ -80,6 +108,10 @@ public class SportSession implements Comparable<SportSession> {
 	@JsonIgnore
 	private List<SportSession> compoundSessions;
 
+	@JsonIgnore
+	@EqualsAndHashCode.Exclude
+	private List<SportSession> routeSessions;
+
 	@JsonIgnore
 	private BoundsType innerBound;
 	@JsonIgnore
@@ -88,6 +120,233 @@ public class SportSession implements Comparable<SportSession> {
 	@JsonIgnore
 	private User user;
 
+	@JsonIgnore
+	@EqualsAndHashCode.Exclude
+	private SportSessionLoader loader;
+
+	// Sub-data already loaded or set, and among them sub-data loaded by the loader (which may be released)
+	@JsonIgnore
+	@EqualsAndHashCode.Exclude
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private int resolved;
+	@JsonIgnore
+	@EqualsAndHashCode.Exclude
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private int loaded;
+
+	public List<ElevationData> getElevationData() {
+		if (elevationData == null && isLoadable(ELEVATION_DATA)) {
+			elevationData = loader.loadElevationData();
+			setLoaded(ELEVATION_DATA);
+		}
+		return elevationData;
+	}
+
+	public void setElevationData(List<ElevationData> elevationData) {
+		this.elevationData = elevationData;
+		setResolved(ELEVATION_DATA);
+	}
+
+	public GpsTrack getGpsTrack() {
+		if (gpsTrack == null && gpsData == null && isLoadable(GPS_DATA)) {
+			gpsTrack = loader.loadGpsTrack();
+			setLoaded(GPS_DATA);
+		}
+		return gpsTrack;
+	}
+
+	public void setGpsTrack(GpsTrack gpsTrack) {
+		this.gpsTrack = gpsTrack;
+		this.summary = null;
+		setResolved(GPS_DATA);
+	}
+
+	public GpxType getGpx() {
+		if (gpx == null && isLoadable(GPX)) {
+			gpx = loader.loadGpx();
+			setLoaded(GPX);
+		}
+		return gpx;
+	}
+
+	public void setGpx(GpxType gpx) {
+		this.gpx = gpx;
+		setResolved(GPX);
+	}
+
+	/**
+	 * Get the track of the GPX file of the session, read without building the GPX model.
+	 * Sessions without loader derive it from their GPX, if set.
+	 * @return GPX track, or null if there is none
+	 */
+	public GpsTrack getGpxTrack() {
+		if (gpxTrack == null && isLoadable(GPX_TRACK)) {
+			gpxTrack = loader.loadGpxTrack();
+			setLoaded(GPX_TRACK);
+		} else if (gpxTrack == null && loader == null && gpx != null) {
+			gpxTrack = GpsTrack.of(gpx);
+		}
+		return gpxTrack;
+	}
+
+	public void setGpxTrack(GpsTrack gpxTrack) {
+		this.gpxTrack = gpxTrack;
+		this.summary = null;
+		setResolved(GPX_TRACK);
+	}
+
+	public HeartRateTrack getHeartRateTrack() {
+		if (heartRateTrack == null && heartRateData == null && isLoadable(HEART_RATE_DATA)) {
+			heartRateTrack = loader.loadHeartRateTrack();
+			setLoaded(HEART_RATE_DATA);
+		}
+		return heartRateTrack;
+	}
+
+	public void setHeartRateTrack(HeartRateTrack heartRateTrack) {
+		this.heartRateTrack = heartRateTrack;
+		setResolved(HEART_RATE_DATA);
+	}
+
+	/**
+	 * Get the summary of the positions of the session, from its GPS data and GPX track.
+	 * It is computed on first access unless set, e.g. from a session cache, again when the GPS or GPX track is replaced
+	 * (e.g. simplified), and kept when sub-data is released or the GPX is replaced by the mapped one.
+	 * @return session summary
+	 */
+	public SessionSummary getSummary() {
+		if (summary == null) {
+			SessionSummary summary = new SessionSummary();
+			GpsTrack track = getGpsTrack();
+			if (track == null && gpsData != null) {
+				track = GpsTrack.of(gpsData);
+			}
+			if (track != null) {
+				summary.add(track.getSummary());
+			}
+			if (getGpxTrack() != null) {
+				summary.add(gpxTrack.getSummary());
+			}
+			this.summary = summary;
+		}
+		return summary;
+	}
+
+	public SportSessionAlbums getSessionAlbum() {
+		if (sessionAlbum == null && isLoadable(SESSION_ALBUM)) {
+			sessionAlbum = loader.loadSessionAlbum();
+			setLoaded(SESSION_ALBUM);
+		}
+		return sessionAlbum;
+	}
+
+	public void setSessionAlbum(SportSessionAlbums sessionAlbum) {
+		this.sessionAlbum = sessionAlbum;
+		setResolved(SESSION_ALBUM);
+	}
+
+	public List<ImagesMetaData> getImages() {
+		if (images == null && isLoadable(IMAGES)) {
+			SportSessionAlbums album = getSessionAlbum();
+			images = album != null ? loader.loadImages(album) : null;
+			setLoaded(IMAGES);
+		}
+		return images;
+	}
+
+	public void setImages(List<ImagesMetaData> images) {
+		this.images = images;
+		setResolved(IMAGES);
+	}
+
+	public User getUser() {
+		if (user == null && isLoadable(USER)) {
+			user = loader.loadUser();
+			setLoaded(USER);
+		}
+		return user;
+	}
+
+	public void setUser(User user) {
+		this.user = user;
+		setResolved(USER);
+	}
+
+	/**
+	 * Release the sub-data loaded on demand, to be loaded again on next access.
+	 * Sub-data set explicitly (e.g. mapped GPX) is kept.
+	 */
+	public void release() {
+		if ((loaded & ELEVATION_DATA) != 0) {
+			elevationData = null;
+		}
+		if ((loaded & GPS_DATA) != 0) {
+			gpsTrack = null;
+			gpsData = null;
+		}
+		if ((loaded & GPX) != 0) {
+			gpx = null;
+		}
+		if ((loaded & GPX_TRACK) != 0) {
+			gpxTrack = null;
+		}
+		if ((loaded & HEART_RATE_DATA) != 0) {
+			heartRateTrack = null;
+			heartRateData = null;
+		}
+		if ((loaded & SESSION_ALBUM) != 0) {
+			sessionAlbum = null;
+		}
+		if ((loaded & IMAGES) != 0) {
+			images = null;
+		}
+		if ((loaded & USER) != 0) {
+			user = null;
+		}
+		resolved &= ~loaded;
+		loaded = 0;
+	}
+
+	private boolean isLoadable(int data) {
+		return loader != null && (resolved & data) == 0;
+	}
+
+	private void setLoaded(int data) {
+		resolved |= data;
+		loaded |= data;
+	}
+
+	private void setResolved(int data) {
+		resolved |= data;
+		loaded &= ~data;
+	}
+
+	public List<GpsData> getGpsData() {
+		if (gpsData == null && getGpsTrack() != null) {
+			// Materialize the columnar track on first access by list-based callers
+			gpsData = gpsTrack.toGpsData();
+		}
+		return gpsData;
+	}
+
+	public List<HeartRateData> getHeartRateData() {
+		if (heartRateData == null && getHeartRateTrack() != null) {
+			heartRateData = heartRateTrack.toHeartRateData();
+		}
+		return heartRateData;
+	}
+
+	public boolean hasGpsData() {
+		// Check for data to load without loading it
+		return gpsTrack != null || gpsData != null || (isLoadable(GPS_DATA) && loader.hasGpsData());
+	}
+
+	public boolean hasHeartRateData() {
+		return heartRateTrack != null || heartRateData != null || (isLoadable(HEART_RATE_DATA) && loader.hasHeartRateData());
+	}
+
 	public Boolean contains( String filter ) {
 		Boolean ret = false;
 		if( filter != null) {
@@ -0,0 +1,36 @@
+package me.crespel.runtastic.model;
+
+import java.util.List;
+
+import com.topografix.gpx._1._1.GpxType;
+
+/**
+ * Sport session sub-data loader.
+ * This interface loads the data related to a sport session (GPS, GPX, heart rate, elevation, photos and user)
+ * on first access, from the export the session was parsed from. Methods return null when the data does not exist,
+ * and throw {@link java.io.UncheckedIOException} when it cannot be read.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public interface SportSessionLoader {
+
+	List<ElevationData> loadElevationData();
+
+	GpsTrack loadGpsTrack();
+
+	GpxType loadGpx();
+
+	GpsTrack loadGpxTrack();
+
+	HeartRateTrack loadHeartRateTrack();
+
+	SportSessionAlbums loadSessionAlbum();
+
+	List<ImagesMetaData> loadImages(SportSessionAlbums sessionAlbum);
+
+	User loadUser();
+
+	boolean hasGpsData();
+
+	boolean hasHeartRateData();
+
+}
@@ -0,0 +1,227 @@
+package me.crespel.runtastic.model;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Timestamp codec.
+ * This class parses Runtastic timestamps ({@code yyyy-MM-dd HH:mm:ss Z}) and GPX times ({@code xsd:dateTime}) to epoch
+ * milliseconds, and formats epoch milliseconds as {@code xsd:dateTime} in the default time zone, reading and writing
+ * digits at fixed positions instead of going through date formats and calendars. Other forms and years fall back to the
+ * JDK classes, with the same results.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public final class TimestampCodec {
+
+	public static final String PATTERN = "yyyy-MM-dd HH:mm:ss Z";
+
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern(PATTERN);
+	private static final int LENGTH = "2018-09-01 09:37:13 +0000".length();
+	private static final long MILLIS_PER_DAY = 86400000L;
+	// Dates before the Gregorian cutover are Julian for GregorianCalendar
+	private static final int MIN_YEAR = 1583;
+	private static final int MAX_YEAR = 9999;
+
+	private TimestampCodec() {
+	}
+
+	/**
+	 * @param value timestamp, e.g. {@code 2018-09-01 09:37:13 +0000}
+	 * @return epoch milliseconds
+	 * @throws java.time.format.DateTimeParseException if the value is not a valid timestamp
+	 */
+	public static long parse(String value) {
+		return parse(value.toCharArray(), 0, value.length());
+	}
+
+	/**
+	 * @param buf characters of the timestamp, e.g. the text buffer of a JSON parser
+	 * @param offset offset of the timestamp in the buffer
+	 * @param length length of the timestamp
+	 * @return epoch milliseconds
+	 * @throws java.time.format.DateTimeParseException if the value is not a valid timestamp
+	 */
+	public static long parse(char[] buf, int offset, int length) {
+		if (length == LENGTH
+				&& buf[offset + 4] == '-' && buf[offset + 7] == '-' && buf[offset + 10] == ' '
+				&& buf[offset + 13] == ':' && buf[offset + 16] == ':' && buf[offset + 19] == ' '
+				&& (buf[offset + 20] == '+' || buf[offset + 20] == '-')) {
+			int year = digits(buf, offset, 4);
+			int month = digits(buf, offset + 5, 2);
+			int day = digits(buf, offset + 8, 2);
+			int hour = digits(buf, offset + 11, 2);
+			int minute = digits(buf, offset + 14, 2);
+			int second = digits(buf, offset + 17, 2);
+			int offsetHours = digits(buf, offset + 21, 2);
+			int offsetMinutes = digits(buf, offset + 23, 2);
+			if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year))
+					&& hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59
+					&& offsetHours >= 0 && offsetMinutes >= 0 && offsetHours * 60 + offsetMinutes <= 18 * 60 && offsetMinutes <= 59) {
+				int offsetSeconds = (offsetHours * 60 + offsetMinutes) * 60 * (buf[offset + 20] == '-' ? -1 : 1);
+				long seconds = LocalDate.of(year, month, day).toEpochDay() * 86400 + hour * 3600 + minute * 60 + second - offsetSeconds;
+				return seconds * 1000;
+			}
+		}
+		return OffsetDateTime.parse(new String(buf, offset, length), FORMAT).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * @param value {@code xsd:dateTime}, e.g. {@code 2020-04-12T07:21:33.250Z}, in the default time zone if it has none
+	 * @return epoch milliseconds, fractions of milliseconds being truncated
+	 * @throws IllegalArgumentException if the value is not a valid {@code xsd:dateTime}
+	 */
+	public static long parseDateTime(String value) {
+		int length = value.length();
+		if (length >= 20 && value.charAt(4) == '-' && value.charAt(7) == '-' && value.charAt(10) == 'T'
+				&& value.charAt(13) == ':' && value.charAt(16) == ':') {
+			int year = digits(value, 0, 4);
+			int month = digits(value, 5, 2);
+			int day = digits(value, 8, 2);
+			int hour = digits(value, 11, 2);
+			int minute = digits(value, 14, 2);
+			int second = digits(value, 17, 2);
+			int millis = 0;
+			int i = 19;
+			if (value.charAt(i) == '.') {
+				int start = ++i;
+				while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+					if (i - start < 3) {
+						millis = millis * 10 + (value.charAt(i) - '0');
+					}
+					i++;
+				}
+				if (i == start) {
+					millis = -1;
+				}
+				for (int d = i - start; d < 3; d++) {
+					millis *= 10;
+				}
+			}
+			int offsetSeconds = Integer.MIN_VALUE;
+			if (i == length - 1 && value.charAt(i) == 'Z') {
+				offsetSeconds = 0;
+			} else if (i == length - 6 && (value.charAt(i) == '+' || value.charAt(i) == '-') && value.charAt(i + 3) == ':') {
+				int offsetHours = digits(value, i + 1, 2);
+				int offsetMinutes = digits(value, i + 4, 2);
+				if (offsetHours >= 0 && offsetMinutes >= 0 && offsetMinutes <= 59 && offsetHours * 60 + offsetMinutes <= 14 * 60) {
+					offsetSeconds = (offsetHours * 60 + offsetMinutes) * 60 * (value.charAt(i) == '-' ? -1 : 1);
+				}
+			}
+			if (year >= MIN_YEAR && month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year))
+					&& hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59
+					&& millis >= 0 && offsetSeconds != Integer.MIN_VALUE) {
+				long seconds = LocalDate.of(year, month, day).toEpochDay() * 86400 + hour * 3600 + minute * 60 + second - offsetSeconds;
+				return seconds * 1000 + millis;
+			}
+		}
+		return newDatatypeFactory().newXMLGregorianCalendar(value.trim()).toGregorianCalendar().getTimeInMillis();
+	}
+
+	/**
+	 * @param timestamp epoch milliseconds
+	 * @return {@code xsd:dateTime} in the default time zone, e.g. {@code 2018-09-01T11:37:13.000+02:00}
+	 */
+	public static String format(long timestamp) {
+		int zoneOffset = TimeZone.getDefault().getOffset(timestamp);
+		long local = timestamp + zoneOffset;
+		LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(local, MILLIS_PER_DAY));
+		if (date.getYear() < MIN_YEAR || date.getYear() > MAX_YEAR) {
+			return toXMLGregorianCalendar(timestamp, newDatatypeFactory()).toXMLFormat();
+		}
+		int millisOfDay = (int) Math.floorMod(local, MILLIS_PER_DAY);
+		int timezone = zoneOffset / 60000;
+		char[] buf = new char[timezone == 0 ? 24 : 29];
+		write(buf, 0, date.getYear(), 4);
+		buf[4] = '-';
+		write(buf, 5, date.getMonthValue(), 2);
+		buf[7] = '-';
+		write(buf, 8, date.getDayOfMonth(), 2);
+		buf[10] = 'T';
+		write(buf, 11, millisOfDay / 3600000, 2);
+		buf[13] = ':';
+		write(buf, 14, millisOfDay / 60000 % 60, 2);
+		buf[16] = ':';
+		write(buf, 17, millisOfDay / 1000 % 60, 2);
+		buf[19] = '.';
+		write(buf, 20, millisOfDay % 1000, 3);
+		if (timezone == 0) {
+			buf[23] = 'Z';
+		} else {
+			buf[23] = timezone < 0 ? '-' : '+';
+			write(buf, 24, Math.abs(timezone) / 60, 2);
+			buf[26] = ':';
+			write(buf, 27, Math.abs(timezone) % 60, 2);
+		}
+		return new String(buf);
+	}
+
+	/**
+	 * @param timestamp epoch milliseconds
+	 * @param factory datatype factory
+	 * @return calendar in the default time zone, as built from a {@link GregorianCalendar}
+	 */
+	public static XMLGregorianCalendar toXMLGregorianCalendar(long timestamp, DatatypeFactory factory) {
+		int zoneOffset = TimeZone.getDefault().getOffset(timestamp);
+		long local = timestamp + zoneOffset;
+		LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(local, MILLIS_PER_DAY));
+		if (date.getYear() < MIN_YEAR || date.getYear() > MAX_YEAR) {
+			GregorianCalendar cal = new GregorianCalendar();
+			cal.setTimeInMillis(timestamp);
+			return factory.newXMLGregorianCalendar(cal);
+		}
+		int millisOfDay = (int) Math.floorMod(local, MILLIS_PER_DAY);
+		return factory.newXMLGregorianCalendar(date.getYear(), date.getMonthValue(), date.getDayOfMonth(),
+				millisOfDay / 3600000, millisOfDay / 60000 % 60, millisOfDay / 1000 % 60, millisOfDay % 1000, zoneOffset / 60000);
+	}
+
+	// Value of a run of ASCII digits, or -1
+	private static int digits(char[] buf, int offset, int count) {
+		int value = 0;
+		for (int i = offset; i < offset + count; i++) {
+			char c = buf[i];
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int digits(String value, int offset, int count) {
+		int result = 0;
+		for (int i = offset; i < offset + count; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	// Write a value as zero-padded digits
+	private static void write(char[] buf, int offset, int value, int count) {
+		for (int i = offset + count - 1; i >= offset; i--) {
+			buf[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private static DatatypeFactory newDatatypeFactory() {
+		try {
+			return DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+package me.crespel.runtastic.model;
+
+import java.io.IOException;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+
+/**
+ * Runtastic timestamp deserializer.
+ * This class parses the timestamps of GPS, heart rate and elevation samples with the {@link TimestampCodec}, straight
+ * from the text buffer of the JSON parser. Other tokens are handled as by the default date deserializer.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class TimestampDeserializer extends StdScalarDeserializer<Date> {
+
+	private static final long serialVersionUID = 1L;
+
+	public TimestampDeserializer() {
+		super(Date.class);
+	}
+
+	@Override
+	public Date deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+		if (p.hasToken(JsonToken.VALUE_STRING) && p.getTextLength() > 0) {
+			try {
+				return new Date(TimestampCodec.parse(p.getTextCharacters(), p.getTextOffset(), p.getTextLength()));
+			} catch (DateTimeParseException e) {
+				return (Date) ctxt.handleWeirdStringValue(Date.class, p.getText(), "expected format \"%s\"", TimestampCodec.PATTERN);
+			}
+		}
+		return _parseDate(p, ctxt);
+	}
+
+}
@@ -0,0 +1,49 @@
+package me.crespel.runtastic.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of the files of an export.
+ * This interface reads the files of an export, extracted in a directory or kept in an archive. Files are addressed
+ * by their path as if the export was extracted in place, e.g. {@code export.zip/Sport-sessions/<id>.json} for an archive.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public interface ExportSource {
+
+	ExportSource FILE_SYSTEM = new FileSystemExportSource();
+
+	boolean exists(File file);
+
+	boolean isDirectory(File file);
+
+	/**
+	 * @return file size, or 0 if it does not exist
+	 */
+	long length(File file);
+
+	/**
+	 * @return modification time of the file, or 0 if it does not exist
+	 */
+	long lastModified(File file);
+
+	/**
+	 * @param dir directory
+	 * @param suffix file name suffix, e.g. ".json"
+	 * @return files of the directory whose name ends with the suffix, or null if the directory does not exist
+	 */
+	File[] listFiles(File dir, String suffix);
+
+	/**
+	 * @return stream of the file content, or null if it does not exist
+	 */
+	InputStream open(File file) throws IOException;
+
+	/**
+	 * @return file content
+	 * @throws java.io.FileNotFoundException if the file does not exist
+	 */
+	byte[] read(File file) throws IOException;
+
+}
@@ -0,0 +1,168 @@
+package me.crespel.runtastic.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.topografix.gpx._1._1.GpxType;
+
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.ConversionMetrics.Stage;
+import me.crespel.runtastic.model.ElevationData;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
+import me.crespel.runtastic.model.ImagesMetaData;
+import me.crespel.runtastic.model.SportSessionAlbums;
+import me.crespel.runtastic.model.SportSessionLoader;
+import me.crespel.runtastic.model.User;
+import me.crespel.runtastic.parser.SportSessionParser.SourceOpener;
+import me.crespel.runtastic.xml.JaxbSupport;
+
+/**
+ * Sport session loader reading the files of an export.
+ * This class loads the sub-data of the session parsed from a sport session file: GPS, GPX, heart rate and elevation files
+ * next to it (when parsed in full), and photos and user from the export root through the parser's reference data cache.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class FileSportSessionLoader implements SportSessionLoader {
+
+	private final SportSessionParser parser;
+	private final File file;
+	private final boolean full;
+	private final SourceOpener opener;
+
+	FileSportSessionLoader(SportSessionParser parser, File file, boolean full, SourceOpener opener) {
+		this.parser = parser;
+		this.file = file;
+		this.full = full;
+		this.opener = opener;
+	}
+
+	@Override
+	public List<ElevationData> loadElevationData() {
+		try (InputStream is = open(SportSessionParser.getElevationDataFile(file))) {
+			return is != null ? parser.parseElevationData(is) : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public GpsTrack loadGpsTrack() {
+		try (InputStream is = open(SportSessionParser.getGpsDataJsonFile(file))) {
+			return is != null ? parser.parseGpsTrack(is) : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public GpxType loadGpx() {
+		// the runtastic export contains GPS data as GPX files, starting from April-2020
+		try (InputStream is = open(SportSessionParser.getGpsDataGpxFile(file))) {
+			if (is == null) {
+				return null;
+			}
+			long start = ConversionMetrics.get().start();
+			JAXBElement<GpxType> root = (JAXBElement<GpxType>) JaxbSupport.getUnmarshaller(GpxType.class).unmarshal(is);
+			ConversionMetrics.get().record(Stage.GPX_UNMARSHAL, start);
+			return root.getValue();
+		} catch (JAXBException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public GpsTrack loadGpxTrack() {
+		try (InputStream is = open(SportSessionParser.getGpsDataGpxFile(file))) {
+			return is != null ? parser.parseGpxTrack(is) : null;
+		} catch (XMLStreamException | IllegalArgumentException e) {
+			// Fall back to the GPX model for files the streaming parser cannot read, JAXB reporting actual errors
+			GpxType gpx = loadGpx();
+			return gpx != null ? GpsTrack.of(gpx) : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public HeartRateTrack loadHeartRateTrack() {
+		try (InputStream is = open(SportSessionParser.getHeartRateDataFile(file))) {
+			return is != null ? parser.parseHeartRateTrack(is) : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public SportSessionAlbums loadSessionAlbum() {
+		try {
+			return parser.getSportSessionAlbum(getRoot(), FilenameUtils.getBaseName(file.getName()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public List<ImagesMetaData> loadImages(SportSessionAlbums sessionAlbum) {
+		try {
+			List<ImagesMetaData> images = new ArrayList<>();
+			for (String photo : sessionAlbum.getPhotosIds()) {
+				ImagesMetaData image = parser.getImagesMetaData(getRoot(), photo);
+				if (image != null) {
+					images.add(image);
+				}
+			}
+			Collections.sort(images);
+			return images;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public User loadUser() {
+		try {
+			return parser.getUser(getRoot());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public boolean hasGpsData() {
+		return full && exists(SportSessionParser.getGpsDataJsonFile(file));
+	}
+
+	@Override
+	public boolean hasHeartRateData() {
+		return full && exists(SportSessionParser.getHeartRateDataFile(file));
+	}
+
+	// Sub-data files are only read when the session is parsed in full
+	private InputStream open(File sourceFile) throws IOException {
+		return full ? opener.open(sourceFile) : null;
+	}
+
+	private boolean exists(File sourceFile) {
+		return parser.getSource(sourceFile).exists(sourceFile);
+	}
+
+	private File getRoot() {
+		return file.getParentFile().getParentFile();
+	}
+
+}
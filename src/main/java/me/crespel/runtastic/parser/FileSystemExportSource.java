@@ -0,0 +1,55 @@
+package me.crespel.runtastic.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Source of the files of an export extracted in a directory.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+class FileSystemExportSource implements ExportSource {
+
+	@Override
+	public boolean exists(File file) {
+		return file.exists();
+	}
+
+	@Override
+	public boolean isDirectory(File file) {
+		return file.isDirectory();
+	}
+
+	@Override
+	public long length(File file) {
+		return file.length();
+	}
+
+	@Override
+	public long lastModified(File file) {
+		return file.lastModified();
+	}
+
+	@Override
+	public File[] listFiles(File dir, String suffix) {
+		return dir.listFiles(file -> file.getName().endsWith(suffix));
+	}
+
+	@Override
+	public InputStream open(File file) throws IOException {
+		return file.exists() ? new BufferedInputStream(new FileInputStream(file)) : null;
+	}
+
+	@Override
+	public byte[] read(File file) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException("File '" + file + "' not found");
+		}
+		return Files.readAllBytes(file.toPath());
+	}
+
+}
@@ -0,0 +1,98 @@
+package me.crespel.runtastic.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.ConversionMetrics.Stage;
+
+/**
+ * Sport session files read into memory.
+ * This class holds the content of a sport session file and of its GPS, heart rate and elevation files,
+ * so that reading files and parsing them may be done by different threads. The modification time of each file is
+ * taken before reading it, so that a file changed while being read is not taken for unchanged afterwards.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class RawSportSession {
+
+	private final File file;
+	private final boolean full;
+	private final Map<File, byte[]> contents = new LinkedHashMap<>();
+	private final Map<File, Long> lastModified = new LinkedHashMap<>();
+
+	RawSportSession(File file, boolean full, List<File> sourceFiles, ExportSource source) throws IOException {
+		this.file = file;
+		this.full = full;
+		ConversionMetrics metrics = ConversionMetrics.get();
+		long start = metrics.start();
+		for (File sourceFile : sourceFiles) {
+			lastModified.put(sourceFile, source.lastModified(sourceFile));
+			contents.put(sourceFile, source.read(sourceFile));
+		}
+		metrics.record(Stage.READ, start);
+		metrics.addBytesIn(getSize());
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	public long getSize() {
+		long size = 0;
+		for (byte[] content : contents.values()) {
+			size += content.length;
+		}
+		return size;
+	}
+
+	/**
+	 * @return files read, starting with the sport session file
+	 */
+	public Set<File> getSourceFiles() {
+		return Collections.unmodifiableSet(contents.keySet());
+	}
+
+	public long getSize(File sourceFile) {
+		byte[] content = contents.get(sourceFile);
+		return content != null ? content.length : 0;
+	}
+
+	/**
+	 * @return modification time of the file before it was read, or 0 if it was not read
+	 */
+	public long getLastModified(File sourceFile) {
+		Long time = lastModified.get(sourceFile);
+		return time != null ? time : 0;
+	}
+
+	/**
+	 * @return CRC-32 of the content read from the file, or 0 if it was not read
+	 */
+	public long getCrc(File sourceFile) {
+		byte[] content = contents.get(sourceFile);
+		if (content == null) {
+			return 0;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		return crc.getValue();
+	}
+
+	InputStream open(File sourceFile) {
+		byte[] content = contents.get(sourceFile);
+		return content != null ? new ByteArrayInputStream(content) : null;
+	}
+
+}
@@ -0,0 +1,123 @@
+package me.crespel.runtastic.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Export-scoped cache of reference data (user, shoes, sport session albums and images meta data).
+ * This class parses each reference file once per export root and hands out the same instance to all sessions,
+ * parsing it again only when its modification time or length changes. Parse and lookup counts are kept per type.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class ReferenceDataCache {
+
+	public enum Type { USER, SHOE, ALBUM, IMAGE }
+
+	@FunctionalInterface
+	public interface Loader<T> {
+		T load(File file) throws IOException;
+	}
+
+	private final ConcurrentMap<File, ConcurrentMap<File, Entry>> exports = new ConcurrentHashMap<>();
+	private final Map<Type, LongAdder> parses = new EnumMap<>(Type.class);
+	private final Map<Type, LongAdder> lookups = new EnumMap<>(Type.class);
+
+	public ReferenceDataCache() {
+		for (Type type : Type.values()) {
+			parses.put(type, new LongAdder());
+			lookups.put(type, new LongAdder());
+		}
+	}
+
+	/**
+	 * Get a reference file, parsing it if it is not cached or changed since it was cached.
+	 * @param root export root directory
+	 * @param file reference file within the export
+	 * @param type reference data type
+	 * @param loader parser to use on cache miss
+	 * @return shared parsed instance
+	 */
+	public <T> T get(File root, File file, Type type, Loader<T> loader) throws IOException {
+		return get(ExportSource.FILE_SYSTEM, root, file, type, loader);
+	}
+
+	/**
+	 * Get a reference file read from an export source, parsing it if it is not cached or changed since it was cached.
+	 * @param source export source of the file
+	 * @param root export root directory
+	 * @param file reference file within the export
+	 * @param type reference data type
+	 * @param loader parser to use on cache miss
+	 * @return shared parsed instance
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(ExportSource source, File root, File file, Type type, Loader<T> loader) throws IOException {
+		lookups.get(type).increment();
+		ConcurrentMap<File, Entry> entries = exports.computeIfAbsent(root.getAbsoluteFile(), k -> new ConcurrentHashMap<>());
+		long lastModified = source.lastModified(file);
+		long length = source.length(file);
+		try {
+			return (T) entries.compute(file.getAbsoluteFile(), (k, entry) -> {
+				if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+					return entry;
+				}
+				try {
+					parses.get(type).increment();
+					return new Entry(lastModified, length, loader.load(file));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).value;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	public void invalidate(File root) {
+		exports.remove(root.getAbsoluteFile());
+	}
+
+	public void clear() {
+		exports.clear();
+	}
+
+	public long getParseCount(Type type) {
+		return parses.get(type).sum();
+	}
+
+	public long getLookupCount(Type type) {
+		return lookups.get(type).sum();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Type type : Type.values()) {
+			long count = getLookupCount(type);
+			if (count > 0) {
+				sb.append(sb.length() > 0 ? ", " : "").append(type.name().toLowerCase()).append(" parsed ")
+					.append(getParseCount(type)).append(" time(s) for ").append(count).append(" lookup(s)");
+			}
+		}
+		return sb.length() > 0 ? sb.toString() : "no lookup";
+	}
+
+	private static class Entry {
+		private final long lastModified;
+		private final long length;
+		private final Object value;
+
+		Entry(long lastModified, long length, Object value) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.value = value;
+		}
+	}
+
+}
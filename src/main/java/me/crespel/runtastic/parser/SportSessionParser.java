@@ -1,39 +1,47 @@
 package me.crespel.runtastic.parser;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.apache.commons.io.FilenameUtils;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-
-import com.topografix.gpx._1._1.GpxType;
-
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.ConversionMetrics.Stage;
+import me.crespel.runtastic.metrics.SessionParseEvent;
 import me.crespel.runtastic.model.ElevationData;
 import me.crespel.runtastic.model.GpsData;
+import me.crespel.runtastic.model.GpsTrack;
 import me.crespel.runtastic.model.HeartRateData;
+import me.crespel.runtastic.model.HeartRateTrack;
 import me.crespel.runtastic.model.ImagesMetaData;
 import me.crespel.runtastic.model.Shoe;
 import me.crespel.runtastic.model.SportSession;
 import me.crespel.runtastic.model.SportSessionAlbums;
+import me.crespel.runtastic.model.TimestampCodec;
 import me.crespel.runtastic.model.User;
 
 /**
  * Sport session parser.
- * This class reads sport sessions and related data exported as JSON.
+ * This class reads sport sessions and related data exported as JSON, and the tracks of the GPX files exported since 2020.
  * @author Fabien CRESPEL (fabien@crespel.net)
  * @author Christian IMFELD (imfeldc@gmail.com)
  */
@@ -45,107 +53,498 @@ public class SportSessionParser {
 	public static final String PHOTOS_META_DATA_DIR = "Photos" + File.separator + "Images-meta-data";
 	public static final String PHOTOS_SPORT_SESSION_ALBUMS_DIR = "Photos" + File.separator + "Images-meta-data" + File.separator + "Sport-session-albums";
 	public static final String USER_DIR = "User";
+	public static final String SHOES_DIR = "User" + File.separator + "Shoes";
+
+	// Powers of ten exactly represented as doubles
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private static final ConversionMetrics metrics = ConversionMetrics.get();
+
+	private static final ThreadLocal<XMLInputFactory> xmlInputFactory = ThreadLocal.withInitial(() -> {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	});
 
 	protected final ObjectMapper mapper = new ObjectMapper();
+	protected final ConcurrentMap<File, ZipExportSource> archives = new ConcurrentHashMap<>();
+	protected final SourceOpener fileOpener = file -> getSource(file).open(file);
+	protected final ReferenceDataCache referenceData = new ReferenceDataCache();
+
+	public ReferenceDataCache getReferenceDataCache() {
+		return referenceData;
+	}
 
 	public SportSession parseSportSession(File file) throws FileNotFoundException, IOException {
 		return parseSportSession(file, false);
 	}
 
 	public SportSession parseSportSession(File file, boolean full) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
-			SportSession sportSession = parseSportSession(is);
-			if (full) {
-				File elevationDataFile = new File(new File(file.getParentFile(), ELEVATION_DATA_DIR), file.getName());
-				if (elevationDataFile.exists()) {
-					sportSession.setElevationData(parseElevationData(elevationDataFile));
-				}
-				// read GPS data from JSON file
-				File gpsDataFileJSON = new File(new File(file.getParentFile(), GPS_DATA_DIR), file.getName());
-				if (gpsDataFileJSON.exists()) {
-					sportSession.setGpsData(parseGpsData(gpsDataFileJSON));
-				}
-				// read GPS data from GPX file (the runtastic export contains GPS data as GPX files, starting from April-2020)
-				File gpsDataFileGPX = new File(new File(file.getParentFile(), GPS_DATA_DIR), FilenameUtils.getBaseName(file.getName()) + ".gpx");
-				if (gpsDataFileGPX.exists()) {
-					// Load GPX file
-					try {
-						JAXBContext ctx = JAXBContext.newInstance(GpxType.class);
-						Unmarshaller um = ctx.createUnmarshaller();
-						JAXBElement<GpxType> root = (JAXBElement<GpxType>)um.unmarshal(gpsDataFileGPX);
-						GpxType gpx = root.getValue();
-						sportSession.setGpx(gpx);
-					} catch (JAXBException e) {
-						throw new RuntimeException(e);
-					}
-				}
-				File heartRateDataFile = new File(new File(file.getParentFile(), HEARTRATE_DATA_DIR), file.getName());
-				if (heartRateDataFile.exists()) {
-					sportSession.setHeartRateData(parseHeartRateData(heartRateDataFile));
+		return parseSportSession(file, full, fileOpener);
+	}
+
+	/**
+	 * Read a sport session file and its GPS, heart rate and elevation files into memory, to be parsed later.
+	 * @param file sport session file
+	 * @param full true to also read GPS, heart rate and elevation files
+	 * @return sport session files content
+	 */
+	public RawSportSession readSportSession(File file, boolean full) throws FileNotFoundException, IOException {
+		return new RawSportSession(file, full, getSourceFiles(file, full), getSource(file));
+	}
+
+	public SportSession parseSportSession(RawSportSession raw) throws FileNotFoundException, IOException {
+		SessionParseEvent event = new SessionParseEvent();
+		event.begin();
+		SportSession sportSession = parseSportSession(raw.getFile(), raw.isFull(), raw::open);
+		// Parse sub-data now from memory, then load it again from files if released
+		try {
+			sportSession.getElevationData();
+			sportSession.getGpsTrack();
+			sportSession.getGpxTrack();
+			sportSession.getHeartRateTrack();
+			sportSession.getImages();
+			sportSession.getUser();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			File file = raw.getFile();
+			event.setSession(sportSession);
+			event.sessionSize = raw.getSize(file);
+			event.gpsSize = raw.getSize(getGpsDataJsonFile(file));
+			event.gpxSize = raw.getSize(getGpsDataGpxFile(file));
+			event.heartRateSize = raw.getSize(getHeartRateDataFile(file));
+			event.elevationSize = raw.getSize(getElevationDataFile(file));
+			event.commit();
+		}
+		sportSession.setLoader(new FileSportSessionLoader(this, raw.getFile(), raw.isFull(), fileOpener));
+		return sportSession;
+	}
+
+	/**
+	 * Bind a sport session built from another source than its file (e.g. a cache) to a loader of its sub-data on first access.
+	 * @param session sport session
+	 * @param file sport session file
+	 * @param full true to also load GPS, GPX, heart rate and elevation data when accessed
+	 * @return sport session
+	 */
+	public SportSession attachLoader(SportSession session, File file, boolean full) {
+		session.setLoader(new FileSportSessionLoader(this, file, full, fileOpener));
+		return session;
+	}
+
+	/**
+	 * Get the existing files of a sport session.
+	 * @param file sport session file
+	 * @param full true to include GPS, heart rate and elevation files
+	 * @return sport session file followed by its existing GPS, heart rate and elevation files
+	 */
+	public List<File> getSourceFiles(File file, boolean full) {
+		List<File> files = new ArrayList<>();
+		files.add(file);
+		if (full) {
+			long start = metrics.start();
+			ExportSource source = getSource(file);
+			for (File sourceFile : Arrays.asList(getElevationDataFile(file), getGpsDataJsonFile(file), getGpsDataGpxFile(file), getHeartRateDataFile(file))) {
+				if (source.exists(sourceFile)) {
+					files.add(sourceFile);
 				}
 			}
+			metrics.record(Stage.SIDECAR_DISCOVERY, start);
+		}
+		return files;
+	}
 
-			// read photo session data (\Photos\Images-meta-data\Sport-session-albums)
-			File photoSessionDataFile = new File(new File(file.getParentFile().getParentFile(), PHOTOS_SPORT_SESSION_ALBUMS_DIR), file.getName());
-			if (photoSessionDataFile.exists()) {
-				sportSession.setSessionAlbum(parseSportSessionAlbumsData(photoSessionDataFile));
-				// read photo meta data (images mate data; \Photos\Images-meta-data)
-				List<ImagesMetaData> images = new ArrayList<>();
-				for (String photo : sportSession.getSessionAlbum().getPhotosIds()) {
-					File photoMetaDataFile = new File(new File(file.getParentFile().getParentFile(), PHOTOS_META_DATA_DIR), photo + ".json");
-					if (photoMetaDataFile.exists()) {
-						images.add(parseImagesMetaData(photoMetaDataFile));
-					}
+	protected static File getElevationDataFile(File file) {
+		return new File(new File(file.getParentFile(), ELEVATION_DATA_DIR), file.getName());
+	}
+
+	protected static File getGpsDataJsonFile(File file) {
+		return new File(new File(file.getParentFile(), GPS_DATA_DIR), file.getName());
+	}
+
+	protected static File getGpsDataGpxFile(File file) {
+		return new File(new File(file.getParentFile(), GPS_DATA_DIR), FilenameUtils.getBaseName(file.getName()) + ".gpx");
+	}
+
+	protected static File getHeartRateDataFile(File file) {
+		return new File(new File(file.getParentFile(), HEARTRATE_DATA_DIR), file.getName());
+	}
+
+	/**
+	 * Open an export archive, to read its files in place. The archive is then the export root, e.g. files of an
+	 * {@code export.zip} archive are read as {@code export.zip/Sport-sessions/<id>.json}.
+	 * @param archive export archive
+	 * @return export root
+	 */
+	public File openArchive(File archive) throws IOException {
+		File root = archive.getAbsoluteFile();
+		if (!archives.containsKey(root)) {
+			ZipExportSource source = new ZipExportSource(root);
+			if (archives.putIfAbsent(root, source) != null) {
+				source.close();
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Close the export archives opened so far.
+	 */
+	public void closeArchives() throws IOException {
+		for (File root : archives.keySet()) {
+			ZipExportSource source = archives.remove(root);
+			if (source != null) {
+				referenceData.invalidate(root);
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * Get the source of a file of an export: the archive containing it if opened, or the file system.
+	 * @param file export file
+	 * @return export source
+	 */
+	public ExportSource getSource(File file) {
+		if (!archives.isEmpty()) {
+			for (File f = file.getAbsoluteFile(); f != null; f = f.getParentFile()) {
+				ExportSource source = archives.get(f);
+				if (source != null) {
+					return source;
 				}
-				Collections.sort(images);
-				sportSession.setImages(images);
 			}
-			// read and add user
-			sportSession.setUser(parseUser(new File(new File(file.getParentFile().getParentFile(), USER_DIR), "user.json")));
-			return sportSession;
 		}
+		return ExportSource.FILE_SYSTEM;
+	}
+
+	@FunctionalInterface
+	protected interface SourceOpener {
+		/**
+		 * @return stream of the file content, or null if it does not exist
+		 */
+		InputStream open(File file) throws IOException;
+	}
+
+	/**
+	 * Parse a sport session file, binding the session to a loader of its sub-data on first access.
+	 * @param file sport session file
+	 * @param full true to also load GPS, GPX, heart rate and elevation data when accessed
+	 * @param opener opener of the sport session file and sub-data files
+	 * @return sport session
+	 */
+	protected SportSession parseSportSession(File file, boolean full, SourceOpener opener) throws FileNotFoundException, IOException {
+		SportSession sportSession;
+		try (InputStream is = opener.open(file)) {
+			if (is == null) {
+				throw new FileNotFoundException("Sport session file '" + file + "' not found");
+			}
+			sportSession = parseSportSession(is);
+		}
+		sportSession.setLoader(new FileSportSessionLoader(this, file, full, opener));
+		return sportSession;
 	}
 
 	public SportSession parseSportSession(InputStream is) throws FileNotFoundException, IOException {
-		return mapper.readValue(is, SportSession.class);
+		long start = metrics.start();
+		try {
+			return mapper.readValue(is, SportSession.class);
+		} finally {
+			metrics.record(Stage.JSON_PARSE, start);
+			metrics.addSessions(1);
+		}
 	}
 
 
 	public List<ElevationData> parseElevationData(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseElevationData(is);
 		}
 	}
 
 	public List<ElevationData> parseElevationData(InputStream is) throws FileNotFoundException, IOException {
-		return mapper.readValue(is, new TypeReference<List<ElevationData>>() {});
+		long start = metrics.start();
+		try {
+			return mapper.readValue(is, new TypeReference<List<ElevationData>>() {});
+		} finally {
+			metrics.record(Stage.JSON_PARSE, start);
+		}
 	}
 
 
 	public List<GpsData> parseGpsData(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseGpsData(is);
 		}
 	}
 
 	public List<GpsData> parseGpsData(InputStream is) throws FileNotFoundException, IOException {
-		return mapper.readValue(is, new TypeReference<List<GpsData>>() {});
+		long start = metrics.start();
+		try {
+			return mapper.readValue(is, new TypeReference<List<GpsData>>() {});
+		} finally {
+			metrics.record(Stage.JSON_PARSE, start);
+		}
+	}
+
+
+	public GpsTrack parseGpsTrack(File file) throws FileNotFoundException, IOException {
+		try (InputStream is = openFile(file)) {
+			return parseGpsTrack(is);
+		}
+	}
+
+	public GpsTrack parseGpsTrack(InputStream is) throws FileNotFoundException, IOException {
+		long start = metrics.start();
+		GpsTrack track = new GpsTrack();
+		try (JsonParser jp = mapper.getFactory().createParser(is)) {
+			startArray(jp);
+			while (jp.nextToken() == JsonToken.START_OBJECT) {
+				long timestamp = GpsTrack.NO_TIMESTAMP;
+				double latitude = Double.NaN, longitude = Double.NaN, altitude = Double.NaN;
+				int distance = GpsTrack.NO_DISTANCE;
+				while (jp.nextToken() == JsonToken.FIELD_NAME) {
+					String field = jp.getCurrentName();
+					if (jp.nextToken() == JsonToken.VALUE_NULL) {
+						continue;
+					}
+					switch (field) {
+					case "timestamp":
+						timestamp = parseTimestamp(jp);
+						break;
+					case "latitude":
+						latitude = jp.getValueAsDouble();
+						break;
+					case "longitude":
+						longitude = jp.getValueAsDouble();
+						break;
+					case "altitude":
+						altitude = jp.getValueAsDouble();
+						break;
+					case "distance":
+						distance = jp.getValueAsInt();
+						break;
+					default:
+						jp.skipChildren();
+					}
+				}
+				track.add(timestamp, latitude, longitude, altitude, distance);
+			}
+		}
+		metrics.record(Stage.JSON_PARSE, start);
+		metrics.addPoints(track.size());
+		return track;
+	}
+
+
+	public GpsTrack parseGpxTrack(File file) throws FileNotFoundException, IOException, XMLStreamException {
+		try (InputStream is = openFile(file)) {
+			return parseGpxTrack(is);
+		}
+	}
+
+	/**
+	 * Read the first track of a GPX file (\Sport-sessions\GPS-data\*.gpx) with a streaming parser, keeping the segments,
+	 * position, elevation and time of its points and skipping other elements.
+	 * @param is GPX file content
+	 * @return GPS track, or null if the file has no track
+	 * @throws XMLStreamException if the file is not well-formed
+	 * @throws IllegalArgumentException if a value is not a valid number or {@code xsd:dateTime}
+	 */
+	public GpsTrack parseGpxTrack(InputStream is) throws XMLStreamException {
+		long start = metrics.start();
+		XMLStreamReader reader = xmlInputFactory.get().createXMLStreamReader(is);
+		try {
+			reader.nextTag();
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if ("trk".equals(reader.getLocalName())) {
+					GpsTrack track = parseGpxTrk(reader);
+					metrics.addPoints(track.size());
+					return track;
+				}
+				skipElement(reader);
+			}
+			return null;
+		} finally {
+			reader.close();
+			metrics.record(Stage.GPX_UNMARSHAL, start);
+		}
+	}
+
+	protected GpsTrack parseGpxTrk(XMLStreamReader reader) throws XMLStreamException {
+		GpsTrack track = new GpsTrack();
+		StringBuilder text = new StringBuilder();
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("trkseg".equals(reader.getLocalName())) {
+				track.newSegment();
+				while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+					if ("trkpt".equals(reader.getLocalName())) {
+						parseGpxTrkpt(reader, track, text);
+					} else {
+						skipElement(reader);
+					}
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+		return track;
+	}
+
+	protected void parseGpxTrkpt(XMLStreamReader reader, GpsTrack track, StringBuilder text) throws XMLStreamException {
+		double latitude = parseDecimal(reader.getAttributeValue(null, "lat"));
+		double longitude = parseDecimal(reader.getAttributeValue(null, "lon"));
+		double altitude = Double.NaN;
+		long timestamp = GpsTrack.NO_TIMESTAMP;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+			case "ele":
+				altitude = parseDecimal(readElementText(reader, text));
+				break;
+			case "time":
+				timestamp = TimestampCodec.parseDateTime(readElementText(reader, text).trim());
+				break;
+			default:
+				skipElement(reader);
+			}
+		}
+		track.add(timestamp, latitude, longitude, altitude, GpsTrack.NO_DISTANCE);
+	}
+
+	// Text of the current element, copied from the parser buffer through a reused builder unlike getElementText()
+	protected String readElementText(XMLStreamReader reader, StringBuilder text) throws XMLStreamException {
+		text.setLength(0);
+		int event;
+		while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				throw new XMLStreamException("Unexpected element in text-only element", reader.getLocation());
+			}
+		}
+		return text.toString();
+	}
+
+	// Skip the current element and its children
+	protected void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 1; depth > 0;) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Parse a GPX decimal of up to 15 digits (e.g. elevations) as a single correctly rounded division, other values
+	 * falling back to {@link Double#parseDouble(String)}.
+	 */
+	protected double parseDecimal(String value) {
+		if (value == null) {
+			return Double.NaN;
+		}
+		int length = value.length();
+		int i = 0;
+		boolean negative = length > 0 && value.charAt(0) == '-';
+		if (negative || (length > 0 && value.charAt(0) == '+')) {
+			i++;
+		}
+		long digits = 0;
+		int count = 0, scale = -1;
+		for (; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits = digits * 10 + (c - '0');
+				count++;
+				if (scale >= 0) {
+					scale++;
+				}
+			} else if (c == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				break;
+			}
+		}
+		scale = Math.max(scale, 0);
+		if (i == length && count > 0 && count <= 15 && scale < POWERS_OF_TEN.length) {
+			// Both operands are exact doubles
+			double result = digits / POWERS_OF_TEN[scale];
+			return negative ? -result : result;
+		}
+		return Double.parseDouble(value.trim());
 	}
 
 
 	public List<HeartRateData> parseHeartRateData(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseHeartRateData(is);
 		}
 	}
 
 	public List<HeartRateData> parseHeartRateData(InputStream is) throws FileNotFoundException, IOException {
-		return mapper.readValue(is, new TypeReference<List<HeartRateData>>() {});
+		long start = metrics.start();
+		try {
+			return mapper.readValue(is, new TypeReference<List<HeartRateData>>() {});
+		} finally {
+			metrics.record(Stage.JSON_PARSE, start);
+		}
+	}
+
+
+	public HeartRateTrack parseHeartRateTrack(File file) throws FileNotFoundException, IOException {
+		try (InputStream is = openFile(file)) {
+			return parseHeartRateTrack(is);
+		}
+	}
+
+	public HeartRateTrack parseHeartRateTrack(InputStream is) throws FileNotFoundException, IOException {
+		long start = metrics.start();
+		HeartRateTrack track = new HeartRateTrack();
+		try (JsonParser jp = mapper.getFactory().createParser(is)) {
+			startArray(jp);
+			while (jp.nextToken() == JsonToken.START_OBJECT) {
+				long timestamp = HeartRateTrack.NO_TIMESTAMP;
+				int heartRate = HeartRateTrack.NO_VALUE, distance = HeartRateTrack.NO_VALUE;
+				while (jp.nextToken() == JsonToken.FIELD_NAME) {
+					String field = jp.getCurrentName();
+					if (jp.nextToken() == JsonToken.VALUE_NULL) {
+						continue;
+					}
+					switch (field) {
+					case "timestamp":
+						timestamp = parseTimestamp(jp);
+						break;
+					case "heart_rate":
+						heartRate = jp.getValueAsInt();
+						break;
+					case "distance":
+						distance = jp.getValueAsInt();
+						break;
+					default:
+						jp.skipChildren();
+					}
+				}
+				track.add(timestamp, heartRate, distance);
+			}
+		}
+		metrics.record(Stage.JSON_PARSE, start);
+		return track;
 	}
 
 
 	public SportSessionAlbums parseSportSessionAlbumsData(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseSportSessionAlbumsData(is);
 		}
 	}
@@ -156,7 +555,7 @@ public class SportSessionParser {
 
 
 	public ImagesMetaData parseImagesMetaData(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseImagesMetaData(is);
 		}
 	}
@@ -167,7 +566,7 @@ public class SportSessionParser {
 
 
 	public Shoe parseShoe(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseShoe(is);
 		}
 	}
@@ -178,7 +577,7 @@ public class SportSessionParser {
 
 
 	public User parseUser(File file) throws FileNotFoundException, IOException {
-		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+		try (InputStream is = openFile(file)) {
 			return parseUser(is);
 		}
 	}
@@ -186,4 +585,83 @@ public class SportSessionParser {
 	public User parseUser(InputStream is) throws FileNotFoundException, IOException {
 		return mapper.readValue(is, new TypeReference<User>() {});
 	}
+
+
+	/**
+	 * Get the user of an export, parsed once and shared by all sessions.
+	 * @param root export root directory
+	 * @return user, or null if the export has no user file
+	 */
+	public User getUser(File root) throws FileNotFoundException, IOException {
+		File file = new File(new File(root, USER_DIR), "user.json");
+		ExportSource source = getSource(file);
+		return source.exists(file) ? referenceData.get(source, root, file, ReferenceDataCache.Type.USER, this::parseUser) : null;
+	}
+
+	/**
+	 * Get the shoes of an export, each one parsed once.
+	 * @param root export root directory
+	 * @return shoes, empty if the export has no shoes directory
+	 */
+	public List<Shoe> getShoes(File root) throws FileNotFoundException, IOException {
+		List<Shoe> shoes = new ArrayList<>();
+		File dir = new File(root, SHOES_DIR);
+		ExportSource source = getSource(dir);
+		File[] files = source.listFiles(dir, ".json");
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				shoes.add(referenceData.get(source, root, file, ReferenceDataCache.Type.SHOE, this::parseShoe));
+			}
+		}
+		return shoes;
+	}
+
+	/**
+	 * Get the photo album of a sport session, parsed once.
+	 * @param root export root directory
+	 * @param id sport session id
+	 * @return sport session album, or null if the session has no photo
+	 */
+	public SportSessionAlbums getSportSessionAlbum(File root, String id) throws FileNotFoundException, IOException {
+		File file = new File(new File(root, PHOTOS_SPORT_SESSION_ALBUMS_DIR), id + ".json");
+		ExportSource source = getSource(file);
+		return source.exists(file) ? referenceData.get(source, root, file, ReferenceDataCache.Type.ALBUM, this::parseSportSessionAlbumsData) : null;
+	}
+
+	/**
+	 * Get the meta data of a photo, parsed once.
+	 * @param root export root directory
+	 * @param photoId photo id
+	 * @return images meta data, or null if not found
+	 */
+	public ImagesMetaData getImagesMetaData(File root, String photoId) throws FileNotFoundException, IOException {
+		File file = new File(new File(root, PHOTOS_META_DATA_DIR), photoId + ".json");
+		ExportSource source = getSource(file);
+		return source.exists(file) ? referenceData.get(source, root, file, ReferenceDataCache.Type.IMAGE, this::parseImagesMetaData) : null;
+	}
+
+
+	protected InputStream openFile(File file) throws IOException {
+		InputStream is = getSource(file).open(file);
+		if (is == null) {
+			throw new FileNotFoundException("File '" + file + "' not found");
+		}
+		return is;
+	}
+
+	protected void startArray(JsonParser jp) throws IOException {
+		if (jp.nextToken() != JsonToken.START_ARRAY) {
+			throw new JsonParseException(jp, "Expected a JSON array");
+		}
+	}
+
+	protected long parseTimestamp(String value) {
+		return TimestampCodec.parse(value);
+	}
+
+	// Parse the current string token straight from the parser text buffer
+	protected long parseTimestamp(JsonParser jp) throws IOException {
+		return TimestampCodec.parse(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+	}
 }
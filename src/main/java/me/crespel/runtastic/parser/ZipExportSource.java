@@ -0,0 +1,184 @@
+package me.crespel.runtastic.parser;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Source of the files of an export kept in a ZIP archive.
+ * This class indexes the entries of the archive once, then reads them in place with random access. The archive is the
+ * export root: entries are addressed as {@code export.zip/Sport-sessions/<id>.json}, even when the archive wraps the
+ * export in a top-level directory. Entries may be read by several threads at once, each one decompressing its own entries.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class ZipExportSource implements ExportSource, Closeable {
+
+	private static final String SPORT_SESSIONS_DIR = "Sport-sessions/";
+
+	private final File archive;
+	private final ZipFile zip;
+	private final Map<String, ZipEntry> entries = new HashMap<>();
+	private final Map<String, List<String>> directories = new HashMap<>();
+
+	public ZipExportSource(File archive) throws IOException {
+		this.archive = archive.getAbsoluteFile();
+		this.zip = new ZipFile(this.archive);
+		String root = getRoot(zip);
+		directories.put("", new ArrayList<>());
+		Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+		while (zipEntries.hasMoreElements()) {
+			ZipEntry entry = zipEntries.nextElement();
+			if (!entry.isDirectory() && entry.getName().startsWith(root)) {
+				String path = entry.getName().substring(root.length());
+				entries.put(path, entry);
+				addToDirectory(path);
+			}
+		}
+	}
+
+	/**
+	 * @param file export path
+	 * @return true if the path is an export archive
+	 */
+	public static boolean isArchive(File file) {
+		return file.getName().toLowerCase(Locale.ROOT).endsWith(".zip") && file.isFile();
+	}
+
+	public File getArchive() {
+		return archive;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public boolean exists(File file) {
+		String path = getPath(file);
+		return path != null && (entries.containsKey(path) || directories.containsKey(path));
+	}
+
+	@Override
+	public boolean isDirectory(File file) {
+		String path = getPath(file);
+		return path != null && directories.containsKey(path);
+	}
+
+	@Override
+	public long length(File file) {
+		ZipEntry entry = getEntry(file);
+		return entry != null ? Math.max(entry.getSize(), 0) : 0;
+	}
+
+	@Override
+	public long lastModified(File file) {
+		ZipEntry entry = getEntry(file);
+		if (entry != null) {
+			return entry.getTime();
+		}
+		// Directories change along with the archive
+		return isDirectory(file) ? archive.lastModified() : 0;
+	}
+
+	@Override
+	public File[] listFiles(File dir, String suffix) {
+		String path = getPath(dir);
+		List<String> names = path != null ? directories.get(path) : null;
+		if (names == null) {
+			return null;
+		}
+		List<File> files = new ArrayList<>(names.size());
+		for (String name : names) {
+			if (name.endsWith(suffix) && entries.containsKey(path.isEmpty() ? name : path + "/" + name)) {
+				files.add(new File(dir, name));
+			}
+		}
+		return files.toArray(new File[0]);
+	}
+
+	@Override
+	public InputStream open(File file) throws IOException {
+		ZipEntry entry = getEntry(file);
+		return entry != null ? new BufferedInputStream(zip.getInputStream(entry)) : null;
+	}
+
+	@Override
+	public byte[] read(File file) throws IOException {
+		ZipEntry entry = getEntry(file);
+		if (entry == null) {
+			throw new FileNotFoundException("File '" + file + "' not found in archive '" + archive + "'");
+		}
+		try (InputStream is = zip.getInputStream(entry)) {
+			long size = entry.getSize();
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				return IOUtils.toByteArray(is);
+			}
+			// Size is known from the central directory: decompress straight into the result
+			byte[] content = new byte[(int) size];
+			IOUtils.readFully(is, content);
+			return content;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		zip.close();
+	}
+
+	// Path of the export root within the archive: the directory containing the sport sessions directory
+	private static String getRoot(ZipFile zip) {
+		Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+		while (zipEntries.hasMoreElements()) {
+			String name = zipEntries.nextElement().getName();
+			int index = name.indexOf(SPORT_SESSIONS_DIR);
+			if (index == 0 || (index > 0 && name.charAt(index - 1) == '/')) {
+				return name.substring(0, index);
+			}
+		}
+		return "";
+	}
+
+	private void addToDirectory(String path) {
+		int separator = path.lastIndexOf('/');
+		String dir = separator >= 0 ? path.substring(0, separator) : "";
+		List<String> names = directories.get(dir);
+		if (names == null) {
+			names = new ArrayList<>();
+			directories.put(dir, names);
+			addToDirectory(dir);
+		}
+		names.add(path.substring(separator + 1));
+	}
+
+	private ZipEntry getEntry(File file) {
+		String path = getPath(file);
+		return path != null ? entries.get(path) : null;
+	}
+
+	// Path of a file within the export root, or null if outside the archive
+	private String getPath(File file) {
+		String path = file.getAbsolutePath();
+		String archivePath = archive.getPath();
+		if (path.equals(archivePath)) {
+			return "";
+		}
+		if (!path.startsWith(archivePath) || path.charAt(archivePath.length()) != File.separatorChar) {
+			return null;
+		}
+		return path.substring(archivePath.length() + 1).replace(File.separatorChar, '/');
+	}
+
+}
@@ -0,0 +1,365 @@
+package me.crespel.runtastic.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.Data;
+import me.crespel.runtastic.converter.ExportConverter;
+import me.crespel.runtastic.converter.ExportResult;
+import me.crespel.runtastic.model.SessionSummary;
+import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.model.TimestampCodec;
+
+/**
+ * Export conversion server.
+ * This class serves the sport sessions of a fixed set of exports over HTTP, on the loopback interface only, so that
+ * clients converting single sessions do not pay the startup of a JVM and the initialization of parsers and mappers on
+ * each call: the converter, its reference data and archives stay open between requests. Endpoints are:
+ * <ul>
+ * <li>GET /exports: name and path of each export</li>
+ * <li>GET /exports/{export}/sessions: sessions of an export, read from its session cache</li>
+ * <li>GET /exports/{export}/sessions/{id}.gpx or .tcx: session converted to GPX or TCX, written as it is mapped</li>
+ * <li>GET /sessions/{id}.gpx or .tcx: same, from the first export holding the session</li>
+ * <li>POST /convert: convert one or all sessions of an export to a destination path, given as a JSON object with
+ * 'export', 'id' (all sessions if missing), 'destination', 'format' and 'incremental' properties</li>
+ * </ul>
+ * As web pages may send requests to the loopback interface too, requests must be addressed to 'localhost' or
+ * '127.0.0.1', so that a page of another host name resolved to the loopback address cannot read responses, and POST
+ * requests must have a JSON body, which pages cannot send without the server's consent. Destinations must also be
+ * within an output root directory, relative destinations being resolved against it: without one, nothing is converted.
+ * Errors are returned as a JSON object with an 'error' property, with status 400 for invalid requests, 403 for
+ * forbidden hosts or destinations, 404 for unknown exports or sessions and 415 for bodies which are not JSON.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public class ExportServer implements Closeable {
+
+	private static final Pattern EXPORT_SESSIONS = Pattern.compile("/exports/([^/]+)/sessions/?");
+	private static final Pattern EXPORT_SESSION = Pattern.compile("/exports/([^/]+)/sessions/([A-Za-z0-9-]+)\\.(gpx|tcx)");
+	private static final Pattern SESSION = Pattern.compile("/sessions/([A-Za-z0-9-]+)\\.(gpx|tcx)");
+	private static final Pattern LOCAL_HOST = Pattern.compile("(localhost|127\\.0\\.0\\.1)(:[0-9]+)?", Pattern.CASE_INSENSITIVE);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+			.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+	private final ExportConverter converter;
+	private final boolean cache;
+	private final File outputRoot;
+	private final Map<String, File> exports = new LinkedHashMap<>();
+	// Sessions of an export are listed, and a destination converted to, by one request at a time
+	private final ConcurrentMap<File, Object> locks = new ConcurrentHashMap<>();
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * @param converter converter, whose mapping options apply to all conversions
+	 * @param paths export paths, served under the names given by {@link ExportConverter#getExportNames(List)}
+	 * @param port local port, or 0 for any free port
+	 * @param threads number of requests handled at once
+	 * @param cache true to list sessions from the session cache of each export
+	 * @param outputRoot directory within which sessions may be converted, or null to reject all conversions
+	 */
+	public ExportServer(ExportConverter converter, List<File> paths, int port, int threads, boolean cache, File outputRoot) throws IOException {
+		this.converter = converter;
+		this.cache = cache;
+		this.outputRoot = outputRoot != null ? outputRoot.getCanonicalFile() : null;
+		List<String> names = ExportConverter.getExportNames(paths);
+		for (int i = 0; i < paths.size(); i++) {
+			exports.put(names.get(i), paths.get(i));
+		}
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "server-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * @return local port the server listens to
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public Map<String, File> getExports() {
+		return exports;
+	}
+
+	/**
+	 * @return directory within which sessions may be converted, or null if conversions are rejected
+	 */
+	public File getOutputRoot() {
+		return outputRoot;
+	}
+
+	/**
+	 * Stop the server, waiting for at most a second for requests being handled.
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!checkHost(exchange)) {
+				return;
+			}
+			String path = exchange.getRequestURI().getPath();
+			Matcher matcher;
+			if ("/exports".equals(path) || "/exports/".equals(path)) {
+				if (checkMethod(exchange, "GET")) {
+					sendJson(exchange, 200, listExports());
+				}
+			} else if ((matcher = EXPORT_SESSIONS.matcher(path)).matches()) {
+				if (checkMethod(exchange, "GET")) {
+					sendJson(exchange, 200, listSessions(getExport(matcher.group(1))));
+				}
+			} else if ((matcher = EXPORT_SESSION.matcher(path)).matches()) {
+				if (checkMethod(exchange, "GET")) {
+					File export = getExport(matcher.group(1));
+					sendSession(exchange, converter.getSportSession(export, matcher.group(2)), matcher.group(3));
+				}
+			} else if ((matcher = SESSION.matcher(path)).matches()) {
+				if (checkMethod(exchange, "GET")) {
+					sendSession(exchange, findSession(matcher.group(1)), matcher.group(2));
+				}
+			} else if ("/convert".equals(path)) {
+				if (checkMethod(exchange, "POST") && checkContentType(exchange, "application/json")) {
+					sendJson(exchange, 200, convert(readRequest(exchange)));
+				}
+			} else {
+				throw new FileNotFoundException("Unknown resource '" + path + "'");
+			}
+		} catch (FileNotFoundException e) {
+			sendError(exchange, 404, e.getMessage());
+		} catch (AccessDeniedException e) {
+			sendError(exchange, 403, e.getMessage());
+		} catch (IllegalArgumentException | UnsupportedOperationException | JsonProcessingException e) {
+			sendError(exchange, 400, e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			sendError(exchange, 500, e.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private File getExport(String name) throws FileNotFoundException {
+		File export = exports.get(name);
+		if (export == null) {
+			throw new FileNotFoundException("Export '" + name + "' not found");
+		}
+		return export;
+	}
+
+	private List<Map<String, Object>> listExports() {
+		List<Map<String, Object>> list = new ArrayList<>(exports.size());
+		for (Map.Entry<String, File> export : exports.entrySet()) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("name", export.getKey());
+			map.put("path", export.getValue().getPath());
+			list.add(map);
+		}
+		return list;
+	}
+
+	private List<Map<String, Object>> listSessions(File export) throws IOException {
+		List<SportSession> sessions;
+		synchronized (getLock(export)) {
+			sessions = cache ? converter.listSportSessionSummaries(export, false) : converter.summarizeSportSessions(export);
+		}
+		List<Map<String, Object>> list = new ArrayList<>(sessions.size());
+		for (SportSession session : sessions) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("id", session.getId());
+			map.put("start_time", session.getStartTime() != null ? TimestampCodec.format(session.getStartTime().getTime()) : null);
+			map.put("end_time", session.getEndTime() != null ? TimestampCodec.format(session.getEndTime().getTime()) : null);
+			map.put("sport_type_id", session.getSportTypeId());
+			map.put("distance", session.getDistance());
+			map.put("duration", session.getDuration());
+			map.put("notes", session.getNotes());
+			SessionSummary summary = session.getSummary();
+			map.put("points", summary.getPoints());
+			if (summary.hasPositions()) {
+				Map<String, Object> bounds = new LinkedHashMap<>();
+				bounds.put("min_latitude", summary.getMinLatitude());
+				bounds.put("min_longitude", summary.getMinLongitude());
+				bounds.put("max_latitude", summary.getMaxLatitude());
+				bounds.put("max_longitude", summary.getMaxLongitude());
+				map.put("bounds", bounds);
+			}
+			list.add(map);
+		}
+		return list;
+	}
+
+	private SportSession findSession(String id) throws IOException {
+		for (File export : exports.values()) {
+			try {
+				return converter.getSportSession(export, id);
+			} catch (FileNotFoundException e) {
+				// Not in this export
+			}
+		}
+		throw new FileNotFoundException("Sport session '" + id + "' not found");
+	}
+
+	// The session is parsed before the response starts, so that missing sessions still get a 404
+	private void sendSession(HttpExchange exchange, SportSession session, String format) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "gpx".equals(format) ? "application/gpx+xml" : "application/vnd.garmin.tcx+xml");
+		exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + converter.buildFileName(session, format) + "\"");
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream os = exchange.getResponseBody()) {
+			converter.exportSportSession(session, os, format);
+		}
+	}
+
+	private ConvertRequest readRequest(HttpExchange exchange) throws IOException {
+		try (InputStream is = exchange.getRequestBody()) {
+			ConvertRequest request = MAPPER.readValue(is, ConvertRequest.class);
+			if (request.getExport() == null || request.getDestination() == null) {
+				throw new IllegalArgumentException("Missing 'export' or 'destination' property");
+			}
+			if (request.getFormat() == null) {
+				request.setFormat(ExportConverter.DEFAULT_FORMAT);
+			} else if (!request.getFormat().matches("gpx|tcx")) {
+				throw new IllegalArgumentException("Unsupported export format '" + request.getFormat() + "'");
+			}
+			if (request.getId() != null && !request.getId().matches("[A-Za-z0-9-]+")) {
+				throw new IllegalArgumentException("Invalid sport session id '" + request.getId() + "'");
+			}
+			return request;
+		}
+	}
+
+	private Map<String, Object> convert(ConvertRequest request) throws IOException {
+		File export = getExport(request.getExport());
+		File dest = getDestination(request.getDestination());
+		Map<String, Object> map = new LinkedHashMap<>();
+		synchronized (getLock(dest)) {
+			if (request.getId() != null) {
+				converter.exportSportSession(export, request.getId(), dest, request.getFormat());
+				map.put("total", 1);
+				map.put("converted", 1);
+			} else {
+				long startTime = System.currentTimeMillis();
+				ExportResult result = converter.exportSportSessions(export, dest, request.getFormat(), request.isIncremental());
+				map.put("total", result.getTotal());
+				map.put("converted", result.getConverted());
+				map.put("skipped", result.getSkipped());
+				map.put("deleted", result.getDeleted());
+				map.put("read_bytes", result.getReadBytes());
+				map.put("bytes", result.getBytes());
+				map.put("elapsed", System.currentTimeMillis() - startTime);
+			}
+		}
+		return map;
+	}
+
+	// Destination within the output root, even through links or '..' segments
+	private File getDestination(String path) throws IOException {
+		if (outputRoot == null) {
+			throw new AccessDeniedException(path, null, "No output root to convert sessions to");
+		}
+		File dest = new File(path);
+		dest = (dest.isAbsolute() ? dest : new File(outputRoot, path)).getCanonicalFile();
+		if (!dest.toPath().startsWith(outputRoot.toPath())) {
+			throw new AccessDeniedException(path, null, "Destination outside of the output root");
+		}
+		return dest;
+	}
+
+	private Object getLock(File file) {
+		return locks.computeIfAbsent(file.getAbsoluteFile().toPath().normalize().toFile(), k -> new Object());
+	}
+
+	private boolean checkMethod(HttpExchange exchange, String method) throws IOException {
+		if (method.equals(exchange.getRequestMethod())) {
+			return true;
+		}
+		exchange.getResponseHeaders().set("Allow", method);
+		sendError(exchange, 405, "Method '" + exchange.getRequestMethod() + "' not allowed");
+		return false;
+	}
+
+	// Host names other than the loopback ones are those of other sites resolved to the loopback address (DNS rebinding)
+	private boolean checkHost(HttpExchange exchange) throws IOException {
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if (host != null && LOCAL_HOST.matcher(host.trim()).matches()) {
+			return true;
+		}
+		sendError(exchange, 403, "Host '" + host + "' not allowed");
+		return false;
+	}
+
+	private boolean checkContentType(HttpExchange exchange, String mediaType) throws IOException {
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		if (contentType != null && mediaType.equalsIgnoreCase(contentType.split(";", 2)[0].trim())) {
+			return true;
+		}
+		sendError(exchange, 415, "Content type '" + contentType + "' not supported, expected '" + mediaType + "'");
+		return false;
+	}
+
+	private void sendJson(HttpExchange exchange, int status, Object value) throws IOException {
+		byte[] content = MAPPER.writeValueAsBytes(value);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, content.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(content);
+		}
+	}
+
+	private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		// A failure while a session is written can only cut the response short
+		if (exchange.getResponseCode() < 0) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("error", message);
+			sendJson(exchange, status, map);
+		}
+	}
+
+	@Data
+	static class ConvertRequest {
+		private String export;
+		private String id;
+		private String destination;
+		private String format;
+		private boolean incremental;
+	}
+
+}
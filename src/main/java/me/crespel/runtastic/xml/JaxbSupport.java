@@ -0,0 +1,87 @@
+package me.crespel.runtastic.xml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+/**
+ * JAXB support.
+ * This class holds a shared, lazily built JAXB context per root type, and
+ * thread-confined marshallers, unmarshallers and datatype factories, which
+ * are expensive to create but not thread-safe.
+ * @author Fabien CRESPEL (fabien@crespel.net)
+ */
+public final class JaxbSupport {
+
+	private static final ConcurrentMap<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Map<Class<?>, Marshaller>> marshallers = ThreadLocal.withInitial(HashMap::new);
+	private static final ThreadLocal<Map<Class<?>, Unmarshaller>> unmarshallers = ThreadLocal.withInitial(HashMap::new);
+	private static final ThreadLocal<DatatypeFactory> datatypeFactory = ThreadLocal.withInitial(JaxbSupport::newDatatypeFactory);
+
+	private JaxbSupport() {
+	}
+
+	public static JAXBContext getContext(Class<?> type) {
+		JAXBContext ctx = contexts.get(type);
+		if (ctx == null) {
+			ctx = contexts.computeIfAbsent(type, JaxbSupport::newContext);
+		}
+		return ctx;
+	}
+
+	public static Marshaller getMarshaller(Class<?> type, boolean formatted) {
+		try {
+			Marshaller m = marshallers.get().get(type);
+			if (m == null) {
+				m = getContext(type).createMarshaller();
+				marshallers.get().put(type, m);
+			}
+			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formatted);
+			return m;
+		} catch (JAXBException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static Unmarshaller getUnmarshaller(Class<?> type) {
+		try {
+			Unmarshaller um = unmarshallers.get().get(type);
+			if (um == null) {
+				um = getContext(type).createUnmarshaller();
+				unmarshallers.get().put(type, um);
+			}
+			return um;
+		} catch (JAXBException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static DatatypeFactory getDatatypeFactory() {
+		return datatypeFactory.get();
+	}
+
+	private static JAXBContext newContext(Class<?> type) {
+		try {
+			return JAXBContext.newInstance(type);
+		} catch (JAXBException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static DatatypeFactory newDatatypeFactory() {
+		try {
+			return DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
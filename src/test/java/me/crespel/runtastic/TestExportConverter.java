@@ -3,19 +3,77 @@ package me.crespel.runtastic;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import com.topografix.gpx._1._1.BoundsType;
 import com.topografix.gpx._1._1.GpxType;
 import com.topografix.gpx._1._1.MetadataType;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import me.crespel.runtastic.converter.BatchResult;
 import me.crespel.runtastic.converter.ExportConverter;
+import me.crespel.runtastic.converter.ExportResult;
+import me.crespel.runtastic.converter.ExportWatcher;
+import me.crespel.runtastic.converter.StagedPipeline;
+import me.crespel.runtastic.metrics.ConversionMetrics;
+import me.crespel.runtastic.metrics.SessionMapEvent;
+import me.crespel.runtastic.metrics.SessionParseEvent;
+import me.crespel.runtastic.metrics.SessionWriteEvent;
+import me.crespel.runtastic.metrics.StageMetrics;
+import me.crespel.runtastic.model.GpsData;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.SessionCluster;
+import me.crespel.runtastic.model.SessionSummary;
 import me.crespel.runtastic.model.SportSession;
+import me.crespel.runtastic.parser.ReferenceDataCache;
+import me.crespel.runtastic.server.ExportServer;
 
 /**
  * RuntasticExportConverter tests.
@@ -23,9 +81,16 @@ import me.crespel.runtastic.model.SportSession;
  */
 
 public class TestExportConverter {
+
+    // Id of the SportSession.json resource, and another id given to copies of it
+    private static final String ID1 = "fdd2f131-ef65-4e6c-b27e-50b8ecf465d4";
+    private static final String ID2 = "2def7013-b3ee-4e46-a675-0ee0e068f2bd";
     
 	private final ExportConverter converter = new ExportConverter();
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testCalculateInnerAndOuterBound() throws Exception {
     
@@ -653,6 +718,769 @@ public class TestExportConverter {
     }
 
 
+    @Test
+    public void testIndexedOverlapAndCompoundMatchPairwiseScan() throws Exception {
+        // Synthetic history: repeated routes (overlapping sessions) and routes adjacent to them (compound sessions)
+        int count = 2000;
+        Random random = new Random(42);
+        List<double[]> routes = new ArrayList<>();
+        List<SportSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double[] route;
+            int kind = random.nextInt(20);
+            if (routes.isEmpty() || kind < 5) {
+                // new route: minLat, minLon, height, width
+                route = new double[] { 47.0 + random.nextDouble() * 0.5, 8.0 + random.nextDouble() * 0.5, 0.005 + random.nextDouble() * 0.03, 0.005 + random.nextDouble() * 0.03 };
+                routes.add(route);
+            } else if (kind < 6) {
+                // one-off route starting at the top of an existing one
+                double[] base = routes.get(random.nextInt(routes.size()));
+                route = new double[] { base[0] + base[2] + random.nextDouble() * 0.0004, base[1] + random.nextDouble() * base[3], 0.005 + random.nextDouble() * 0.03, 0.005 + random.nextDouble() * 0.03 };
+            } else {
+                route = routes.get(random.nextInt(routes.size()));
+            }
+            double jitter = (random.nextDouble() - 0.5) * 0.0004;
+            sessions.add(createSportSession(Integer.toString(i), coordinate(route[0] + route[2] + jitter), coordinate(route[1] + route[3] + jitter),
+                                                                 coordinate(route[1] + jitter), coordinate(route[0] + jitter)));
+        }
+
+        // Reference: compare every pair of sessions
+        List<List<String>> expectedOverlap = normalize(pairwise(sessions, converter::isOverlap));
+        List<List<String>> expectedCompound = normalize(pairwise(sessions, (a, b) ->
+            !expectedOverlap.get(Integer.parseInt(a.getId())).contains(b.getId()) && converter.isCompound(a, b)));
+
+        converter.doCompound(sessions);
+
+        assertEquals("Overlap sessions", expectedOverlap, sessions.stream().map(s -> sortedIds(s.getOverlapSessions())).collect(Collectors.toList()));
+        assertEquals("Compound sessions", expectedCompound, sessions.stream().map(s -> sortedIds(s.getCompoundSessions())).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDoOverlapWithLargeCluster() throws Exception {
+        // Same loop run many times: one cluster, without recursion through every session
+        int count = 1000;
+        List<SportSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BigDecimal jitter = new BigDecimal(i % 10).movePointLeft(5);
+            sessions.add(createSportSession(Integer.toString(i), new BigDecimal("47.2").add(jitter), new BigDecimal("8.6").add(jitter),
+                                                                 new BigDecimal("8.5").add(jitter), new BigDecimal("47.1").add(jitter)));
+        }
+
+        List<SessionCluster> clusters = converter.doOverlap(sessions);
+
+        assertEquals("Cluster count", 1, clusters.size());
+        assertEquals("Cluster size", count, clusters.get(0).size());
+        assertTrue("Cluster contains last session", clusters.get(0).contains(sessions.get(count - 1)));
+        assertEquals("Overlap Session-List size", count, sessions.get(count - 1).getOverlapSessions().size());
+        assertEquals("Inner bound", new BigDecimal("47.10009"), sessions.get(0).getInnerBound().getMinlat());
+        assertEquals("Outer bound", new BigDecimal("47.20009"), sessions.get(0).getOuterBound().getMaxlat());
+    }
+
+    @Test
+    public void testDoRoutes() throws Exception {
+        // Same street, the same with a short detour, and a loop around the same bounds
+        List<SportSession> sessions = new ArrayList<>();
+        sessions.add(createRouteSession("street", 47.00, 8.50, 47.02, 8.52));
+        sessions.add(createRouteSession("loop", 47.00, 8.50, 47.00, 8.52, 47.02, 8.52, 47.02, 8.50, 47.00, 8.50));
+        sessions.add(createRouteSession("detour", 47.00, 8.50, 47.01, 8.51, 47.0125, 8.51, 47.01, 8.51, 47.02, 8.52));
+        sessions.add(createRouteSession("none"));
+
+        List<SessionCluster> clusters = converter.doRoutes(sessions);
+
+        assertEquals("Cluster count", 1, clusters.size());
+        assertEquals("Cluster", Arrays.asList("detour", "street"), sortedIds(clusters.get(0).getSessions()));
+        assertEquals("Route sessions", Arrays.asList("detour"), sortedIds(sessions.get(0).getRouteSessions()));
+        assertEquals("Route sessions", Arrays.asList("street"), sortedIds(sessions.get(2).getRouteSessions()));
+        assertEquals("Route sessions of loop", null, sessions.get(1).getRouteSessions());
+        assertEquals("Route sessions without positions", null, sessions.get(3).getRouteSessions());
+    }
+
+    @Test
+    public void testDoRoutesFromSessionCache() throws Exception {
+        String id3 = "9b1e5e36-0000-4e4c-b27e-50b8ecf465d4";
+        File root = createExport(ID1, ID2, id3);
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        copyResource("GpsData.gpx", new File(root, "Sport-sessions/GPS-data/" + ID2 + ".gpx"));
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + id3 + ".json"));
+
+        List<SportSession> sessions = converter.summarizeSportSessions(root);
+        List<SessionCluster> clusters = converter.doRoutes(sessions);
+        assertEquals("Cluster count", 1, clusters.size());
+
+        // Positions kept in the cache, GPX segments included
+        new ExportConverter().listSportSessionSummaries(root, true);
+        List<SportSession> cachedSessions = new ExportConverter().listSportSessionSummaries(root, false);
+        SportSession gpxSession = cachedSessions.stream().filter(s -> ID2.equals(s.getId())).findFirst().get();
+        assertEquals(SessionSummary.SEGMENT_START, gpxSession.getSummary().getPositions()[0]);
+
+        // Routes are fingerprinted from the cache alone
+        FileUtils.deleteDirectory(new File(root, "Sport-sessions/GPS-data"));
+        List<SessionCluster> cachedClusters = converter.doRoutes(cachedSessions);
+        assertEquals("Cluster count", clusters.size(), cachedClusters.size());
+        assertEquals("Cluster", sortedIds(clusters.get(0).getSessions()), sortedIds(cachedClusters.get(0).getSessions()));
+        for (int i = 0; i < sessions.size(); i++) {
+            assertEquals("Route sessions", sortedIds(sessions.get(i).getRouteSessions()), sortedIds(cachedSessions.get(i).getRouteSessions()));
+        }
+    }
+
+    @Test
+    public void testGetSportSessionWithPhoto() throws Exception {
+        File root = folder.getRoot();
+        String sessionId = "2def7013-b3ee-4e46-a675-0ee0e068f2bd";
+        copyResource("SportSession.json", new File(root, "Sport-sessions/" + sessionId + ".json"));
+        File albumsDir = new File(root, "Photos/Images-meta-data/Sport-session-albums");
+        copyResource("SportSessionAlbums.json", new File(albumsDir, sessionId + ".json"));
+        copyResource("ImagesMetaData.json", new File(root, "Photos/Images-meta-data/120721583.json"));
+        new File(root, "Photos/120721583.jpg").createNewFile();
+
+        SportSession session = converter.getSportSessionWithPhoto(root, "120721583");
+        assertEquals("fdd2f131-ef65-4e6c-b27e-50b8ecf465d4", session.getId());
+        assertTrue("Photo index not persisted", new File(root, ".photo-index.properties").isFile());
+
+        // A new converter reads the persisted index instead of scanning albums
+        ExportConverter converter2 = new ExportConverter();
+        converter2.getSportSessionWithPhoto(root, "120721583");
+        // no album is looked up, the album of the session is only loaded when accessed
+        assertEquals(0, converter2.getReferenceDataCache().getLookupCount(ReferenceDataCache.Type.ALBUM));
+
+        // Adding an album changes the directory and rebuilds the index
+        copyResource("SportSessionAlbums.json", new File(albumsDir, "other.json"));
+        albumsDir.setLastModified(albumsDir.lastModified() + 10000);
+        converter2.getSportSessionWithPhoto(root, "120721583");
+        assertEquals(2, converter2.getReferenceDataCache().getLookupCount(ReferenceDataCache.Type.ALBUM));
+    }
+
+    @Test
+    public void testIncrementalExportSportSessions() throws Exception {
+        File root = createExport(ID1, ID2);
+        File dest = folder.newFolder("dest");
+        File session1 = new File(root, "Sport-sessions/" + ID1 + ".json");
+        File session2 = new File(root, "Sport-sessions/" + ID2 + ".json");
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        File heartRate2 = copyResource("HeartRateData.json", new File(root, "Sport-sessions/Heart-rate-data/" + ID2 + ".json"));
+
+        ExportResult result = converter.exportSportSessions(root, dest, "tcx", true);
+        assertEquals(2, result.getConverted());
+        assertEquals(0, result.getSkipped());
+        assertTrue("Conversion manifest not written", new File(dest, ".conversion-manifest.json").isFile());
+        File output1 = findOutput(dest, ID1, "tcx");
+        File output2 = findOutput(dest, ID2, "tcx");
+        assertTrue(output1.isFile());
+        assertTrue(output2.isFile());
+
+        // Unchanged sessions are skipped, even when only touched
+        session1.setLastModified(session1.lastModified() + 10000);
+        result = new ExportConverter().exportSportSessions(root, dest, "tcx", true);
+        assertEquals(0, result.getConverted());
+        assertEquals(2, result.getSkipped());
+
+        // A changed sidecar, format or missing output converts the session again
+        Files.write(heartRate2.toPath(), "[]".getBytes("UTF-8"));
+        result = converter.exportSportSessions(root, dest, "tcx", true);
+        assertEquals(1, result.getConverted());
+        assertEquals(1, result.getSkipped());
+        output1.delete();
+        result = converter.exportSportSessions(root, dest, "tcx", true);
+        assertEquals(1, result.getConverted());
+        assertTrue(output1.isFile());
+        result = converter.exportSportSessions(root, dest, "gpx", true);
+        assertEquals(2, result.getConverted());
+        assertFalse("Previous output not removed", output1.exists());
+        output1 = findOutput(dest, ID1, "gpx");
+        output2 = findOutput(dest, ID2, "gpx");
+
+        // Outputs of deleted sessions are removed
+        session2.delete();
+        result = converter.exportSportSessions(root, dest, "gpx", true);
+        assertEquals(0, result.getConverted());
+        assertEquals(1, result.getSkipped());
+        assertEquals(1, result.getDeleted());
+        assertFalse(output2.exists());
+        assertTrue(output1.isFile());
+    }
+
+    @Test
+    public void testIncrementalExportRecordsSourcesAsRead() throws Exception {
+        File root = createExport(ID1, ID2);
+        File dest = folder.newFolder("dest");
+        File gpsData1 = copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+
+        // Change a source once parsed, before the session is written
+        ExportConverter changingConverter = new ExportConverter() {
+            @Override
+            public String buildFileName(SportSession session, String format) {
+                if (ID1.equals(session.getId())) {
+                    try {
+                        Files.write(gpsData1.toPath(), "[]".getBytes("UTF-8"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return super.buildFileName(session, format);
+            }
+        };
+        ExportResult result = changingConverter.exportSportSessions(root, dest, "tcx", true);
+        assertEquals(2, result.getConverted());
+
+        // The session converted from the previous content is converted again
+        result = converter.exportSportSessions(root, dest, "tcx", true);
+        assertEquals(1, result.getConverted());
+        assertEquals(1, result.getSkipped());
+        result = converter.exportSportSessions(root, dest, "tcx", true);
+        assertEquals(0, result.getConverted());
+        assertEquals(2, result.getSkipped());
+    }
+
+    @Test
+    public void testSessionCache() throws Exception {
+        File root = createExport(ID1, ID2);
+        File gpsData1 = copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        File session2 = new File(root, "Sport-sessions/" + ID2 + ".json");
+        copyResource("HeartRateData.json", new File(root, "Sport-sessions/Heart-rate-data/" + ID2 + ".json"));
+
+        List<SportSession> fullSessions = converter.convertSportSessions(root, "gpx");
+        assertFalse(converter.hasSessionCache(root));
+        List<SportSession> sessions = converter.listSportSessionSummaries(root, false);
+        File cacheFile = new File(root, ".session-cache.bin");
+        assertTrue("Session cache not written", cacheFile.isFile());
+        assertSummaries(fullSessions, sessions);
+        assertSummaries(fullSessions, new ExportConverter().summarizeSportSessions(root));
+
+        // Summary computed while parsing the GPS data
+        List<GpsData> gpsData = converter.getSportSession(root, ID1).getGpsData();
+        SessionSummary summary = sessions.get(1).getSummary();
+        assertEquals(ID1, sessions.get(1).getId());
+        assertEquals(gpsData.size(), summary.getPoints());
+        assertEquals(gpsData.get(0).getTimestamp().getTime(), summary.getFirstTimestamp());
+        assertEquals(gpsData.get(gpsData.size() - 1).getTimestamp().getTime(), summary.getLastTimestamp());
+        assertEquals(0, sessions.get(0).getSummary().getPoints());
+
+        // Unchanged sessions are read from the cache, which is not written again
+        long lastModified = cacheFile.lastModified() - 10000;
+        cacheFile.setLastModified(lastModified);
+        sessions = new ExportConverter().listSportSessionSummaries(root, false);
+        assertSummaries(fullSessions, sessions);
+        assertEquals(lastModified, cacheFile.lastModified());
+        assertTrue(sessions.get(0).hasHeartRateData() || sessions.get(1).hasHeartRateData());
+
+        // Changed and deleted sessions are updated
+        Files.write(gpsData1.toPath(), "[]".getBytes("UTF-8"));
+        session2.delete();
+        sessions = new ExportConverter().listSportSessionSummaries(root, true);
+        assertEquals(1, sessions.size());
+        assertEquals(null, sessions.get(0).getGpx().getMetadata().getBounds().getMinlat());
+        assertSummaries(new ExportConverter().convertSportSessions(root, "gpx"), new ExportConverter().listSportSessionSummaries(root, false));
+    }
+
+    @Test
+    public void testExportArchive() throws Exception {
+        File root = createExport(ID1, ID2);
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        copyResource("HeartRateData.json", new File(root, "Sport-sessions/Heart-rate-data/" + ID2 + ".json"));
+        copyResource("SportSessionAlbums.json", new File(root, "Photos/Images-meta-data/Sport-session-albums/" + ID2 + ".json"));
+        copyResource("ImagesMetaData.json", new File(root, "Photos/Images-meta-data/120721583.json"));
+        new File(root, "Photos/120721583.jpg").createNewFile();
+
+        // Export wrapped in a top-level directory, as found in some archives
+        File archive = new File(folder.getRoot(), "export.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (File file : FileUtils.listFiles(root, null, true)) {
+                zos.putNextEntry(new ZipEntry("runtastic-export/" + FilenameUtils.separatorsToUnix(root.toPath().relativize(file.toPath()).toString())));
+                Files.copy(file.toPath(), zos);
+                zos.closeEntry();
+            }
+        }
+
+        try (ExportConverter archiveConverter = new ExportConverter()) {
+            List<SportSession> sessions = archiveConverter.listSportSessions(archive, true);
+            List<SportSession> expected = converter.listSportSessions(root, true);
+            assertEquals(sortedIds(expected), sortedIds(sessions));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).hasGpsData(), sessions.get(i).hasGpsData());
+                assertEquals(expected.get(i).hasHeartRateData(), sessions.get(i).hasHeartRateData());
+                assertEquals(expected.get(i).getUser(), sessions.get(i).getUser());
+                assertEquals(expected.get(i).getImages(), sessions.get(i).getImages());
+            }
+            assertEquals(converter.getUser(root), archiveConverter.getUser(archive));
+
+            File dest = folder.newFolder("dest");
+            ExportResult result = archiveConverter.exportSportSessions(archive, dest, "tcx", true);
+            assertEquals(2, result.getConverted());
+            assertTrue(findOutput(dest, ID1, "tcx").isFile());
+            assertTrue(findOutput(dest, ID2, "tcx").isFile());
+            result = archiveConverter.exportSportSessions(archive, dest, "tcx", true);
+            assertEquals(2, result.getSkipped());
+
+            assertSummaries(converter.convertSportSessions(root, "gpx"), archiveConverter.listSportSessionSummaries(archive, false));
+            assertTrue("Session cache not written next to the archive", new File(folder.getRoot(), "export.zip.session-cache.bin").isFile());
+            assertEquals(ID2, archiveConverter.getSportSessionWithPhoto(archive, "120721583").getId());
+            assertTrue("Photo index not written next to the archive", new File(folder.getRoot(), "export.zip.photo-index.properties").isFile());
+        }
+    }
+
+    @Test
+    public void testExportSportSessionsToArchive() throws Exception {
+        File root = createExport(ID1, ID2);
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        copyResource("HeartRateData.json", new File(root, "Sport-sessions/Heart-rate-data/" + ID2 + ".json"));
+
+        File dest = folder.newFolder("dest");
+        converter.exportSportSessions(root, dest, "gpx", false);
+        File archive = new File(folder.getRoot(), "export-gpx.zip");
+        ExportResult result = converter.exportSportSessionsToArchive(root, archive, "gpx");
+        assertEquals(2, result.getConverted());
+        assertFalse("Temporary archive not removed", new File(folder.getRoot(), "export-gpx.zip.tmp").exists());
+
+        // Entries match the files written to a directory
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(2, zip.size());
+            for (File output : new File[] { findOutput(dest, ID1, "gpx"), findOutput(dest, ID2, "gpx") }) {
+                ZipEntry entry = zip.getEntry(output.getName());
+                assertTrue("Missing entry " + output.getName(), entry != null);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    assertTrue(Arrays.equals(Files.readAllBytes(output.toPath()), IOUtils.toByteArray(is)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBatchExportSportSessions() throws Exception {
+        File root1 = createExport(new File(folder.newFolder("alice"), "export"), ID1);
+        copyResource("GpsData.json", new File(root1, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        File root2 = createExport(new File(folder.newFolder("bob"), "export"), ID2);
+        copyResource("HeartRateData.json", new File(root2, "Sport-sessions/Heart-rate-data/" + ID2 + ".json"));
+        File missing = new File(folder.getRoot(), "missing");
+
+        File dest = folder.newFolder("dest");
+        BatchResult result = converter.exportSportSessions(Arrays.asList(root1, root2, missing), dest, "gpx", true);
+        assertEquals(3, result.getExports().size());
+        assertEquals(1, result.getFailed());
+        assertEquals(2, result.getSessions());
+
+        // Exports sharing a name are written to directories named after their parent
+        BatchResult.Export export1 = result.getExports().get(0);
+        assertEquals(new File(dest, "alice-export"), export1.getDest());
+        assertEquals(null, export1.getFailure());
+        assertEquals(1, export1.getResult().getConverted());
+        assertTrue(export1.getResult().getReadBytes() > 0);
+        assertTrue(findOutput(export1.getDest(), ID1, "gpx").isFile());
+        BatchResult.Export export2 = result.getExports().get(1);
+        assertEquals(new File(dest, "bob-export"), export2.getDest());
+        assertTrue(findOutput(export2.getDest(), ID2, "gpx").isFile());
+
+        // A missing export fails alone
+        BatchResult.Export export3 = result.getExports().get(2);
+        assertEquals(new File(dest, "missing"), export3.getDest());
+        assertTrue(export3.getFailure() != null);
+
+        result = new ExportConverter().exportSportSessions(Arrays.asList(root1, root2), dest, "gpx", true);
+        assertEquals(0, result.getFailed());
+        assertEquals(1, result.getExports().get(0).getResult().getSkipped());
+        assertEquals(1, result.getExports().get(1).getResult().getSkipped());
+    }
+
+    @Test
+    public void testExportServer() throws Exception {
+        File root = createExport(ID1);
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        File expected = new File(folder.getRoot(), "expected.gpx");
+        converter.exportSportSession(root, ID1, expected, "gpx");
+
+        File outputRoot = folder.newFolder("output");
+        try (ExportServer server = new ExportServer(converter, Collections.singletonList(root), 0, 2, true, outputRoot)) {
+            server.start();
+            String url = "http://localhost:" + server.getPort();
+            assertTrue(request(url + "/exports", "GET", null, 200).contains("\"name\":\"export\""));
+            assertTrue(request(url + "/exports/export/sessions", "GET", null, 200).contains("\"id\":\"" + ID1 + "\""));
+
+            // Sessions are converted as by the command line
+            assertEquals(new String(Files.readAllBytes(expected.toPath()), "UTF-8"), request(url + "/sessions/" + ID1 + ".gpx", "GET", null, 200));
+            assertTrue(request(url + "/exports/export/sessions/" + ID1 + ".tcx", "GET", null, 200).contains("<TrainingCenterDatabase"));
+
+            File dest = new File(outputRoot, "dest");
+            String body = "{\"export\":\"export\",\"destination\":\"" + dest.getPath().replace("\\", "\\\\") + "\",\"format\":\"gpx\"}";
+            assertTrue(request(url + "/convert", "POST", body, 200).contains("\"converted\":1"));
+            assertTrue(findOutput(dest, ID1, "gpx").isFile());
+
+            // Relative destinations are resolved against the output root, which destinations cannot leave
+            request(url + "/convert", "POST", "{\"export\":\"export\",\"destination\":\"relative\"}", 200);
+            assertTrue(findOutput(new File(outputRoot, "relative"), ID1, "tcx").isFile());
+            File outside = new File(folder.getRoot(), "outside");
+            body = "{\"export\":\"export\",\"destination\":\"" + outside.getPath().replace("\\", "\\\\") + "\"}";
+            request(url + "/convert", "POST", body, 403);
+            request(url + "/convert", "POST", "{\"export\":\"export\",\"destination\":\"../outside\"}", 403);
+            assertFalse(outside.exists());
+
+            // Bodies sent by web pages without the server's consent and other host names are rejected
+            request(url + "/convert", "POST", "text/plain", "{\"export\":\"export\",\"destination\":\"relative\"}", 415);
+            request(url + "/convert", "POST", "application/x-www-form-urlencoded", "{\"export\":\"export\",\"destination\":\"relative\"}", 415);
+            assertTrue(request(url + "/convert", "POST", "application/json; charset=UTF-8", "{\"export\":\"export\",\"destination\":\"relative\"}", 200).contains("\"converted\":1"));
+            assertTrue(requestWithHost(server.getPort(), "127.0.0.1:" + server.getPort()).startsWith("HTTP/1.1 200"));
+            assertTrue(requestWithHost(server.getPort(), "rebound.example.com:" + server.getPort()).startsWith("HTTP/1.1 403"));
+            assertTrue(requestWithHost(server.getPort(), "localhost.example.com").startsWith("HTTP/1.1 403"));
+
+            request(url + "/sessions/unknown.gpx", "GET", null, 404);
+            request(url + "/exports/unknown/sessions", "GET", null, 404);
+            request(url + "/exports", "POST", "", 405);
+            request(url + "/convert", "POST", "{\"export\":\"export\"}", 400);
+        }
+
+        // Nothing is converted without an output root
+        try (ExportServer server = new ExportServer(converter, Collections.singletonList(root), 0, 2, true, null)) {
+            server.start();
+            request("http://localhost:" + server.getPort() + "/convert", "POST", "{\"export\":\"export\",\"destination\":\"relative\"}", 403);
+        }
+    }
+
+    @Test
+    public void testExportWatcher() throws Exception {
+        File root = createExport(ID1);
+        File dest = folder.newFolder("dest");
+        new File(root, "Sport-sessions/Heart-rate-data").mkdirs();
+
+        BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        ExportWatcher watcher = new ExportWatcher(converter, root, dest, "gpx", 100);
+        Thread thread = new Thread(() -> watcher.run(new ExportWatcher.Listener() {
+            @Override
+            public void converted(Set<String> ids, ExportResult result, long latency) {
+                events.add(result);
+            }
+
+            @Override
+            public void failed(Set<String> ids, Exception failure) {
+                events.add(failure);
+            }
+        }));
+        thread.start();
+        try {
+            // Sessions changed before watching are converted first
+            ExportResult result = (ExportResult) events.poll(10, TimeUnit.SECONDS);
+            assertEquals(1, result.getConverted());
+
+            // A new session and its sidecar are converted together
+            File session2 = copySession(ID2, new File(folder.getRoot(), ID2 + ".json"));
+            copyResource("HeartRateData.json", new File(root, "Sport-sessions/Heart-rate-data/" + ID2 + ".json"));
+            Files.move(session2.toPath(), new File(root, "Sport-sessions/" + ID2 + ".json").toPath());
+            result = (ExportResult) events.poll(10, TimeUnit.SECONDS);
+            assertEquals(1, result.getTotal());
+            assertEquals(1, result.getConverted());
+            File output2 = findOutput(dest, ID2, "gpx");
+            assertTrue(output2.isFile());
+
+            // Deleted sessions have their output removed
+            new File(root, "Sport-sessions/" + ID2 + ".json").delete();
+            result = (ExportResult) events.poll(10, TimeUnit.SECONDS);
+            assertEquals(1, result.getDeleted());
+            assertFalse(output2.exists());
+        } finally {
+            watcher.close();
+            thread.join(10000);
+        }
+        assertFalse("Watcher not stopped", thread.isAlive());
+    }
+
+    @Test
+    public void testSimplifyGpxTrack() throws Exception {
+        File root = folder.newFolder("export");
+        File dest = folder.newFolder("dest");
+        String id = "fdd2f131-ef65-4e6c-b27e-50b8ecf465d4";
+        copyResource("user.json", new File(root, "User/user.json"));
+        copyResource("SportSession.json", new File(root, "Sport-sessions/" + id + ".json"));
+        copyResource("GpsData.gpx", new File(root, "Sport-sessions/GPS-data/" + id + ".gpx"));
+
+        // Samples less than 5 s apart are dropped within each of the 2 segments of the track, their last sample being kept
+        converter.getMappingOptions().setSampleInterval(5);
+        ExportResult result = converter.exportSportSessions(root, dest, "gpx", false);
+        assertEquals(5, result.getPoints());
+        assertEquals(4, result.getKeptPoints());
+        String gpx = FileUtils.readFileToString(findOutput(dest, id, "gpx"), "UTF-8");
+        assertEquals(4, gpx.split("<trkpt ", -1).length - 1);
+        assertEquals(2, gpx.split("<trkseg>", -1).length - 1);
+    }
+
+    @Test
+    public void testConversionMetrics() throws Exception {
+        File root = createExport(ID1, ID2);
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        copyResource("GpsData.gpx", new File(root, "Sport-sessions/GPS-data/" + ID2 + ".gpx"));
+
+        ConversionMetrics metrics = ConversionMetrics.get();
+        metrics.reset();
+        ExportResult result = converter.exportSportSessions(root, folder.newFolder("dest"), "gpx", false);
+        assertEquals(2, metrics.getSessions());
+        assertEquals(result.getReadBytes(), metrics.getBytesIn());
+        assertEquals(result.getBytes(), metrics.getBytesOut());
+        assertTrue(metrics.getPoints() > 0);
+        assertEquals(2, metrics.getStage(ConversionMetrics.Stage.SIDECAR_DISCOVERY).getCount());
+        assertEquals(3, metrics.getStage(ConversionMetrics.Stage.JSON_PARSE).getCount());
+        assertEquals(1, metrics.getStage(ConversionMetrics.Stage.GPX_UNMARSHAL).getCount());
+        assertEquals(2, metrics.getStage(ConversionMetrics.Stage.MAPPING).getCount());
+        assertEquals(2, metrics.getStage(ConversionMetrics.Stage.MARSHALLING).getCount());
+        assertEquals(2, metrics.getStage(ConversionMetrics.Stage.WRITE).getCount());
+        for (ConversionMetrics.Stage stage : ConversionMetrics.Stage.values()) {
+            StageMetrics stageMetrics = metrics.getStage(stage);
+            assertTrue(stage + " percentiles", stageMetrics.getP50Micros() <= stageMetrics.getP99Micros() && stageMetrics.getP99Micros() <= stageMetrics.getMaxMicros());
+        }
+
+        // Published as MBeans
+        metrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(2L, server.getAttribute(new ObjectName(ConversionMetrics.DOMAIN + ":type=ConversionMetrics"), "Sessions"));
+        assertEquals(2L, server.getAttribute(new ObjectName(ConversionMetrics.DOMAIN + ":type=ConversionMetrics,stage=write"), "Count"));
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        metrics.writeReport(report);
+        assertTrue(report.toString("UTF-8").contains("\"gpx-unmarshal\""));
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        File root = createExport(ID1, ID2);
+        copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/" + ID1 + ".json"));
+        copyResource("GpsData.gpx", new File(root, "Sport-sessions/GPS-data/" + ID2 + ".gpx"));
+
+        File recordingFile = new File(folder.getRoot(), "conversion.jfr");
+        ExportResult result;
+        try (Recording recording = new Recording()) {
+            recording.enable(SessionParseEvent.NAME);
+            recording.enable(SessionMapEvent.NAME);
+            recording.enable(SessionWriteEvent.NAME);
+            recording.start();
+            result = converter.exportSportSessions(root, folder.newFolder("dest"), "gpx", false);
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+        }
+
+        Map<String, RecordedEvent> parseEvents = new HashMap<>(), mapEvents = new HashMap<>(), writeEvents = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+            String name = event.getEventType().getName();
+            if (SessionParseEvent.NAME.equals(name)) {
+                parseEvents.put(event.getString("sessionId"), event);
+            } else if (SessionMapEvent.NAME.equals(name)) {
+                mapEvents.put(event.getString("sessionId"), event);
+            } else if (SessionWriteEvent.NAME.equals(name)) {
+                writeEvents.put(event.getString("sessionId"), event);
+            }
+        }
+        assertEquals(new HashSet<>(Arrays.asList(ID1, ID2)), parseEvents.keySet());
+        assertEquals(parseEvents.keySet(), mapEvents.keySet());
+        assertEquals(parseEvents.keySet(), writeEvents.keySet());
+        assertTrue(parseEvents.get(ID1).getLong("gpsSize") > 0);
+        assertEquals(0, parseEvents.get(ID1).getLong("gpxSize"));
+        assertTrue(parseEvents.get(ID2).getLong("gpxSize") > 0);
+        assertTrue(parseEvents.get(ID2).getInt("points") > 0);
+        assertEquals("gpx", mapEvents.get(ID1).getString("format"));
+        assertTrue(mapEvents.get(ID1).getDuration().toNanos() >= mapEvents.get(ID1).getLong("mappingTime"));
+        assertEquals(result.getBytes(), writeEvents.get(ID1).getLong("bytes") + writeEvents.get(ID2).getLong("bytes"));
+    }
+
+    @Test
+    public void testStagedPipeline() throws Exception {
+        List<Integer> source = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            source.add(i);
+        }
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<Integer> result = StagedPipeline.from(source, 4)
+            .stage("in", 2, i -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                return i;
+            })
+            .stage("odd", 3, i -> {
+                if (i % 2 == 0) {
+                    inFlight.decrementAndGet();
+                    return null;
+                }
+                return i;
+            })
+            .stage("out", 2, i -> {
+                inFlight.decrementAndGet();
+                return (long) i * 2;
+            })
+            .stage("sum", 1, l -> l.intValue() / 2)
+            .collect();
+        Collections.sort(result);
+        assertEquals(5000, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(2 * i + 1, result.get(i).intValue());
+        }
+        // Bounded queues limit the items between the first and third stages to their threads and queues
+        assertTrue("Too many items in flight: " + maxInFlight, maxInFlight.get() <= 2 + 4 + 3 + 4 + 2);
+
+        // The first failure stops the pipeline and is rethrown
+        try {
+            StagedPipeline.from(source, 4)
+                .stage("fail", 2, i -> {
+                    if (i == 100) {
+                        throw new IOException("failed " + i);
+                    }
+                    return i;
+                })
+                .run(i -> {});
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("failed 100", e.getMessage());
+        }
+    }
+
+    private void assertSummaries(List<SportSession> expected, List<SportSession> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            SportSession session = expected.get(i);
+            SportSession summary = actual.get(i);
+            assertEquals(session.getId(), summary.getId());
+            assertEquals(session.getStartTime(), summary.getStartTime());
+            assertEquals(session.getEndTime(), summary.getEndTime());
+            assertEquals(session.getDistance(), summary.getDistance());
+            assertEquals(session.getDuration(), summary.getDuration());
+            assertEquals(session.getSportTypeId(), summary.getSportTypeId());
+            assertEquals(session.getNotes(), summary.getNotes());
+            assertEquals(session.getUserEquipmentIds(), summary.getUserEquipmentIds());
+            assertEquals(session.getGpx() != null, summary.getGpx() != null);
+            assertEquals(session.getSummary().getPoints(), summary.getSummary().getPoints());
+            assertEquals(session.getSummary().getFirstTimestamp(), summary.getSummary().getFirstTimestamp());
+            assertEquals(session.getSummary().getLastTimestamp(), summary.getSummary().getLastTimestamp());
+            if (session.getGpx() != null) {
+                BoundsType bounds = session.getGpx().getMetadata().getBounds();
+                BoundsType cachedBounds = summary.getGpx().getMetadata().getBounds();
+                assertEquals(bounds.getMinlat(), cachedBounds.getMinlat());
+                assertEquals(bounds.getMinlon(), cachedBounds.getMinlon());
+                assertEquals(bounds.getMaxlat(), cachedBounds.getMaxlat());
+                assertEquals(bounds.getMaxlon(), cachedBounds.getMaxlon());
+                assertTrue("Cached GPX holds a track", summary.getGpx().getTrk().isEmpty());
+            }
+        }
+    }
+
+    private String request(String url, String method, String body, int status) throws IOException {
+        return request(url, method, "application/json", body, status);
+    }
+
+    private String request(String url, String method, String contentType, String body, int status) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setDoOutput(true);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(body.getBytes("UTF-8"));
+            }
+        }
+        assertEquals(status, connection.getResponseCode());
+        try (InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return IOUtils.toString(is, "UTF-8");
+        }
+    }
+
+    // HttpURLConnection does not allow setting the Host header
+    private String requestWithHost(int port, String host) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET /exports HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+            os.flush();
+            return IOUtils.toString(socket.getInputStream(), "UTF-8");
+        }
+    }
+
+    private File findOutput(File dest, String id, String format) {
+        File[] files = dest.listFiles(file -> file.getName().endsWith("_" + id + "." + format));
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    // Export with a user and one copy of the SportSession.json resource per id, without GPS or heart rate data
+    private File createExport(String... ids) throws IOException {
+        return createExport(folder.newFolder("export"), ids);
+    }
+
+    private File createExport(File root, String... ids) throws IOException {
+        copyResource("user.json", new File(root, "User/user.json"));
+        for (String id : ids) {
+            copySession(id, new File(root, "Sport-sessions/" + id + ".json"));
+        }
+        return root;
+    }
+
+    private File copySession(String id, File dest) throws IOException {
+        copyResource("SportSession.json", dest);
+        Files.write(dest.toPath(), new String(Files.readAllBytes(dest.toPath()), "UTF-8").replace(ID1, id).getBytes("UTF-8"));
+        return dest;
+    }
+
+    private File copyResource(String name, File dest) throws IOException {
+        dest.getParentFile().mkdirs();
+        try (InputStream is = getClass().getResourceAsStream(name)) {
+            Files.copy(is, dest.toPath());
+        }
+        return dest;
+    }
+
+    private List<List<SportSession>> pairwise(List<SportSession> sessions, BiPredicate<SportSession, SportSession> predicate) {
+        List<List<SportSession>> result = new ArrayList<>();
+        for (SportSession session : sessions) {
+            List<SportSession> matches = new ArrayList<>();
+            for (SportSession session2 : sessions) {
+                if (!session.getId().equals(session2.getId()) && predicate.test(session, session2)) {
+                    matches.add(session2);
+                }
+            }
+            result.add(matches);
+        }
+        return result;
+    }
+
+    private List<List<String>> normalize(List<List<SportSession>> matches) {
+        // Previous in-place normalization: later sessions see the already normalized lists
+        for (int i = 0; i < matches.size(); i++) {
+            if (!matches.get(i).isEmpty()) {
+                List<SportSession> normalized = new ArrayList<>();
+                for (SportSession session : matches.get(i)) {
+                    addTransitive(matches, normalized, session);
+                }
+                matches.set(i, normalized);
+            }
+        }
+        return matches.stream().map(this::sortedIds).collect(Collectors.toList());
+    }
+
+    private void addTransitive(List<List<SportSession>> matches, List<SportSession> normalized, SportSession session) {
+        for (SportSession inner : matches.get(Integer.parseInt(session.getId()))) {
+            if (!normalized.contains(inner)) {
+                normalized.add(inner);
+                addTransitive(matches, normalized, inner);
+            }
+        }
+    }
+
+    private List<String> sortedIds(List<SportSession> sessions) {
+        return sessions == null ? new ArrayList<>() : sessions.stream().map(SportSession::getId).sorted().collect(Collectors.toList());
+    }
+
+    private BigDecimal coordinate(double value) {
+        return new BigDecimal(value).setScale(6, RoundingMode.HALF_UP);
+    }
+
+    // GPS track following the given latitude and longitude pairs, with a position about every 10 m
+    private SportSession createRouteSession(String id, double... path) {
+        SportSession session = new SportSession();
+        session.setId(id);
+        if (path.length > 0) {
+            GpsTrack track = new GpsTrack();
+            long time = 0;
+            for (int k = 0; k + 3 < path.length; k += 2) {
+                int steps = (int) Math.ceil(Math.max(Math.abs(path[k + 2] - path[k]), Math.abs(path[k + 3] - path[k + 1])) / 0.0001);
+                for (int step = 0; step < steps; step++) {
+                    double t = step / (double) steps;
+                    track.add(time += 3000, path[k] + (path[k + 2] - path[k]) * t, path[k + 1] + (path[k + 3] - path[k + 1]) * t, Double.NaN, GpsTrack.NO_DISTANCE);
+                }
+            }
+            track.add(time + 3000, path[path.length - 2], path[path.length - 1], Double.NaN, GpsTrack.NO_DISTANCE);
+            session.setGpsTrack(track);
+        }
+        return session;
+    }
+
     private SportSession createSportSession(String id, BigDecimal maxLat, BigDecimal maxLon, BigDecimal minLon, BigDecimal minLat)  {
         SportSession session = new SportSession();
         GpxType gpx = new GpxType();
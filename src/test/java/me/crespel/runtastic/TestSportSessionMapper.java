@@ -1,9 +1,40 @@
 package me.crespel.runtastic;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.XMLConstants;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
 import org.junit.Test;
 
+import com.garmin.xmlschemas.trainingcenterdatabase.v2.TrackpointT;
+
 import me.crespel.runtastic.mapper.DelegatingSportSessionMapper;
+import me.crespel.runtastic.mapper.MappingOptions;
 import me.crespel.runtastic.mapper.SportSessionMapper;
+import me.crespel.runtastic.mapper.TcxSportSessionMapper;
+import me.crespel.runtastic.mapper.TrackSimplifier;
+import me.crespel.runtastic.model.ElevationData;
+import me.crespel.runtastic.model.GpsData;
+import me.crespel.runtastic.model.GpsTrack;
+import me.crespel.runtastic.model.HeartRateTrack;
+import me.crespel.runtastic.model.ImagesMetaData;
 import me.crespel.runtastic.model.SportSession;
 import me.crespel.runtastic.parser.SportSessionParser;
 
@@ -32,4 +63,153 @@ public class TestSportSessionMapper {
 		mapper.mapSportSession(sportSession, "gpx", System.out);
 	}
 
+	@Test
+	public void testStreamSportSessionToTCX() throws Exception {
+		byte[] tcx = streamSportSession("tcx", true);
+		System.out.println(new String(tcx, "UTF-8"));
+		validate(tcx, "src/main/xsd/TrainingCenterDatabasev2.xsd");
+	}
+
+	@Test
+	public void testStreamSportSessionToGPX() throws Exception {
+		byte[] gpx = streamSportSession("gpx", true);
+		System.out.println(new String(gpx, "UTF-8"));
+		validate(gpx, "src/main/xsd/gpx.xsd");
+	}
+
+	@Test
+	public void testStreamSportSessionCompact() throws Exception {
+		byte[] gpx = streamSportSession("gpx", false);
+		assertFalse("Compact output is indented", new String(gpx, "UTF-8").contains("\n"));
+		validate(gpx, "src/main/xsd/gpx.xsd");
+	}
+
+	@Test
+	public void testStreamedGPXMatchesMarshalledGPX() throws Exception {
+		for (boolean formatted : new boolean[] { true, false }) {
+			byte[] marshalled = mapSportSessionWithImages("gpx", false, formatted);
+			byte[] streamed = mapSportSessionWithImages("gpx", true, formatted);
+			assertEquals(new String(marshalled, "UTF-8"), new String(streamed, "UTF-8"));
+			assertArrayEquals(marshalled, streamed);
+			validate(streamed, "src/main/xsd/gpx.xsd");
+		}
+	}
+
+	@Test
+	public void testMergeTrackpointsToTCX() throws Exception {
+		SportSession sportSession = parser.parseSportSession(getClass().getResourceAsStream("SportSession.json"));
+		sportSession.setGpsData(parser.parseGpsData(getClass().getResourceAsStream("GpsData.json")));
+		sportSession.setHeartRateData(parser.parseHeartRateData(getClass().getResourceAsStream("HeartRateData.json")));
+		int gpsCount = new TcxSportSessionMapper().mapSportSession(sportSession, "tcx").getActivities().getActivity().get(0).getLap().get(0).getTrack().get(0).getTrackpoint().size();
+
+		// Elevation samples fill the altitude of existing trackpoints, or add trackpoints of their own
+		GpsData lastGps = sportSession.getGpsData().get(sportSession.getGpsData().size() - 1);
+		sportSession.setElevationData(Arrays.asList(
+				elevation(sportSession.getGpsData().get(0).getTimestamp(), 1000),
+				elevation(new Date(lastGps.getTimestamp().getTime() + 1000), 42)));
+		List<TrackpointT> trackpoints = new TcxSportSessionMapper().mapSportSession(sportSession, "tcx").getActivities().getActivity().get(0).getLap().get(0).getTrack().get(0).getTrackpoint();
+		assertEquals(gpsCount + 1, trackpoints.size());
+		for (int i = 1; i < trackpoints.size(); i++) {
+			assertTrue("Trackpoints not ordered by time", trackpoints.get(i - 1).getTime().compare(trackpoints.get(i).getTime()) == DatatypeConstants.LESSER);
+		}
+		assertEquals(lastGps.getAltitude().doubleValue(), trackpoints.get(gpsCount - 1).getAltitudeMeters(), 0.0);
+		assertEquals(42.0, trackpoints.get(gpsCount).getAltitudeMeters(), 0.0);
+		assertNull(trackpoints.get(gpsCount).getPosition());
+
+		// The streaming writer merges the same trackpoints
+		MappingOptions options = new MappingOptions();
+		options.setStreaming(true);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new TcxSportSessionMapper(options).mapSportSession(sportSession, "tcx", os);
+		String tcx = new String(os.toByteArray(), "UTF-8");
+		assertEquals(trackpoints.size(), tcx.split("<Trackpoint>", -1).length - 1);
+		validate(os.toByteArray(), "src/main/xsd/TrainingCenterDatabasev2.xsd");
+	}
+
+	@Test
+	public void testTrackSimplifier() throws Exception {
+		// 1 Hz track going 200 m east then 200 m north, with jitter below 1 m
+		GpsTrack track = new GpsTrack();
+		HeartRateTrack heartRateTrack = new HeartRateTrack();
+		Random random = new Random(42);
+		double meter = 1 / 111195.0;
+		for (int i = 0; i <= 400; i++) {
+			double jitter = (random.nextDouble() - 0.5) * meter;
+			double lat = 45 + (i <= 200 ? jitter : (i - 200) * meter);
+			double lon = 5 + (i <= 200 ? i : 200 + jitter / meter) * meter / Math.cos(Math.toRadians(45));
+			track.add(1000L * i, lat, lon, 100, i);
+			heartRateTrack.add(1000L * i, 120, i);
+		}
+
+		for (TrackSimplifier.Method method : TrackSimplifier.Method.values()) {
+			MappingOptions options = new MappingOptions();
+			options.setSimplifyTolerance(2);
+			options.setSimplifyMethod(method);
+			GpsTrack simplified = TrackSimplifier.simplify(track, options);
+			assertTrue(method.name() + " kept " + simplified.size() + " points", simplified.size() < track.size() / 10);
+			assertEquals(0, simplified.getTimestamp(0));
+			assertEquals(400000, simplified.getTimestamp(simplified.size() - 1));
+			boolean corner = false;
+			for (int i = 0; i < simplified.size(); i++) {
+				corner |= Math.abs(simplified.getTimestamp(i) - 200000) <= 5000;
+			}
+			assertTrue(method.name() + " did not keep the corner", corner);
+			assertSame(heartRateTrack, TrackSimplifier.simplify(heartRateTrack, options));
+		}
+		MappingOptions options = new MappingOptions();
+		options.setSimplifyTolerance(2);
+		assertEquals(3, TrackSimplifier.simplify(track, options).size());
+
+		options = new MappingOptions();
+		options.setSampleInterval(30);
+		GpsTrack downsampled = TrackSimplifier.simplify(track, options);
+		assertEquals(15, downsampled.size());
+		assertEquals(390000, downsampled.getTimestamp(13));
+		assertEquals(400000, downsampled.getTimestamp(14));
+		assertEquals(15, TrackSimplifier.simplify(heartRateTrack, options).size());
+	}
+
+	private ElevationData elevation(Date timestamp, int value) {
+		ElevationData elevation = new ElevationData();
+		elevation.setTimestamp(timestamp);
+		elevation.setElevation(value);
+		return elevation;
+	}
+
+	private byte[] streamSportSession(String format, boolean formatted) throws Exception {
+		MappingOptions options = new MappingOptions();
+		options.setStreaming(true);
+		options.setFormattedOutput(formatted);
+		SportSession sportSession = parser.parseSportSession(getClass().getResourceAsStream("SportSession.json"));
+		sportSession.setGpsData(parser.parseGpsData(getClass().getResourceAsStream("GpsData.json")));
+		sportSession.setHeartRateData(parser.parseHeartRateData(getClass().getResourceAsStream("HeartRateData.json")));
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new DelegatingSportSessionMapper(options).mapSportSession(sportSession, format, os);
+		return os.toByteArray();
+	}
+
+	// Session with a located photo and a photo without location, which is not written as a way point
+	private byte[] mapSportSessionWithImages(String format, boolean streaming, boolean formatted) throws Exception {
+		MappingOptions options = new MappingOptions();
+		options.setStreaming(streaming);
+		options.setFormattedOutput(formatted);
+		SportSession sportSession = parser.parseSportSession(getClass().getResourceAsStream("SportSession.json"));
+		sportSession.setGpsData(parser.parseGpsData(getClass().getResourceAsStream("GpsData.json")));
+		sportSession.setHeartRateData(parser.parseHeartRateData(getClass().getResourceAsStream("HeartRateData.json")));
+		ImagesMetaData image = parser.parseImagesMetaData(getClass().getResourceAsStream("ImagesMetaData.json"));
+		ImagesMetaData unlocated = parser.parseImagesMetaData(getClass().getResourceAsStream("ImagesMetaData.json"));
+		unlocated.setId(image.getId() + 1);
+		unlocated.setLatitude(null);
+		unlocated.setLongitude(null);
+		sportSession.setImages(Arrays.asList(image, unlocated));
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new DelegatingSportSessionMapper(options).mapSportSession(sportSession, format, os);
+		return os.toByteArray();
+	}
+
+	private void validate(byte[] document, String xsd) throws Exception {
+		Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(new File(xsd));
+		schema.newValidator().validate(new StreamSource(new ByteArrayInputStream(document)));
+	}
+
 }
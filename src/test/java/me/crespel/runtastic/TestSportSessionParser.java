@@ -1,21 +1,51 @@
 package me.crespel.runtastic;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.datatype.DatatypeFactory;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.topografix.gpx._1._1.GpxType;
 
 import me.crespel.runtastic.model.GpsData;
+import me.crespel.runtastic.model.GpsTrack;
 import me.crespel.runtastic.model.HeartRateData;
+import me.crespel.runtastic.model.HeartRateTrack;
 import me.crespel.runtastic.model.ImagesMetaData;
 import me.crespel.runtastic.model.Shoe;
 import me.crespel.runtastic.model.SportSession;
 import me.crespel.runtastic.model.SportSessionAlbums;
+import me.crespel.runtastic.model.TimestampCodec;
 import me.crespel.runtastic.model.User;
+import me.crespel.runtastic.parser.ReferenceDataCache;
 import me.crespel.runtastic.parser.SportSessionParser;
+import me.crespel.runtastic.xml.JaxbSupport;
 
 /**
  * SportSessionParser tests.
@@ -26,6 +56,9 @@ public class TestSportSessionParser {
 
 	private final SportSessionParser parser = new SportSessionParser();
 
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testParseSportSession() throws JsonParseException, JsonMappingException, IOException {
 		SportSession data = parser.parseSportSession(getClass().getResourceAsStream("SportSession.json"));
@@ -44,6 +77,93 @@ public class TestSportSessionParser {
 		System.out.println(data);
 	}
 
+	@Test
+	public void testParseGpsTrack() throws JsonParseException, JsonMappingException, IOException {
+		List<GpsData> expected = parser.parseGpsData(getClass().getResourceAsStream("GpsData.json"));
+		GpsTrack data = parser.parseGpsTrack(getClass().getResourceAsStream("GpsData.json"));
+		assertEquals(expected.size(), data.size());
+		for (int i = 0; i < data.size(); i++) {
+			assertEquals(expected.get(i).getTimestamp().getTime(), data.getTimestamp(i));
+			assertEquals(expected.get(i).getLatitude().doubleValue(), data.getLatitude(i), 0);
+			assertEquals(expected.get(i).getLongitude().doubleValue(), data.getLongitude(i), 0);
+			assertEquals(expected.get(i).getAltitude().doubleValue(), data.getAltitude(i), 0);
+			assertEquals(expected.get(i).getDistance().intValue(), data.getDistance(i));
+		}
+	}
+
+	@Test
+	public void testParseHeartRateTrack() throws JsonParseException, JsonMappingException, IOException {
+		List<HeartRateData> expected = parser.parseHeartRateData(getClass().getResourceAsStream("HeartRateData.json"));
+		HeartRateTrack data = parser.parseHeartRateTrack(getClass().getResourceAsStream("HeartRateData.json"));
+		assertEquals(expected.size(), data.size());
+		for (int i = 0; i < data.size(); i++) {
+			assertEquals(expected.get(i).getTimestamp().getTime(), data.getTimestamp(i));
+			assertEquals(expected.get(i).getHeartRate().intValue(), data.getHeartRate(i));
+			assertEquals(expected.get(i).getDistance().intValue(), data.getDistance(i));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testParseGpxTrack() throws Exception {
+		GpxType gpx = ((JAXBElement<GpxType>) JaxbSupport.getUnmarshaller(GpxType.class).unmarshal(getClass().getResourceAsStream("GpsData.gpx"))).getValue();
+		GpsTrack expected = GpsTrack.of(gpx);
+		GpsTrack data = parser.parseGpxTrack(getClass().getResourceAsStream("GpsData.gpx"));
+		assertEquals(5, data.size());
+		assertEquals(expected.size(), data.size());
+		assertEquals(2, data.getSegmentCount());
+		for (int s = 0; s < data.getSegmentCount(); s++) {
+			assertEquals(expected.getSegmentStart(s), data.getSegmentStart(s));
+			assertEquals(expected.getSegmentEnd(s), data.getSegmentEnd(s));
+		}
+		for (int i = 0; i < data.size(); i++) {
+			assertEquals(expected.getTimestamp(i), data.getTimestamp(i));
+			assertEquals(expected.getLatitude(i), data.getLatitude(i), 0);
+			assertEquals(expected.getLongitude(i), data.getLongitude(i), 0);
+			assertEquals(expected.getAltitude(i), data.getAltitude(i), 0);
+		}
+	}
+
+	@Test
+	public void testTimestampCodec() throws Exception {
+		SimpleDateFormat sdf = new SimpleDateFormat(TimestampCodec.PATTERN, Locale.ROOT);
+		DatatypeFactory factory = DatatypeFactory.newInstance();
+		TimeZone defaultZone = TimeZone.getDefault();
+		Random random = new Random(42);
+		try {
+			for (String zone : new String[] { "UTC", "Europe/Paris", "America/St_Johns", "Asia/Kathmandu" }) {
+				TimeZone.setDefault(TimeZone.getTimeZone(zone));
+				for (int i = 0; i < 2000; i++) {
+					long timestamp = (long) (random.nextDouble() * 4102444800000L) / 1000 * 1000 + (i % 2 == 0 ? random.nextInt(1000) : 0);
+					sdf.setTimeZone(TimeZone.getTimeZone(i % 3 == 0 ? "UTC" : zone));
+					String value = sdf.format(new Date(timestamp / 1000 * 1000));
+					assertEquals(value, sdf.parse(value).getTime(), TimestampCodec.parse(value));
+
+					GregorianCalendar cal = new GregorianCalendar();
+					cal.setTimeInMillis(timestamp);
+					String expected = factory.newXMLGregorianCalendar(cal).toXMLFormat();
+					assertEquals(expected, TimestampCodec.format(timestamp));
+					assertEquals(expected, TimestampCodec.toXMLGregorianCalendar(timestamp, factory).toXMLFormat());
+					assertEquals(expected, timestamp, TimestampCodec.parseDateTime(expected));
+				}
+			}
+		} finally {
+			TimeZone.setDefault(defaultZone);
+		}
+		assertEquals(parser.parseGpsData(getClass().getResourceAsStream("GpsData.json")).get(0).getTimestamp().getTime(),
+				parser.parseGpsTrack(getClass().getResourceAsStream("GpsData.json")).getTimestamp(0));
+		for (String value : new String[] { "2020-04-12T07:22:10Z", "2020-04-12T07:22:10.1239Z", "2020-04-12T09:22:10.5-02:30",
+				"2020-04-12T07:22:10", "2020-04-12T07:22:10.25+14:00", "0999-12-31T23:59:59.999Z", "2016-12-31T23:59:60Z" }) {
+			assertEquals(value, factory.newXMLGregorianCalendar(value).toGregorianCalendar().getTimeInMillis(), TimestampCodec.parseDateTime(value));
+		}
+		try {
+			TimestampCodec.parseDateTime("2020-04-12 07:22:10");
+			fail("Invalid xsd:dateTime parsed");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 	@Test
 	public void testParseSportSessionAlbums() throws JsonParseException, JsonMappingException, IOException {
 		SportSessionAlbums data = parser.parseSportSessionAlbumsData(getClass().getResourceAsStream("SportSessionAlbums.json"));
@@ -70,8 +190,97 @@ public class TestSportSessionParser {
 
 	@Test
 	public void testParseUser() throws JsonParseException, JsonMappingException, IOException {
-		User data = parser.parseUser(getClass().getResourceAsStream("User.json"));
+		User data = parser.parseUser(getClass().getResourceAsStream("user.json"));
 		System.out.println(data);
 	}
 
+	@Test
+	public void testReferenceDataCache() throws JsonParseException, JsonMappingException, IOException {
+		File root = folder.getRoot();
+		copyResource("SportSession.json", new File(root, "Sport-sessions/1.json"));
+		copyResource("SportSession.json", new File(root, "Sport-sessions/2.json"));
+		File userFile = copyResource("user.json", new File(root, "User/user.json"));
+
+		SportSession session1 = parser.parseSportSession(new File(root, "Sport-sessions/1.json"));
+		SportSession session2 = parser.parseSportSession(new File(root, "Sport-sessions/2.json"));
+		assertSame(session1.getUser(), session2.getUser());
+		assertEquals(1, parser.getReferenceDataCache().getParseCount(ReferenceDataCache.Type.USER));
+		assertEquals(2, parser.getReferenceDataCache().getLookupCount(ReferenceDataCache.Type.USER));
+
+		// A modified file is parsed again
+		userFile.setLastModified(userFile.lastModified() - 10000);
+		parser.parseSportSession(new File(root, "Sport-sessions/1.json")).getUser();
+		assertEquals(2, parser.getReferenceDataCache().getParseCount(ReferenceDataCache.Type.USER));
+	}
+
+	@Test
+	public void testLazySubData() throws JsonParseException, JsonMappingException, IOException {
+		File root = folder.getRoot();
+		File file = copyResource("SportSession.json", new File(root, "Sport-sessions/1.json"));
+		File gpsDataFile = copyResource("GpsData.json", new File(root, "Sport-sessions/GPS-data/1.json"));
+		copyResource("HeartRateData.json", new File(root, "Sport-sessions/Heart-rate-data/1.json"));
+		copyResource("user.json", new File(root, "User/user.json"));
+
+		// Nothing is loaded until accessed
+		SportSession session = parser.parseSportSession(file, true);
+		assertEquals(0, parser.getReferenceDataCache().getLookupCount(ReferenceDataCache.Type.USER));
+		assertTrue(session.hasHeartRateData());
+		assertNotNull(session.getHeartRateTrack());
+		assertNull(session.getGpx());
+		assertNotNull(session.getUser());
+		assertEquals(1, parser.getReferenceDataCache().getLookupCount(ReferenceDataCache.Type.USER));
+
+		// Loaded data is released and loaded again, data set explicitly is kept
+		GpsTrack gpsTrack = session.getGpsTrack();
+		assertSame(gpsTrack, session.getGpsTrack());
+		GpxType gpx = new GpxType();
+		session.setGpx(gpx);
+		session.release();
+		assertSame(gpx, session.getGpx());
+		assertNotSame(gpsTrack, session.getGpsTrack());
+		assertEquals(gpsTrack.size(), session.getGpsTrack().size());
+
+		gpsDataFile.delete();
+		session.release();
+		assertFalse(session.hasGpsData());
+		assertNull(session.getGpsTrack());
+
+		// Sub-data files are not loaded unless parsed in full
+		session = parser.parseSportSession(file, false);
+		assertFalse(session.hasHeartRateData());
+		assertNull(session.getHeartRateTrack());
+		assertNotNull(session.getUser());
+	}
+
+	@Test
+	public void testLazyGpxTrack() throws JsonParseException, JsonMappingException, IOException {
+		File root = folder.getRoot();
+		File file = copyResource("SportSession.json", new File(root, "Sport-sessions/1.json"));
+		File gpxFile = copyResource("GpsData.gpx", new File(root, "Sport-sessions/GPS-data/1.gpx"));
+
+		// The first GPX track is read without the GPX model, and summarized with the session
+		SportSession session = parser.parseSportSession(file, true);
+		GpsTrack track = session.getGpxTrack();
+		assertEquals(5, track.size());
+		assertSame(track, session.getGpxTrack());
+		assertEquals(5, session.getSummary().getPoints());
+		assertEquals(2, session.getGpx().getTrk().size());
+
+		// Files the streaming parser rejects are read with JAXB
+		String content = new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8);
+		Files.write(gpxFile.toPath(), content.replace("2020-04-12T07:22:14.5Z", "yesterday").getBytes(StandardCharsets.UTF_8));
+		session.release();
+		track = session.getGpxTrack();
+		assertEquals(5, track.size());
+		assertEquals(GpsTrack.NO_TIMESTAMP, track.getTimestamp(4));
+	}
+
+	private File copyResource(String name, File dest) throws IOException {
+		dest.getParentFile().mkdirs();
+		try (InputStream is = getClass().getResourceAsStream(name)) {
+			Files.copy(is, dest.toPath());
+		}
+		return dest;
+	}
+
 }